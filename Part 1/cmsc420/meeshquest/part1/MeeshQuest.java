@@ -11,14 +11,16 @@ import java.util.Map;
 import java.util.TreeMap;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import cmsc420.drawing.CanvasPlus;
+import cmsc420.utils.CommandReader;
+import cmsc420.utils.ResultsPrinter;
 import cmsc420.xml.XmlUtility;
 
 class CityLocationComparator implements Comparator<City>{
@@ -60,6 +62,19 @@ class CityNameComparator implements Comparator<String>{
 
 public class MeeshQuest {
 
+	/**
+	 *  whether to run each command as soon as it is read and print its result
+	 *  right away, instead of parsing and validating the whole input first.
+	 *  Set with -Dmeeshquest.stream=true.
+	 */
+	private static final boolean STREAM_INPUT = Boolean.getBoolean("meeshquest.stream");
+	/**
+	 *  whether to print the result of each command as soon as it has run
+	 *  instead of keeping every result until the end. Streaming the input
+	 *  implies this. Set with -Dmeeshquest.streamOutput=true.
+	 */
+	private static final boolean STREAM_OUTPUT = STREAM_INPUT || Boolean.getBoolean("meeshquest.streamOutput");
+
     public static void main(String[] args) {
     	
     	TreeMap<String, City> treeNameToCity = new TreeMap<String, City>(new CityNameComparator());
@@ -70,19 +85,32 @@ public class MeeshQuest {
 
 		
     	Document results = null;
+    	ResultsPrinter printer = null;
+    	boolean failed = false;
     	
         try {
-        	Document doc = XmlUtility.validateNoNamespace(System.in);
-        	//Document doc = XmlUtility.validateNoNamespace(new File("./src/part1.createCity1.input.xml"));
-        	//Document doc = XmlUtility.validateNoNamespace(new File("./src/part1.primary.input.xml"));
         	results = XmlUtility.getDocumentBuilder().newDocument();
         	results.setXmlStandalone(true);
         	
+        	if (STREAM_OUTPUT) {
+        		printer = new ResultsPrinter(System.out, results);
+        	}
+        	
+        	final CommandReader commands;
+        	if (STREAM_INPUT) {
+        		commands = new CommandReader(System.in, results);
+        	} else {
+        		Document doc = XmlUtility.validateNoNamespace(System.in);
+        		//Document doc = XmlUtility.validateNoNamespace(new File("./src/part1.createCity1.input.xml"));
+        		//Document doc = XmlUtility.validateNoNamespace(new File("./src/part1.primary.input.xml"));
+        		commands = new CommandReader(doc);
+        	}
+        	
         	// root element
             Element rootElement = results.createElement("results");
             results.appendChild(rootElement);
             
-            Element commandNode = doc.getDocumentElement();
+            Element commandNode = commands.getRoot();
         	
             int spatialWidth = Integer.parseInt(commandNode.getAttribute("spatialWidth"));
         	int spatialHeight = Integer.parseInt(commandNode.getAttribute("spatialHeight"));;
@@ -92,11 +120,11 @@ public class MeeshQuest {
     		prQuadTree = new PRQuadTree(0, spatialWidth, 0, spatialHeight, canvas);
         	prQuadTree.setCanvas();
         	
-        	final NodeList nl = commandNode.getChildNodes();
-        	for (int i = 0; i < nl.getLength(); i++) {
-        		if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
+        	Element next;
+        	while ((next = commands.next()) != null) {
+        		if (next.getNodeType() == Document.ELEMENT_NODE) {
         			
-        			commandNode = (Element) nl.item(i);
+        			commandNode = next;
         			
         			if (commandNode.getTagName().equals("createCity")){
         				
@@ -588,13 +616,17 @@ public class MeeshQuest {
         			}
         			
         			
+        			if (printer != null) {
+        				printer.print(rootElement);
+        			}
         		}
         		
         	}
         	
         	canvas.draw();
-        } catch (SAXException | IOException | ParserConfigurationException e) {
+        } catch (SAXException | IOException | ParserConfigurationException | XMLStreamException e) {
         	e.printStackTrace();
+        	failed = true;
         	try {
     			results = XmlUtility.getDocumentBuilder().newDocument();
     			final Element fatalError = results.createElement("fatalError");
@@ -606,10 +638,17 @@ public class MeeshQuest {
 		} finally {
 			
             try {
-				XmlUtility.print(results);
+            	if (printer != null) {
+            		if (failed) {
+            			printer.printFatalError();
+            		}
+            		printer.finish();
+            	} else {
+            		XmlUtility.print(results);
+            	}
 				
 				//System.out.println(prQuadTree.show());
-			} catch (TransformerException e) {
+			} catch (TransformerException | XMLStreamException e) {
 				e.printStackTrace();
 			}
         }
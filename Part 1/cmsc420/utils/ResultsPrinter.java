@@ -0,0 +1,213 @@
+package cmsc420.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Prints the results of commands as they are produced instead of once every
+ * command has run. Each call to print writes the children of the results
+ * element through an <code>XMLStreamWriter</code> and removes them, so the
+ * results document never grows past the output of a single command.
+ * <p>
+ * The bytes written are the same as <code>XmlUtility.print</code> writes for
+ * the whole results document: the declaration, then one element per line
+ * indented by {@value #INDENT} spaces a level, with empty elements closed with
+ * <code>/&gt;</code>. The printer can write to any stream, so the output of a
+ * run can be compared with the DOM path.
+ */
+public class ResultsPrinter {
+
+	/** spaces per level of nesting, as used by XmlUtility */
+	private static final int INDENT = 4;
+
+	/** line separator the XML transformer writes */
+	private static final String NEWLINE = System.lineSeparator();
+
+	/** where the results go */
+	private final Writer out;
+
+	/** writes the result elements */
+	private final XMLStreamWriter writer;
+
+	/** document holding the results, or null if it is not known */
+	private final Document results;
+
+	/** whether the opening results tag has been written */
+	private boolean started;
+
+	/** whether the input failed before any results were written */
+	private boolean failed;
+
+	/**
+	 * Constructs a printer.
+	 *
+	 * @param out
+	 *            where the results go
+	 * @param results
+	 *            document the results are built in, which decides whether the
+	 *            declaration is marked standalone
+	 * @throws XMLStreamException
+	 *             no XML stream writer is available
+	 */
+	public ResultsPrinter(final OutputStream out, final Document results)
+			throws XMLStreamException {
+		this.out = new BufferedWriter(new OutputStreamWriter(out,
+				StandardCharsets.UTF_8));
+		this.results = results;
+		writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.out);
+	}
+
+	/**
+	 * Writes the children of a results element and removes them from it.
+	 *
+	 * @param results
+	 *            results element
+	 * @throws XMLStreamException
+	 *             a result could not be written
+	 */
+	public void print(final Element results) throws XMLStreamException {
+		start();
+		Node child;
+		while ((child = results.getFirstChild()) != null) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				writeElement((Element) child, 1);
+			}
+			results.removeChild(child);
+		}
+		flush();
+	}
+
+	/**
+	 * Reports that the input could not be read. If no results have been
+	 * written yet the whole output is the error, as when the input is parsed
+	 * up front; otherwise it follows the results already written.
+	 *
+	 * @throws XMLStreamException
+	 *             the error could not be written
+	 */
+	public void printFatalError() throws XMLStreamException {
+		if (started) {
+			indent(1);
+			writer.writeEmptyElement("fatalError");
+			writer.writeCharacters(NEWLINE);
+		} else {
+			writeDeclaration(false);
+			writer.writeEmptyElement("fatalError");
+			writer.writeCharacters(NEWLINE);
+			failed = true;
+		}
+		flush();
+	}
+
+	/**
+	 * Closes the results element.
+	 *
+	 * @throws XMLStreamException
+	 *             the closing tag could not be written
+	 */
+	public void finish() throws XMLStreamException {
+		if (failed) {
+			return;
+		}
+		start();
+		writer.writeEndElement();
+		writer.writeCharacters(NEWLINE);
+		flush();
+	}
+
+	private void start() throws XMLStreamException {
+		if (!started) {
+			writeDeclaration(results != null && results.getXmlStandalone());
+			writer.writeStartElement("results");
+			writer.writeCharacters(NEWLINE);
+			started = true;
+		}
+	}
+
+	/**
+	 * Writes the XML declaration the way the transformer does, which
+	 * XMLStreamWriter.writeStartDocument cannot since it has no standalone
+	 * flag. The transformer only breaks the line after a declaration that
+	 * says standalone="no".
+	 */
+	private void writeDeclaration(final boolean standalone)
+			throws XMLStreamException {
+		writer.flush();
+		try {
+			out.write(standalone ? "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+					: "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>"
+							+ NEWLINE);
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+
+	/**
+	 * Writes an element and everything inside it, starting on a new line
+	 * indented to the given depth.
+	 */
+	private void writeElement(final Element element, final int depth)
+			throws XMLStreamException {
+		indent(depth);
+		boolean empty = true;
+		for (Node child = element.getFirstChild(); child != null; child = child
+				.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				empty = false;
+				break;
+			}
+		}
+		if (empty) {
+			writer.writeEmptyElement(element.getTagName());
+		} else {
+			writer.writeStartElement(element.getTagName());
+		}
+		final NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			final Attr attribute = (Attr) attributes.item(i);
+			writer.writeAttribute(attribute.getName(), attribute.getValue());
+		}
+		writer.writeCharacters(NEWLINE);
+		if (!empty) {
+			for (Node child = element.getFirstChild(); child != null; child = child
+					.getNextSibling()) {
+				if (child.getNodeType() == Node.ELEMENT_NODE) {
+					writeElement((Element) child, depth + 1);
+				}
+			}
+			indent(depth);
+			writer.writeEndElement();
+			writer.writeCharacters(NEWLINE);
+		}
+	}
+
+	private void indent(final int depth) throws XMLStreamException {
+		final char[] spaces = new char[depth * INDENT];
+		Arrays.fill(spaces, ' ');
+		writer.writeCharacters(spaces, 0, spaces.length);
+	}
+
+	private void flush() throws XMLStreamException {
+		writer.flush();
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw new XMLStreamException(e);
+		}
+	}
+}
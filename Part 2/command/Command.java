@@ -51,12 +51,16 @@ import cmsc420.structure.CityNameComparator;
 //import cmsc420.structure.prquadtree.LeafNode;
 //import cmsc420.structure.prquadtree.Node;
 //import cmsc420.structure.prquadtree.PRQuadtree;
+import cmsc420.structure.graph.ContractionHierarchy;
+import cmsc420.structure.graph.PathFinder;
+import cmsc420.structure.graph.RoadGraph;
 import cmsc420.structure.pmquadtree.InternalNode;
 import cmsc420.structure.pmquadtree.LeafNode;
 import cmsc420.structure.pmquadtree.Node;
 import cmsc420.structure.pmquadtree.PMQuadtree;
 import cmsc420.structure.pmquadtree.StartEndComparator;
 import cmsc420.utils.Canvas;
+import cmsc420.utils.MapSaver;
 import cmsc420.xml.XmlUtility;
 
 
@@ -68,7 +72,7 @@ import cmsc420.xml.XmlUtility;
  * Modified by Enock Gansou
  * @version 2.0, 23 Jan 2007
  */
-public class Command {
+public class Command implements Cloneable {
 	/** output DOM Document tree */
 	protected Document results;
 
@@ -103,16 +107,40 @@ public class Command {
 			}
 	});
 	
-	protected final HashSet<String> roadEndpoints = new HashSet<String>();
 	protected final Treap<String, City> citiesByNameTreap = new Treap<String, City>();
-	protected final TreeMap<String,TreeMap<String,Double>> graph = 
-			new TreeMap<String,TreeMap<String,Double>>();
+	protected final RoadGraph roadGraph = new RoadGraph();
+
+	/** contraction hierarchy shared by the path finders of every thread */
+	protected final ContractionHierarchy hierarchy = new ContractionHierarchy(roadGraph);
+
+	/**
+	 * finds shortest paths; each thread running commands has its own, since a
+	 * finder keeps the state of its last search
+	 */
+	protected final ThreadLocal<PathFinder> pathFinders = new ThreadLocal<PathFinder>() {
+		@Override
+		protected PathFinder initialValue() {
+			return new PathFinder(roadGraph, hierarchy);
+		}
+	};
+
+	/** search used by shortestPath commands that do not name one */
+	protected PathFinder.Mode searchMode = PathFinder.Mode.DIJKSTRA;
 	
 	protected final PMQuadtree pmQuadtree = new PMQuadtree();
 
 	/**order, spatial width and height of the PM Quadtree */
 	protected int spatialWidth, spatialHeight, order;
 
+	/**
+	 * change count of the PM Quadtree when the canvas was last drawn from it,
+	 * or -1 if nothing has been drawn
+	 */
+	private int renderedModCount = -1;
+
+	/** writes saved maps in the background */
+	private final MapSaver mapSaver = new MapSaver();
+
 	/**
 	 * Set the DOM Document tree to send the of processed commands to.
 	 * 
@@ -127,6 +155,27 @@ public class Command {
 		results.appendChild(resultsNode);
 	}
 
+	/**
+	 * Gets a view of this Command for running commands that change nothing.
+	 * The view shares every city and structure with this Command but sends
+	 * its results to a document of its own, so several views can run at once
+	 * as long as nothing changes the map meanwhile.
+	 * 
+	 * @param results
+	 *            DOM Document tree to send the results of the view to
+	 * @return view of this Command
+	 */
+	public Command readOnlyView(final Document results) {
+		final Command view;
+		try {
+			view = (Command) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+		view.setResults(results);
+		return view;
+	}
+
 	/**
 	 * Creates a command result element. Initializes the command name.
 	 * 
@@ -251,14 +300,9 @@ public class Command {
 		spatialWidth = Integer.parseInt(node.getAttribute("spatialWidth"));
 		spatialHeight = Integer.parseInt(node.getAttribute("spatialHeight"));
 		order = Integer.parseInt(node.getAttribute("pmOrder"));
-
-		/* initialize canvas */
-		Canvas.instance.setFrameSize(spatialWidth, spatialHeight);
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, (spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, 
-				(spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, Color.WHITE, true);
-		Canvas.instance.addRectangle(0, 0, spatialWidth, spatialHeight, Color.BLACK,
-				false);
+		if (PathFinder.Mode.parse(node.getAttribute("search")) != null) {
+			searchMode = PathFinder.Mode.parse(node.getAttribute("search"));
+		}
 
 		/* set PR Quadtree range */
 		//prQuadtree.setRange(spatialWidth, spatialHeight);
@@ -358,12 +402,7 @@ public class Command {
 		allMappedCitiesByName.clear();
 		citiesByNameTreap.clear();
 		pmQuadtree.clear();
-
-		/* clear canvas */
-		Canvas.instance.clear();
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, spatialWidth, spatialHeight, Color.BLACK,
-				false);
+		roadGraph.clear();
 
 		/* add success node to results */
 		addSuccessNode(commandNode, parametersNode, outputNode);
@@ -472,20 +511,7 @@ public class Command {
 				//prQuadtree.add(city);
 				pmQuadtree.addIsolatedCity(city);
 				allMappedCitiesByName.put(city, city.getRadius());
-				if(!graph.containsKey(name)){
-					TreeMap<String, Double> startInfo = new TreeMap<String, Double>();
-					startInfo.put(name, 0.0);
-					graph.put(name, startInfo);
-				}
-				else{
-					graph.get(name).put(name, 0.0);
-					
-				}
-				roadEndpoints.add(name);
-
-				/* add city to canvas */
-				Canvas.instance.addPoint(city.getName(), city.getX(), city.getY(),
-						Color.BLACK);
+				roadGraph.addVertex(name, city.getX(), city.getY());
 
 				/* add success node to results */
 				addSuccessNode(commandNode, parametersNode, outputNode);
@@ -542,28 +568,9 @@ public class Command {
 						&& startCity.getY() >= 0 && startCity.getY() <= spatialHeight &&
 						endCity.getX() >= 0 && endCity.getX() <= spatialWidth 
 						&& endCity.getY() >= 0 && endCity.getY() <= spatialHeight ) {
-					if(!graph.containsKey(start)){
-						TreeMap<String, Double> endInfo = new TreeMap<String, Double>();
-						endInfo.put(end, roadlength);
-						graph.put(start, endInfo);
-						
-						
-					}
-					else{
-						graph.get(start).put(end, roadlength);
-						
-					}
-					if(!graph.containsKey(end)){
-						TreeMap<String, Double> startInfo = new TreeMap<String, Double>();
-						startInfo.put(start, roadlength);
-						graph.put(end, startInfo);
-					}
-					else{
-						graph.get(end).put(start, roadlength);
-						
-					}
-					roadEndpoints.add(start);
-					roadEndpoints.add(end);
+					roadGraph.addVertex(start, startCity.getX(), startCity.getY());
+					roadGraph.addVertex(end, endCity.getX(), endCity.getY());
+					roadGraph.addEdge(start, end, roadlength);
 				}
 				
 				final Element roadCreated = results.createElement("roadCreated");
@@ -573,19 +580,11 @@ public class Command {
 				
 				if (pmQuadtree.contains(start)) {
 					allMappedCitiesByName.put(startCity, startCity.getRadius());
-					Canvas.instance.addPoint(startCity.getName(), startCity.getX(), 
-							startCity.getY(), Color.BLACK);
 				}
 				if (pmQuadtree.contains(end)) {
 					allMappedCitiesByName.put(endCity, endCity.getRadius());
-					Canvas.instance.addPoint(endCity.getName(), endCity.getX(), 
-							endCity.getY(), Color.BLACK);
 				}
 
-				/* add road to canvas */
-				Canvas.instance.addLine(startCity.getX(), startCity.getY(),
-						endCity.getX(), endCity.getY(), Color.BLACK);
-
 				/* add success node to results */
 				addSuccessNode(commandNode, parametersNode, outputNode);
 			}  catch (RoadAlreadyMappedException e) {
@@ -638,10 +637,12 @@ public class Command {
 			addErrorNode("nonExistentStart", commandNode, parametersNode);
 		} else if (!pmQuadtree.contains(end)) {
 			addErrorNode("nonExistentEnd", commandNode, parametersNode);
-		} else if (!roadEndpoints.contains(start) || !roadEndpoints.contains(end)) {
+		} else if (!roadGraph.contains(start) || !roadGraph.contains(end)) {
 			addErrorNode("noPathExists", commandNode, parametersNode);
 		} else {
-			TreeMap<String, CloseCity> sp = shortestPath(graph, start, end);
+			PathFinder.Mode mode = PathFinder.Mode.parse(node.getAttribute("search"));
+			if (mode == null) mode = searchMode;
+			TreeMap<String, CloseCity> sp = shortestPath(start, end, mode);
 			
 			final Element pathNode = results.createElement("path");
 			
@@ -730,7 +731,7 @@ public class Command {
 			
 			if (pathFile.compareTo("") != 0) {
 				/* save canvas to file with range circle */
-				canvas.save(pathFile);
+				mapSaver.save(canvas, pathFile);
 				//canvas.dispose();
 			}
 			if (html.compareTo("") != 0) {
@@ -757,51 +758,27 @@ public class Command {
 	 * The model I used is from Ivan Palianytsia and the link to his code is
 	 * https://github.com/palianytsia/algorithms/blob/master/src/main/java/
 	 * edu/stanford/algo/greedy/Dijkstra.java
-	 * @param graph the graph with all edges and distance values
 	 * @param start the starting vertex
 	 * @param end the ending vertex
-	 * @return the shortest path 
+	 * @param mode the search to use, every mode gives the same path
+	 * @return the cities on the shortest path, each with the city it is
+	 * reached from and its distance from the start
 	 */
-	 private TreeMap<String, CloseCity> shortestPath(
-			TreeMap<String,TreeMap<String,Double>> graph, String start, String end) {
-			final  TreeMap<String, CloseCity> processed = new TreeMap<String, CloseCity>();
-			final Map<String, CloseCity> greedyScores = new HashMap<String, CloseCity>();
+	 private TreeMap<String, CloseCity> shortestPath(String start, String end,
+			 PathFinder.Mode mode) {
+			final TreeMap<String, CloseCity> processed = new TreeMap<String, CloseCity>();
+			final PathFinder pathFinder = pathFinders.get();
+			final int source = roadGraph.getId(start);
+			final int target = roadGraph.getId(end);
 			
-			greedyScores.put(start, new CloseCity(start, 0d));
-			for (String v : roadEndpoints) {
-			    if (!v.equals(start)) {
-				greedyScores.put(v, new CloseCity(null, Double.POSITIVE_INFINITY));
-			    }
+			if (pathFinder.find(source, target, mode) == Double.POSITIVE_INFINITY) {
+				processed.put(end, new CloseCity(null, Double.POSITIVE_INFINITY));
+				return processed;
 			}
-			
-			final PriorityQueue<String> remaining = new PriorityQueue<String>(
-					roadEndpoints.size(), new Comparator<String>() {
-			    @Override
-			    public int compare(String v, String w) {
-			    	int cmp = greedyScores.get(v).getDistance().compareTo(greedyScores.get(w).getDistance());
-			    	if (cmp == 0) cmp = v.compareTo(w);
-			    	return cmp;
-			    }
-			});
-			remaining.addAll(roadEndpoints);
-			while (remaining.size() > 0) {
-			    String edgeStart = remaining.poll();
-			    Double distance = greedyScores.get(edgeStart).getDistance();
-			    CloseCity city = greedyScores.get(edgeStart);
-			    processed.put(edgeStart, city);
-			    
-			    TreeMap<String, Double> edges = graph.get(edgeStart);
-			    for (Map.Entry<String,Double> e : edges.entrySet()) {
-			    	String edgeEnd = e.getKey();
-			    	if (remaining.contains(edgeEnd)) {
-			    		Double oldKey = greedyScores.get(edgeEnd).getDistance();
-			    		if(oldKey > distance + e.getValue())
-			    			greedyScores.put(edgeEnd, 
-			    				new CloseCity(edgeStart, Math.min(oldKey, distance + e.getValue())));
-			    		remaining.remove(edgeEnd);
-			    		remaining.add(edgeEnd);
-			    	}
-			    }
+			for (int v = target; ; v = pathFinder.getPrevious(v)) {
+				processed.put(roadGraph.getName(v), new CloseCity(
+						roadGraph.getName(pathFinder.getPrevious(v)), pathFinder.getDistance(v)));
+				if (v == source) break;
 			}
 			return processed;
 	    }
@@ -856,12 +833,125 @@ public class Command {
 		final Element outputNode = results.createElement("output");
 		
 		/* save canvas to '<name>.png' */
-		Canvas.instance.save(name);
+		mapSaver.save(renderMap(), name);
 
 		/* add success node to results */
 		addSuccessNode(commandNode, parametersNode, outputNode);
 	}
 
+	/**
+	 * Waits for every map saved so far to be written.
+	 * 
+	 * @throws IOException
+	 *             a map could not be written
+	 */
+	public void flushMaps() throws IOException {
+		mapSaver.flush();
+	}
+
+	/**
+	 * Stops the thread writing maps once every map saved so far is written.
+	 */
+	public void close() {
+		mapSaver.shutdown();
+	}
+
+	/**
+	 * Gets a canvas showing the PM Quadtree as it is now. Nothing is drawn as
+	 * the map changes; instead the first save after a change walks the PM
+	 * Quadtree once and draws it into a fresh canvas, which later saves reuse
+	 * until the PM Quadtree changes again. The canvas is handed to the map
+	 * saver, so it is never changed once drawn.
+	 * 
+	 * @return canvas showing the PM Quadtree
+	 * @throws IOException
+	 *             an earlier save failed
+	 */
+	private CanvasPlus renderMap() throws IOException {
+		if (!Canvas.isEnabled() || renderedModCount != pmQuadtree.getModCount()) {
+			if (Canvas.isEnabled()) {
+				/* saves still queued may be drawing the old map */
+				mapSaver.dispose(Canvas.instance);
+			}
+			Canvas.setEnabled();
+			drawSpatialMap(Canvas.instance);
+			renderedModCount = pmQuadtree.getModCount();
+		}
+		return Canvas.instance;
+	}
+
+	/**
+	 * Draws the bounds of the spatial map and everything in the PM Quadtree.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 */
+	private void drawSpatialMap(final CanvasPlus canvas) {
+		canvas.setFrameSize(spatialWidth, spatialHeight);
+		/* add a rectangle to show where the bounds of the map are located */
+		canvas.addRectangle(0, 0, (spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, 
+				(spatialWidth > spatialHeight) ? spatialWidth : spatialHeight, Color.WHITE, true);
+		canvas.addRectangle(0, 0, spatialWidth, spatialHeight, Color.BLACK,
+				false);
+		drawMap(canvas, pmQuadtree.getRoot(), new HashSet<ArrayList<City>>());
+		drawPartitions(canvas, pmQuadtree.getRoot());
+	}
+
+	/**
+	 * Draws the cross splitting each internal node of the PM Quadtree.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 * @param node
+	 *            PM Quadtree node being drawn
+	 */
+	private void drawPartitions(final CanvasPlus canvas, final Node node) {
+		if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			final int cx = internal.getCenterX();
+			final int cy = internal.getCenterY();
+			final int halfWidth = internal.getHalfWidth();
+			final int halfHeight = internal.getHalfHeight();
+			canvas.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.GRAY);
+			canvas.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.GRAY);
+			for (int i = 0; i < 4; i++) {
+				drawPartitions(canvas, internal.getChild(i));
+			}
+		}
+	}
+
+	/**
+	 * Draws every city and road held by the leaves under a PM Quadtree node.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 * @param node
+	 *            PM Quadtree node being drawn
+	 * @param roadsDrawn
+	 *            roads already drawn, since a road crosses many leaves
+	 */
+	private void drawMap(final CanvasPlus canvas, final Node node,
+			final HashSet<ArrayList<City>> roadsDrawn) {
+		if (node.getType() == Node.LEAF) {
+			final City city = node.getCity();
+			if (city != null) {
+				canvas.addPoint(city.getName(), city.getX(), city.getY(),
+						Color.BLACK);
+			}
+			for (ArrayList<City> road : node.getRoads()) {
+				if (roadsDrawn.add(road)) {
+					canvas.addLine(road.get(0).getX(), road.get(0).getY(),
+							road.get(1).getX(), road.get(1).getY(), Color.BLACK);
+				}
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				drawMap(canvas, internal.getChild(i), roadsDrawn);
+			}
+		}
+	}
+
 	/**
 	 * Prints out the structure of the Treap in a human-readable format.
 	 * 
@@ -1058,11 +1148,13 @@ public class Command {
 			if (pathFile.compareTo("") != 0) {
 				/* save canvas to file with range circle */
 				if(radius != 0) {
-					Canvas.instance.addCircle(x, y, radius, Color.BLUE, false);
-				}
-				Canvas.instance.save(pathFile);
-				if(radius != 0) {
-					Canvas.instance.removeCircle(x, y, radius, Color.BLUE, false);
+					final CanvasPlus canvas = new CanvasPlus("MeeshQuest");
+					drawSpatialMap(canvas);
+					canvas.addCircle(x, y, radius, Color.BLUE, false);
+					mapSaver.save(canvas, pathFile);
+					mapSaver.dispose(canvas);
+				} else {
+					mapSaver.save(renderMap(), pathFile);
 				}
 			}
 		}
@@ -1154,11 +1246,13 @@ public class Command {
 			if (pathFile.compareTo("") != 0) {
 				/* save canvas to file with range circle */
 				if(radius != 0) {
-					Canvas.instance.addCircle(x, y, radius, Color.BLUE, false);
-				}
-				Canvas.instance.save(pathFile);
-				if(radius != 0) {
-					Canvas.instance.removeCircle(x, y, radius, Color.BLUE, false);
+					final CanvasPlus canvas = new CanvasPlus("MeeshQuest");
+					drawSpatialMap(canvas);
+					canvas.addCircle(x, y, radius, Color.BLUE, false);
+					mapSaver.save(canvas, pathFile);
+					mapSaver.dispose(canvas);
+				} else {
+					mapSaver.save(renderMap(), pathFile);
 				}
 			}
 		}
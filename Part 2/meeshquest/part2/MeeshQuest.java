@@ -1,23 +1,35 @@
 package cmsc420.meeshquest.part2;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import cmsc420.command.Command;
 import cmsc420.utils.Canvas;
+import cmsc420.utils.CommandReader;
+import cmsc420.utils.ResultsPrinter;
 import cmsc420.xml.XmlUtility;
 
 /**
@@ -33,6 +45,43 @@ public class MeeshQuest {
 	 */
 	private static final boolean LOCAL_TEST = false; 
 	private static final boolean GENERATE_JUNIT_SRC = false;
+	/**
+	 *  whether to run each command as soon as it is read and print its result
+	 *  right away, instead of parsing and validating the whole input first.
+	 *  An element that is no command then ends the run with a fatalError
+	 *  after the results already printed. Set with -Dmeeshquest.stream=true.
+	 */
+	private static final boolean STREAM_INPUT = Boolean.getBoolean("meeshquest.stream");
+	/**
+	 *  whether to print the result of each command as soon as it has run
+	 *  instead of keeping every result until the end. Streaming the input
+	 *  implies this. Set with -Dmeeshquest.streamOutput=true.
+	 */
+	private static final boolean STREAM_OUTPUT = STREAM_INPUT || Boolean.getBoolean("meeshquest.streamOutput");
+	/**
+	 *  whether to leave the canvas uncreated until a command saves the map,
+	 *  so a run that saves nothing never builds a drawing. Set with
+	 *  -Dmeeshquest.headless=true.
+	 */
+	private static final boolean HEADLESS = Boolean.getBoolean("meeshquest.headless");
+	/**
+	 *  whether to run commands that change nothing on several threads at once
+	 *  when they come one after another. Their results are still printed in
+	 *  input order. Set with -Dmeeshquest.parallel=true.
+	 */
+	private static final boolean PARALLEL = Boolean.getBoolean("meeshquest.parallel");
+	/**
+	 *  most commands run at once, so that a streamed input is not held back
+	 *  for too long
+	 */
+	private static final int MAX_RUN = 256;
+	/**
+	 *  commands that change nothing, unless they save a map
+	 */
+	private static final HashSet<String> READ_ONLY = new HashSet<String>(Arrays.asList(
+			"rangeCities", "rangeRoads", "nearestCity", "nearestCityToRoad",
+			"nearestRoad", "nearestIsolatedCity", "printTreap", "printPMQuadtree",
+			"listCities", "shortestPath"));
 	private static String testName = "";
 	
 	/**
@@ -100,48 +149,96 @@ public class MeeshQuest {
 
     public void processInput() {
     	
-    	Canvas.setEnabled();
+    	if (HEADLESS) {
+    		Canvas.setDisabled();
+    	} else {
+    		Canvas.setEnabled();
+    	}
     	
+    	ResultsPrinter printer = null;
+    	boolean failed = false;
         try {
 			
 			if (LOCAL_TEST) {
 				System.out.println("Open " + "part1." + testName);
 				xmlInput = new File("testfiles/" + testName + ".input.xml");
 			}
-			Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput);
-			
 			
             /* create output */
             results = XmlUtility.getDocumentBuilder().newDocument();
             command = new Command();
             command.setResults(results);
 
+            if (STREAM_OUTPUT) {
+            	printer = new ResultsPrinter(System.out, results);
+            }
+
+            final CommandReader commands;
+            if (STREAM_INPUT) {
+            	commands = new CommandReader(LOCAL_TEST ? new FileInputStream(xmlInput) : systemInput, results);
+            } else {
+            	Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput);
+            	commands = new CommandReader(doc);
+            }
+
             /* process commands element */
-            Element commandNode = doc.getDocumentElement();
-            processCommand(commandNode);
+            Element commandNode = commands.getRoot();
+            processCommand(command, commandNode);
 
             /* process each command */
-            final NodeList nl = commandNode.getChildNodes();
-            for (int i = 0; i < nl.getLength(); i++) {
-                if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
-                    /* need to check if Element (ignore comments) */
-                    commandNode = (Element) nl.item(i);
-                    processCommand(commandNode);
+            final List<Element> run = new ArrayList<Element>();
+            while ((commandNode = commands.next()) != null) {
+                if (PARALLEL && isReadOnly(commandNode)) {
+                	/* hold commands that change nothing to run them together */
+                	run.add(commandNode);
+                	if (run.size() == MAX_RUN) {
+                		processInParallel(run, printer);
+                	}
+                	continue;
+                }
+                processInParallel(run, printer);
+                processCommand(command, commandNode);
+                if (printer != null) {
+                	printer.print(results.getDocumentElement());
                 }
             }
+            processInParallel(run, printer);
+
+            /* wait for the saved maps to be written */
+            command.flushMaps();
             
             //Canvas.instance.setVisible(true);
         } catch (SAXException e) {
             e.printStackTrace();
+            failed = true;
             addFatalError();
         } catch (ParserConfigurationException e) {
             e.printStackTrace();
+            failed = true;
             addFatalError();
         } catch (IOException e) {
             e.printStackTrace();
+            failed = true;
+            addFatalError();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+            failed = true;
             addFatalError();
         } finally {
-			if (LOCAL_TEST) {
+			if (command != null) {
+				command.close();
+			}
+			if (printer != null) {
+				try {
+					if (failed) {
+						printer.printFatalError();
+					}
+					printer.finish();
+				} catch (XMLStreamException e) {
+					e.printStackTrace();
+					System.exit(-1);
+				}
+			} else if (LOCAL_TEST) {
 				try {
 					xmlOutput = new File("testfiles/" + testName + ".output.xml");
 					XmlUtility.write(results, xmlOutput);
@@ -169,12 +266,94 @@ public class MeeshQuest {
         }
     }
 
+	/**
+	 * Whether a command changes nothing, so that it can run alongside others
+	 * like it.
+	 * 
+	 * @param commandNode
+	 *            command to check
+	 * @return true if the command only reads the map
+	 */
+	private static boolean isReadOnly(final Element commandNode) {
+		return READ_ONLY.contains(commandNode.getNodeName())
+				&& commandNode.getAttribute("saveMap").isEmpty()
+				&& commandNode.getAttribute("saveHTML").isEmpty();
+	}
+
+	/**
+	 * Runs a run of commands that change nothing on the common fork-join
+	 * pool and adds their results in the order of the commands. Each command
+	 * runs on a view of the Command with a document of its own, since a DOM
+	 * document cannot be built from several threads. The run is emptied.
+	 * 
+	 * @param run
+	 *            commands to run, all of which change nothing
+	 * @param printer
+	 *            prints the results once every command has run, or null
+	 * @throws IOException
+	 *             a command failed
+	 * @throws ParserConfigurationException
+	 *             no document could be made for a command
+	 * @throws XMLStreamException
+	 *             the results could not be printed
+	 */
+	private void processInParallel(final List<Element> run,
+			final ResultsPrinter printer) throws IOException,
+			ParserConfigurationException, XMLStreamException {
+		if (run.isEmpty()) {
+			return;
+		}
+		final List<ForkJoinTask<Document>> tasks = new ArrayList<ForkJoinTask<Document>>(run.size());
+		for (Element commandNode : run) {
+			final Document viewResults = XmlUtility.getDocumentBuilder().newDocument();
+			final Element node = (Element) viewResults.importNode(commandNode, true);
+			final Command view = command.readOnlyView(viewResults);
+			tasks.add(ForkJoinPool.commonPool().submit(new Callable<Document>() {
+				public Document call() throws IOException {
+					processCommand(view, node);
+					return viewResults;
+				}
+			}));
+		}
+		run.clear();
+
+		final Element resultsNode = results.getDocumentElement();
+		for (ForkJoinTask<Document> task : tasks) {
+			final Document viewResults;
+			try {
+				viewResults = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				} else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				} else if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+			for (Node child = viewResults.getDocumentElement().getFirstChild(); child != null; child = child
+					.getNextSibling()) {
+				resultsNode.appendChild(results.importNode(child, true));
+			}
+		}
+		if (printer != null) {
+			printer.print(resultsNode);
+		}
+	}
+
 	/**
 	 * Process command from the root command node of the XML tree
+	 * @param command
 	 * @param commandNode
 	 * @throws IOException
+	 *             a command failed, or the element is not a command
 	 */
-	private void processCommand(final Element commandNode) throws IOException {
+	private static void processCommand(final Command command,
+			final Element commandNode) throws IOException {
 		final String name = commandNode.getNodeName();
 
 		if (name.equals("commands")) {
@@ -217,7 +396,7 @@ public class MeeshQuest {
 			command.processShortestPath(commandNode);	
 		} else {
 			if (LOCAL_TEST) System.out.println("Problem with the validator");
-			System.exit(-1);
+			throw new IOException("Unknown command " + name);
 		}
 	}
 }
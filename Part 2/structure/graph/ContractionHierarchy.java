@@ -0,0 +1,493 @@
+package cmsc420.structure.graph;
+
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy over a road graph. Cities are contracted one at a
+ * time, cheapest first, and a shortcut is added between two neighbors of a
+ * contracted city whenever the road through it is the only shortest way
+ * between them. Every shortest path then has a counterpart that first climbs
+ * to more important cities and then descends, so a search that only climbs
+ * from each end finds the distance between any two cities.
+ * <p>
+ * The hierarchy is used to get the exact distance from any city to a fixed
+ * target. A search from the target climbs once; the distance from another city
+ * is the best climb from it to a city that search labelled, and is remembered
+ * for the rest of the query.
+ * <p>
+ * The hierarchy is rebuilt when the roads of the graph change, the first time
+ * it is used afterwards. Cities added with no roads since the last build are
+ * treated as cut off from the rest of the graph. The built hierarchy is only
+ * read by queries, so threads share it and each keeps a Query of its own.
+ */
+public class ContractionHierarchy {
+
+	/** most cities a witness search settles before giving up */
+	private static final int WITNESS_LIMIT = 64;
+
+	/** graph the hierarchy is built over */
+	private final RoadGraph graph;
+
+	/** upward edges of the last build, or null before the first */
+	private volatile Levels levels;
+
+	/**
+	 * Constructs a hierarchy over a graph. Nothing is built until the first
+	 * query.
+	 *
+	 * @param graph
+	 *            graph to build over
+	 */
+	public ContractionHierarchy(RoadGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Makes a query over this hierarchy. Queries keep their own labels, so
+	 * each thread needs its own; the hierarchy itself is shared by all of
+	 * them and built once for each version of the roads.
+	 *
+	 * @return new query
+	 */
+	public Query newQuery() {
+		return new Query();
+	}
+
+	/**
+	 * Gets the upward edges for the current roads, contracting the graph
+	 * first if the roads have changed. Queries that find the hierarchy out of
+	 * date at once wait for a single build.
+	 */
+	private Levels current() {
+		Levels l = levels;
+		if (l == null || l.version != graph.getVersion()) {
+			synchronized (this) {
+				l = levels;
+				if (l == null || l.version != graph.getVersion()) {
+					l = build();
+					levels = l;
+				}
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * Contracts every city of the graph.
+	 */
+	private Levels build() {
+		final int version = graph.getVersion();
+		final int size = graph.getVertexCount();
+		final Contraction contraction = new Contraction(graph, size);
+		contraction.run();
+		return new Levels(version, size, contraction.upOffsets,
+				contraction.upTargets, contraction.upWeights);
+	}
+
+	/**
+	 * Upward edges of one build, kept in CSR arrays. Never changed once
+	 * built, so any number of queries may read them at once.
+	 */
+	private static final class Levels {
+
+		/** version of the graph the edges were built for */
+		private final int version;
+
+		/** number of cities in the hierarchy */
+		private final int size;
+
+		/** start of each city's upward edges */
+		private final int[] upOffsets;
+
+		/** more important end of each upward edge */
+		private final int[] upTargets;
+
+		/** length of each upward edge */
+		private final double[] upWeights;
+
+		private Levels(int version, int size, int[] upOffsets, int[] upTargets,
+				double[] upWeights) {
+			this.version = version;
+			this.size = size;
+			this.upOffsets = upOffsets;
+			this.upTargets = upTargets;
+			this.upWeights = upWeights;
+		}
+	}
+
+	/**
+	 * Distances to one target at a time over the shared hierarchy. Holds the
+	 * labels and stamps of its own queries only.
+	 */
+	public final class Query {
+
+		/** hierarchy of the current query */
+		private Levels current;
+
+		/** number of the current query, used to stamp the arrays below */
+		private int query;
+
+		/** target of the current query */
+		private int target = -1;
+
+		/** distance to the target from each city the climb from it labelled */
+		private double[] labels = new double[0];
+
+		/** query in which each city was labelled by the climb from the target */
+		private int[] labelled = new int[0];
+
+		/** remembered distance from each city to the target */
+		private double[] distances = new double[0];
+
+		/** query in which each city's distance was remembered */
+		private int[] known = new int[0];
+
+		/** query in which each city was opened by the depth first search */
+		private int[] opened = new int[0];
+
+		/** cities waiting in the depth first search */
+		private int[] stack = new int[16];
+
+		/** cities to settle in the climb from the target */
+		private final IndexedMinHeap climb = new IndexedMinHeap();
+
+		private Query() {
+		}
+
+		/**
+		 * Starts a query for distances to a target, rebuilding the hierarchy
+		 * first if the roads have changed.
+		 *
+		 * @param target
+		 *            id of the target city
+		 */
+		public void setTarget(int target) {
+			current = current();
+			final int size = current.size;
+			if (size > labels.length) {
+				labels = new double[size];
+				labelled = new int[size];
+				distances = new double[size];
+				known = new int[size];
+				opened = new int[size];
+				query = 0;
+			}
+			query++;
+			this.target = target;
+			if (target >= size) {
+				return;
+			}
+			final int[] upOffsets = current.upOffsets;
+			final int[] upTargets = current.upTargets;
+			final double[] upWeights = current.upWeights;
+			climb.clear();
+			labelled[target] = query;
+			labels[target] = 0;
+			climb.insert(target, 0);
+			while (!climb.isEmpty()) {
+				final int v = climb.poll();
+				for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+					final int w = upTargets[i];
+					final double distance = labels[v] + upWeights[i];
+					if (labelled[w] != query) {
+						labelled[w] = query;
+						labels[w] = distance;
+						climb.insert(w, distance);
+					} else if (labels[w] > distance) {
+						labels[w] = distance;
+						climb.decreaseKey(w, distance);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Gets the distance from a city to the target of the current query.
+		 *
+		 * @param v
+		 *            id of the city
+		 * @return shortest distance, or positive infinity if the target cannot
+		 *         be reached
+		 */
+		public double distanceToTarget(int v) {
+			if (v == target) {
+				return 0;
+			}
+			if (v >= current.size || target >= current.size) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (known[v] == query) {
+				return distances[v];
+			}
+			final int[] upOffsets = current.upOffsets;
+			final int[] upTargets = current.upTargets;
+			final double[] upWeights = current.upWeights;
+			/*
+			 * upward edges never lead back down, so a city is finished once
+			 * every city above it is
+			 */
+			int top = 0;
+			stack[top++] = v;
+			while (top > 0) {
+				final int u = stack[top - 1];
+				if (known[u] == query) {
+					top--;
+				} else if (opened[u] != query) {
+					opened[u] = query;
+					for (int i = upOffsets[u]; i < upOffsets[u + 1]; i++) {
+						if (known[upTargets[i]] != query) {
+							if (top == stack.length) {
+								stack = Arrays.copyOf(stack, top * 2);
+							}
+							stack[top++] = upTargets[i];
+						}
+					}
+				} else {
+					top--;
+					double distance = labelled[u] == query ? labels[u]
+							: Double.POSITIVE_INFINITY;
+					for (int i = upOffsets[u]; i < upOffsets[u + 1]; i++) {
+						distance = Math.min(distance, upWeights[i] + distances[upTargets[i]]);
+					}
+					distances[u] = distance;
+					known[u] = query;
+				}
+			}
+			return distances[v];
+		}
+	}
+
+	/**
+	 * State used while contracting. The remaining graph is kept as growable
+	 * adjacency rows that shrink as cities are contracted.
+	 */
+	private static class Contraction {
+
+		/** number of cities */
+		private final int size;
+
+		/** neighbors of each remaining city */
+		private final int[][] neighbors;
+
+		/** lengths of the edges to those neighbors */
+		private final double[][] lengths;
+
+		/** number of neighbors of each remaining city */
+		private final int[] degree;
+
+		/** number of contracted neighbors of each city */
+		private final int[] contractedNeighbors;
+
+		/** cities ordered by the cost of contracting them */
+		private final IndexedMinHeap order = new IndexedMinHeap();
+
+		/** cities to settle in a witness search */
+		private final IndexedMinHeap witness = new IndexedMinHeap();
+
+		/** distance from the start of a witness search */
+		private final double[] reach;
+
+		/** witness search in which each city was reached */
+		private final int[] reached;
+
+		/** number of the current witness search */
+		private int search;
+
+		/** upward edges, filled in contraction order */
+		private int[] upOffsets;
+		private int[] upTargets;
+		private double[] upWeights;
+
+		/** shortcuts found by the last call to shortcuts */
+		private int shortcutCount;
+		private int[] shortcutFrom = new int[16];
+		private int[] shortcutTo = new int[16];
+		private double[] shortcutLength = new double[16];
+
+		private Contraction(RoadGraph graph, int size) {
+			this.size = size;
+			neighbors = new int[size][];
+			lengths = new double[size][];
+			degree = new int[size];
+			contractedNeighbors = new int[size];
+			reach = new double[size];
+			reached = new int[size];
+			for (int v = 0; v < size; v++) {
+				neighbors[v] = new int[Math.max(4, graph.degree(v))];
+				lengths[v] = new double[neighbors[v].length];
+				for (int i = 0; i < graph.degree(v); i++) {
+					if (graph.getTarget(v, i) != v) {
+						neighbors[v][degree[v]] = graph.getTarget(v, i);
+						lengths[v][degree[v]++] = graph.getWeight(v, i);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Contracts every city, cheapest first, re-checking the cost of the
+		 * cheapest before contracting it.
+		 */
+		private void run() {
+			for (int v = 0; v < size; v++) {
+				order.insert(v, priority(v));
+			}
+			final int[] upCount = new int[size];
+			final int[][] upNeighbors = new int[size][];
+			final double[][] upLengths = new double[size][];
+			int total = 0;
+			while (!order.isEmpty()) {
+				final int v = order.poll();
+				final double priority = priority(v);
+				if (!order.isEmpty() && priority > order.getKey(order.peek())) {
+					order.insert(v, priority);
+					continue;
+				}
+				/* priority just found the shortcuts for v */
+				upNeighbors[v] = Arrays.copyOf(neighbors[v], degree[v]);
+				upLengths[v] = Arrays.copyOf(lengths[v], degree[v]);
+				upCount[v] = degree[v];
+				total += degree[v];
+				for (int i = 0; i < degree[v]; i++) {
+					final int u = neighbors[v][i];
+					remove(u, v);
+					contractedNeighbors[u]++;
+				}
+				for (int i = 0; i < shortcutCount; i++) {
+					connect(shortcutFrom[i], shortcutTo[i], shortcutLength[i]);
+				}
+				neighbors[v] = null;
+				lengths[v] = null;
+			}
+			upOffsets = new int[size + 1];
+			upTargets = new int[total];
+			upWeights = new double[total];
+			for (int v = 0; v < size; v++) {
+				upOffsets[v + 1] = upOffsets[v] + upCount[v];
+				System.arraycopy(upNeighbors[v], 0, upTargets, upOffsets[v], upCount[v]);
+				System.arraycopy(upLengths[v], 0, upWeights, upOffsets[v], upCount[v]);
+			}
+		}
+
+		/**
+		 * Cost of contracting a city: the edges it would add less the edges it
+		 * would remove, plus its contracted neighbors to spread contraction
+		 * evenly over the map.
+		 */
+		private double priority(int v) {
+			shortcuts(v);
+			return shortcutCount - degree[v] + contractedNeighbors[v];
+		}
+
+		/**
+		 * Finds the shortcuts needed to contract a city: one for each pair of
+		 * neighbors whose only known shortest connection runs through it.
+		 */
+		private void shortcuts(int v) {
+			shortcutCount = 0;
+			for (int i = 0; i < degree[v]; i++) {
+				final int u = neighbors[v][i];
+				double limit = 0;
+				for (int j = i + 1; j < degree[v]; j++) {
+					limit = Math.max(limit, lengths[v][i] + lengths[v][j]);
+				}
+				if (limit == 0) {
+					continue;
+				}
+				witnesses(u, v, limit);
+				for (int j = i + 1; j < degree[v]; j++) {
+					final int w = neighbors[v][j];
+					final double length = lengths[v][i] + lengths[v][j];
+					if (reached[w] != search || reach[w] > length) {
+						if (shortcutCount == shortcutFrom.length) {
+							shortcutFrom = Arrays.copyOf(shortcutFrom, shortcutCount * 2);
+							shortcutTo = Arrays.copyOf(shortcutTo, shortcutCount * 2);
+							shortcutLength = Arrays.copyOf(shortcutLength, shortcutCount * 2);
+						}
+						shortcutFrom[shortcutCount] = u;
+						shortcutTo[shortcutCount] = w;
+						shortcutLength[shortcutCount++] = length;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Runs a bounded Dijkstra search from a city that avoids the city
+		 * being contracted.
+		 */
+		private void witnesses(int source, int avoid, double limit) {
+			search++;
+			witness.clear();
+			reached[source] = search;
+			reach[source] = 0;
+			witness.insert(source, 0);
+			int settled = 0;
+			while (!witness.isEmpty() && settled++ < WITNESS_LIMIT) {
+				final int u = witness.poll();
+				if (reach[u] > limit) {
+					break;
+				}
+				for (int i = 0; i < degree[u]; i++) {
+					final int w = neighbors[u][i];
+					if (w == avoid) {
+						continue;
+					}
+					final double distance = reach[u] + lengths[u][i];
+					if (reached[w] != search) {
+						reached[w] = search;
+						reach[w] = distance;
+						witness.insert(w, distance);
+					} else if (reach[w] > distance) {
+						reach[w] = distance;
+						if (witness.contains(w)) {
+							witness.decreaseKey(w, distance);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adds an edge between two remaining cities, or shortens the one
+		 * already there.
+		 */
+		private void connect(int u, int w, double length) {
+			for (int i = 0; i < degree[u]; i++) {
+				if (neighbors[u][i] == w) {
+					if (lengths[u][i] > length) {
+						lengths[u][i] = length;
+						for (int j = 0; j < degree[w]; j++) {
+							if (neighbors[w][j] == u) {
+								lengths[w][j] = length;
+							}
+						}
+					}
+					return;
+				}
+			}
+			append(u, w, length);
+			append(w, u, length);
+		}
+
+		private void append(int u, int w, double length) {
+			if (degree[u] == neighbors[u].length) {
+				neighbors[u] = Arrays.copyOf(neighbors[u], degree[u] * 2);
+				lengths[u] = Arrays.copyOf(lengths[u], degree[u] * 2);
+			}
+			neighbors[u][degree[u]] = w;
+			lengths[u][degree[u]++] = length;
+		}
+
+		private void remove(int u, int w) {
+			for (int i = 0; i < degree[u]; i++) {
+				if (neighbors[u][i] == w) {
+					degree[u]--;
+					neighbors[u][i] = neighbors[u][degree[u]];
+					lengths[u][i] = lengths[u][degree[u]];
+					return;
+				}
+			}
+		}
+	}
+}
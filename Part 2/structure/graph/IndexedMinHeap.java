@@ -0,0 +1,226 @@
+package cmsc420.structure.graph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary min-heap of integer vertex ids keyed by a distance. The position of
+ * every id in the heap is tracked so that membership tests and decrease-key
+ * run in constant and logarithmic time, unlike
+ * <code>java.util.PriorityQueue</code> where both are linear.
+ * <p>
+ * Ids are small non-negative integers; the heap grows to fit the largest id
+ * inserted. Ids with equal keys are ordered by the tie breaker, or by id when
+ * none is given.
+ */
+public class IndexedMinHeap {
+
+	/**
+	 * Orders two ids whose keys are equal.
+	 */
+	public interface TieBreaker {
+		/**
+		 * Compares two ids with equal keys.
+		 * 
+		 * @param v
+		 *            first id
+		 * @param w
+		 *            second id
+		 * @return a negative integer, zero, or a positive integer as the first
+		 *         id comes before, ties, or comes after the second
+		 */
+		int compare(int v, int w);
+	}
+
+	/** ids stored in heap order */
+	private int[] heap;
+
+	/** position of each id in the heap, -1 if it is not in the heap */
+	private int[] position;
+
+	/** key of each id */
+	private double[] keys;
+
+	/** number of ids in the heap */
+	private int size;
+
+	/** orders ids with equal keys */
+	private final TieBreaker tieBreaker;
+
+	/**
+	 * Constructs an empty heap ordering ties by id.
+	 */
+	public IndexedMinHeap() {
+		this(null);
+	}
+
+	/**
+	 * Constructs an empty heap.
+	 * 
+	 * @param tieBreaker
+	 *            orders ids with equal keys, or null to order them by id
+	 */
+	public IndexedMinHeap(TieBreaker tieBreaker) {
+		this.tieBreaker = tieBreaker;
+		heap = new int[16];
+		keys = new double[16];
+		position = new int[16];
+		Arrays.fill(position, -1);
+	}
+
+	/**
+	 * Whether the heap has no ids.
+	 * 
+	 * @return true if the heap is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Gets the number of ids in the heap.
+	 * 
+	 * @return number of ids in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns if an id is in the heap.
+	 * 
+	 * @param id
+	 *            id to look up
+	 * @return true if the id is in the heap
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < position.length && position[id] >= 0;
+	}
+
+	/**
+	 * Gets the key of an id in the heap.
+	 * 
+	 * @param id
+	 *            id in the heap
+	 * @return key of the id
+	 */
+	public double getKey(int id) {
+		if (!contains(id)) throw new NoSuchElementException();
+		return keys[id];
+	}
+
+	/**
+	 * Inserts an id with a key.
+	 * 
+	 * @param id
+	 *            id to be inserted, not already in the heap
+	 * @param key
+	 *            key of the id
+	 */
+	public void insert(int id, double key) {
+		if (id < 0) throw new IllegalArgumentException();
+		ensureCapacity(id + 1);
+		if (position[id] >= 0) throw new IllegalArgumentException();
+		keys[id] = key;
+		heap[size] = id;
+		position[id] = size;
+		siftUp(size++);
+	}
+
+	/**
+	 * Lowers the key of an id in the heap.
+	 * 
+	 * @param id
+	 *            id in the heap
+	 * @param key
+	 *            new key, not greater than the current one
+	 */
+	public void decreaseKey(int id, double key) {
+		if (!contains(id)) throw new NoSuchElementException();
+		if (key > keys[id]) throw new IllegalArgumentException();
+		keys[id] = key;
+		siftUp(position[id]);
+	}
+
+	/**
+	 * Gets the id with the smallest key without removing it.
+	 * 
+	 * @return id with the smallest key
+	 */
+	public int peek() {
+		if (size == 0) throw new NoSuchElementException();
+		return heap[0];
+	}
+
+	/**
+	 * Removes the id with the smallest key.
+	 * 
+	 * @return id with the smallest key
+	 */
+	public int poll() {
+		if (size == 0) throw new NoSuchElementException();
+		final int min = heap[0];
+		position[min] = -1;
+		if (--size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Removes every id from the heap.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		final int id = heap[i];
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (!less(id, heap[parent])) break;
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	private void siftDown(int i) {
+		final int id = heap[i];
+		final int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && less(heap[child + 1], heap[child])) child++;
+			if (!less(heap[child], id)) break;
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	private boolean less(int v, int w) {
+		if (keys[v] < keys[w]) return true;
+		if (keys[v] > keys[w]) return false;
+		return (tieBreaker == null ? Integer.compare(v, w) : tieBreaker.compare(v, w)) < 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > position.length) {
+			final int newLength = Math.max(capacity, position.length * 2);
+			final int oldLength = position.length;
+			heap = Arrays.copyOf(heap, newLength);
+			keys = Arrays.copyOf(keys, newLength);
+			position = Arrays.copyOf(position, newLength);
+			Arrays.fill(position, oldLength, newLength, -1);
+		}
+	}
+}
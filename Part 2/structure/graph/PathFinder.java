@@ -0,0 +1,424 @@
+package cmsc420.structure.graph;
+
+import java.util.Arrays;
+
+/**
+ * Finds shortest paths in a road graph. Three searches are available and all
+ * of them report the same path: the one Dijkstra's algorithm finds when
+ * cities at equal distance are settled in name order and a city's predecessor
+ * only changes on a strict improvement.
+ * <p>
+ * A* and bidirectional A* estimate the remaining distance with the straight
+ * line between city locations, so every road must be at least as long as the
+ * straight line between its ends. Both searches settle far fewer cities than
+ * Dijkstra's algorithm on large maps. The hierarchy search is A* with the
+ * exact remaining distance taken from a contraction hierarchy, which is
+ * rebuilt on the first search after the roads change; it settles little more
+ * than the cities on shortest paths. A* settles every city a shortest path
+ * can reach the end through before the end, and a city only after every
+ * neighbor it may be reached from at its distance, so it finds the same
+ * distances as Dijkstra's algorithm. The predecessor of a city is recorded as
+ * it is reached: a neighbor replaces it when it reaches the city at a smaller
+ * distance, or at the same distance when Dijkstra's algorithm would settle
+ * the neighbor first. Bidirectional A* only bounds the length of the path;
+ * A* is then run over the cities either half settled, which include every
+ * city on a shortest path.
+ * <p>
+ * A finder is reused between searches; the result of a search is valid until
+ * the next one.
+ */
+public class PathFinder {
+
+	/**
+	 * Search used to find a path.
+	 */
+	public enum Mode {
+		DIJKSTRA, ASTAR, BIDIRECTIONAL, HIERARCHY;
+
+		/**
+		 * Gets the mode with the given name, ignoring case.
+		 *
+		 * @param name
+		 *            name of the mode
+		 * @return the mode, or null if there is no mode with that name
+		 */
+		public static Mode parse(String name) {
+			for (Mode mode : values()) {
+				if (mode.name().equalsIgnoreCase(name)) {
+					return mode;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Shrinks the straight line estimate so that rounding never makes it
+	 * overestimate the length of a road.
+	 */
+	private static final double HEURISTIC_SCALE = 1 - 1e-6;
+
+	/** relative slack in the bidirectional stopping test */
+	private static final double TOLERANCE = 1e-9;
+
+	/** graph being searched */
+	private final RoadGraph graph;
+
+	/** cities to settle in Dijkstra's order */
+	private final IndexedMinHeap byName;
+
+	/** cities to settle from the start in A* searches */
+	private final IndexedMinHeap forward = new IndexedMinHeap();
+
+	/** cities to settle from the end in bidirectional searches */
+	private final IndexedMinHeap backward = new IndexedMinHeap();
+
+	/** exact distances to the target, shared with other finders */
+	private final ContractionHierarchy hierarchy;
+
+	/** this finder's query over the hierarchy, made on first use */
+	private ContractionHierarchy.Query hierarchyQuery;
+
+	/** whether the current search estimates with the hierarchy */
+	private boolean hierarchical;
+
+	/** number of the current search, used to stamp the arrays below */
+	private int search;
+
+	/** number of cities settled by the last search */
+	private int settledCount;
+
+	/** distance from the start of each city on the result path */
+	private double[] distance = new double[0];
+
+	/** predecessor of each city on the result path */
+	private int[] previous = new int[0];
+
+	/** search in which each city was last reached */
+	private int[] reached = new int[0];
+
+	/** search in which each city was last settled */
+	private int[] settled = new int[0];
+
+	/** tentative distance from the start in bidirectional searches */
+	private double[] forwardDistance = new double[0];
+
+	/** search in which each city was last reached from the start */
+	private int[] forwardReached = new int[0];
+
+	/** search in which each city was last settled from the start */
+	private int[] forwardSettled = new int[0];
+
+	/** tentative distance from the end in bidirectional searches */
+	private double[] backwardDistance = new double[0];
+
+	/** search in which each city was last reached from the end */
+	private int[] backwardReached = new int[0];
+
+	/** search in which each city was last settled from the end */
+	private int[] backwardSettled = new int[0];
+
+	/**
+	 * Constructs a finder over a graph.
+	 *
+	 * @param graph
+	 *            graph to search
+	 */
+	public PathFinder(final RoadGraph graph) {
+		this(graph, new ContractionHierarchy(graph));
+	}
+
+	/**
+	 * Constructs a finder over a graph that shares a contraction hierarchy
+	 * with other finders, so the hierarchy is built once for all of them.
+	 *
+	 * @param graph
+	 *            graph to search
+	 * @param hierarchy
+	 *            hierarchy over the same graph
+	 */
+	public PathFinder(final RoadGraph graph, final ContractionHierarchy hierarchy) {
+		this.graph = graph;
+		this.hierarchy = hierarchy;
+		byName = new IndexedMinHeap(new IndexedMinHeap.TieBreaker() {
+			@Override
+			public int compare(int v, int w) {
+				return graph.getName(v).compareTo(graph.getName(w));
+			}
+		});
+	}
+
+	/**
+	 * Finds the shortest path between two cities.
+	 *
+	 * @param source
+	 *            id of the start city
+	 * @param target
+	 *            id of the end city
+	 * @param mode
+	 *            search to use
+	 * @return length of the path, or positive infinity if there is none
+	 */
+	public double find(int source, int target, Mode mode) {
+		ensureCapacity(graph.getVertexCount());
+		search++;
+		settledCount = 0;
+		hierarchical = mode == Mode.HIERARCHY;
+		if (hierarchical) {
+			if (hierarchyQuery == null) {
+				hierarchyQuery = hierarchy.newQuery();
+			}
+			hierarchyQuery.setTarget(target);
+		}
+		switch (mode) {
+		case ASTAR:
+		case HIERARCHY:
+			return aStar(source, target, false);
+		case BIDIRECTIONAL:
+			return bidirectional(source, target);
+		default:
+			return dijkstra(source, target);
+		}
+	}
+
+	/**
+	 * Gets the predecessor of a city on the path found by the last search.
+	 * The start city is its own predecessor.
+	 *
+	 * @param v
+	 *            id of a city on the path
+	 * @return id of the previous city
+	 */
+	public int getPrevious(int v) {
+		return previous[v];
+	}
+
+	/**
+	 * Gets the distance from the start of a city on the path found by the
+	 * last search.
+	 *
+	 * @param v
+	 *            id of a city on the path
+	 * @return distance from the start
+	 */
+	public double getDistance(int v) {
+		return distance[v];
+	}
+
+	/**
+	 * Gets the number of cities the last search settled, counting each time a
+	 * city was settled.
+	 *
+	 * @return number of settled cities
+	 */
+	public int getSettledCount() {
+		return settledCount;
+	}
+
+	/**
+	 * Runs Dijkstra's algorithm, settling cities at equal distance in name
+	 * order.
+	 */
+	private double dijkstra(int source, int target) {
+		byName.clear();
+		reached[source] = search;
+		distance[source] = 0;
+		previous[source] = source;
+		byName.insert(source, 0);
+		while (!byName.isEmpty()) {
+			final int v = byName.poll();
+			settledCount++;
+			if (v == target) {
+				return distance[v];
+			}
+			for (int i = 0; i < graph.degree(v); i++) {
+				final int w = graph.getTarget(v, i);
+				final double newDistance = distance[v] + graph.getWeight(v, i);
+				if (reached[w] != search) {
+					reached[w] = search;
+					distance[w] = newDistance;
+					previous[w] = v;
+					byName.insert(w, newDistance);
+				} else if (byName.contains(w) && distance[w] > newDistance) {
+					distance[w] = newDistance;
+					previous[w] = v;
+					byName.decreaseKey(w, newDistance);
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Runs A* towards the target.
+	 *
+	 * @param restricted
+	 *            whether to stay within the cities settled by the preceding
+	 *            bidirectional search
+	 */
+	private double aStar(int source, int target, boolean restricted) {
+		forward.clear();
+		if (estimate(source, target) == Double.POSITIVE_INFINITY) {
+			return Double.POSITIVE_INFINITY;
+		}
+		reached[source] = search;
+		distance[source] = 0;
+		previous[source] = source;
+		forward.insert(source, estimate(source, target));
+		while (!forward.isEmpty()) {
+			final int v = forward.poll();
+			settled[v] = search;
+			settledCount++;
+			if (v == target) {
+				return distance[v];
+			}
+			for (int i = 0; i < graph.degree(v); i++) {
+				final int w = graph.getTarget(v, i);
+				if (settled[w] == search || (restricted
+						&& forwardSettled[w] != search && backwardSettled[w] != search)) {
+					continue;
+				}
+				final double newDistance = distance[v] + graph.getWeight(v, i);
+				if (reached[w] != search) {
+					if (estimate(w, target) == Double.POSITIVE_INFINITY) {
+						continue;
+					}
+					reached[w] = search;
+					distance[w] = newDistance;
+					previous[w] = v;
+					forward.insert(w, newDistance + estimate(w, target));
+				} else if (distance[w] > newDistance) {
+					distance[w] = newDistance;
+					previous[w] = v;
+					forward.decreaseKey(w, newDistance + estimate(w, target));
+				} else if (distance[w] == newDistance && settlesFirst(v, previous[w])) {
+					previous[w] = v;
+				}
+			}
+		}
+		return Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Tells whether Dijkstra's algorithm settles one city before another, that
+	 * is whether it is nearer the start or as near and first by name. Both
+	 * cities must be settled.
+	 */
+	private boolean settlesFirst(int v, int w) {
+		return distance[v] < distance[w] || (distance[v] == distance[w]
+				&& graph.getName(v).compareTo(graph.getName(w)) < 0);
+	}
+
+	/**
+	 * Runs A* from both ends until the shortest path is known to run through
+	 * settled cities only, then finds it with A* over them.
+	 */
+	private double bidirectional(int source, int target) {
+		if (source == target) {
+			return aStar(source, target, false);
+		}
+		forward.clear();
+		backward.clear();
+		forwardReached[source] = search;
+		forwardDistance[source] = 0;
+		forward.insert(source, potential(source, source, target));
+		backwardReached[target] = search;
+		backwardDistance[target] = 0;
+		backward.insert(target, -potential(target, source, target));
+
+		double best = Double.POSITIVE_INFINITY;
+		while (!forward.isEmpty() && !backward.isEmpty()) {
+			if (forward.getKey(forward.peek()) + backward.getKey(backward.peek()) > best
+					+ TOLERANCE * best) {
+				break;
+			}
+			if (forward.size() <= backward.size()) {
+				best = expand(forward, forwardDistance, forwardReached, forwardSettled,
+						backwardDistance, backwardReached, 1, source, target, best);
+			} else {
+				best = expand(backward, backwardDistance, backwardReached, backwardSettled,
+						forwardDistance, forwardReached, -1, source, target, best);
+			}
+		}
+		if (best == Double.POSITIVE_INFINITY) {
+			return best;
+		}
+		return aStar(source, target, true);
+	}
+
+	/**
+	 * Settles the next city on one side of a bidirectional search.
+	 *
+	 * @param sign
+	 *            1 for the side searching from the start, -1 for the other
+	 * @return length of the shortest path seen so far between the ends
+	 */
+	private double expand(IndexedMinHeap queue, double[] distances, int[] reachedHere,
+			int[] settledHere, double[] otherDistances, int[] reachedThere, int sign,
+			int source, int target, double best) {
+		final int v = queue.poll();
+		settledHere[v] = search;
+		settledCount++;
+		if (reachedThere[v] == search) {
+			best = Math.min(best, distances[v] + otherDistances[v]);
+		}
+		for (int i = 0; i < graph.degree(v); i++) {
+			final int w = graph.getTarget(v, i);
+			final double newDistance = distances[v] + graph.getWeight(v, i);
+			if (reachedThere[w] == search) {
+				best = Math.min(best, newDistance + otherDistances[w]);
+			}
+			if (settledHere[w] == search) {
+				continue;
+			}
+			if (reachedHere[w] != search) {
+				reachedHere[w] = search;
+				distances[w] = newDistance;
+				queue.insert(w, newDistance + sign * potential(w, source, target));
+			} else if (distances[w] > newDistance) {
+				distances[w] = newDistance;
+				queue.decreaseKey(w, newDistance + sign * potential(w, source, target));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Estimates the distance between two cities from below.
+	 */
+	private double estimate(int v, int w) {
+		if (hierarchical) {
+			return HEURISTIC_SCALE * hierarchyQuery.distanceToTarget(v);
+		}
+		final double dx = graph.getX(v) - graph.getX(w);
+		final double dy = graph.getY(v) - graph.getY(w);
+		return HEURISTIC_SCALE * Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Potential of a city for the search from the start; the search from the
+	 * end uses its negation, so both sides agree on the length of any path.
+	 */
+	private double potential(int v, int source, int target) {
+		return (estimate(v, target) - estimate(v, source)) / 2;
+	}
+
+	/**
+	 * Grows the per-city arrays to hold the given number of cities.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > reached.length) {
+			capacity = Math.max(capacity, reached.length * 2);
+			distance = Arrays.copyOf(distance, capacity);
+			previous = Arrays.copyOf(previous, capacity);
+			reached = Arrays.copyOf(reached, capacity);
+			settled = Arrays.copyOf(settled, capacity);
+			forwardDistance = Arrays.copyOf(forwardDistance, capacity);
+			forwardReached = Arrays.copyOf(forwardReached, capacity);
+			forwardSettled = Arrays.copyOf(forwardSettled, capacity);
+			backwardDistance = Arrays.copyOf(backwardDistance, capacity);
+			backwardReached = Arrays.copyOf(backwardReached, capacity);
+			backwardSettled = Arrays.copyOf(backwardSettled, capacity);
+		}
+	}
+}
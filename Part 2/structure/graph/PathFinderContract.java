@@ -0,0 +1,146 @@
+package cmsc420.structure.graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that every search mode of the path finder reports the path and
+ * distances Dijkstra's algorithm reports. The roads are laid on grids with
+ * diagonals, so many paths tie and their lengths are sums of the same road
+ * lengths taken in different orders, which differ in the last bits. City
+ * names are shuffled so ties are broken in no particular direction. Run as a
+ * program; it prints one line per mode and exits with 1 if any disagrees.
+ */
+public class PathFinderContract {
+
+	private static final int ROUNDS = 60;
+	private static final int QUERIES = 40;
+	/** cities per side of each grid */
+	private static final int SIDE = 12;
+
+	public static void main(String[] args) {
+		boolean passed = true;
+		for (PathFinder.Mode mode : PathFinder.Mode.values()) {
+			if (mode != PathFinder.Mode.DIJKSTRA) {
+				passed &= check(mode);
+			}
+		}
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(PathFinder.Mode mode) {
+		final Random random = new Random(420);
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				final RoadGraph graph = grid(random);
+				final PathFinder expected = new PathFinder(graph);
+				final PathFinder actual = new PathFinder(graph);
+				for (int query = 0; query < QUERIES; query++) {
+					final int source = random.nextInt(graph.getVertexCount());
+					final int target = random.nextInt(graph.getVertexCount());
+					final String what = mode + " round " + round + " from "
+							+ graph.getName(source) + " to " + graph.getName(target);
+					same(path(graph, expected, source, target, PathFinder.Mode.DIJKSTRA),
+							path(graph, actual, source, target, mode), what);
+				}
+				/* take some roads away so the hierarchy is rebuilt */
+				for (int i = 0; i < SIDE; i++) {
+					final int v = random.nextInt(graph.getVertexCount());
+					if (graph.degree(v) > 0) {
+						graph.removeEdge(graph.getName(v),
+								graph.getName(graph.getTarget(v, random.nextInt(graph.degree(v)))));
+					}
+				}
+				for (int query = 0; query < QUERIES; query++) {
+					final int source = random.nextInt(graph.getVertexCount());
+					final int target = random.nextInt(graph.getVertexCount());
+					same(path(graph, expected, source, target, PathFinder.Mode.DIJKSTRA),
+							path(graph, actual, source, target, mode), mode + " round " + round
+									+ " after removals from " + graph.getName(source) + " to "
+									+ graph.getName(target));
+				}
+			}
+			System.out.println(mode + ": passed");
+			return true;
+		} catch (RuntimeException e) {
+			System.out.println(mode + ": FAILED " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Lays out a grid of cities joined to their right, lower and diagonal
+	 * neighbors, leaving some roads out.
+	 */
+	private static RoadGraph grid(Random random) {
+		final RoadGraph graph = new RoadGraph();
+		final List<Integer> numbers = new ArrayList<Integer>();
+		for (int i = 0; i < SIDE * SIDE; i++) {
+			numbers.add(i);
+		}
+		Collections.shuffle(numbers, random);
+		final int spacing = 2 + 2 * random.nextInt(3);
+		final String[][] names = new String[SIDE][SIDE];
+		for (int x = 0; x < SIDE; x++) {
+			for (int y = 0; y < SIDE; y++) {
+				names[x][y] = "c" + numbers.get(x * SIDE + y);
+				graph.addVertex(names[x][y], x * spacing, y * spacing);
+			}
+		}
+		for (int x = 0; x < SIDE; x++) {
+			for (int y = 0; y < SIDE; y++) {
+				if (x + 1 < SIDE && random.nextInt(5) != 0) {
+					road(graph, names, spacing, x, y, x + 1, y);
+				}
+				if (y + 1 < SIDE && random.nextInt(5) != 0) {
+					road(graph, names, spacing, x, y, x, y + 1);
+				}
+				if (x + 1 < SIDE && y + 1 < SIDE && random.nextInt(3) == 0) {
+					road(graph, names, spacing, x, y, x + 1, y + 1);
+				}
+				if (x > 0 && y + 1 < SIDE && random.nextInt(3) == 0) {
+					road(graph, names, spacing, x, y, x - 1, y + 1);
+				}
+			}
+		}
+		return graph;
+	}
+
+	/** Adds a road as long as the straight line between its ends. */
+	private static void road(RoadGraph graph, String[][] names, int spacing, int x1,
+			int y1, int x2, int y2) {
+		final double dx = (x1 - x2) * spacing;
+		final double dy = (y1 - y2) * spacing;
+		graph.addEdge(names[x1][y1], names[x2][y2],
+				Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2)));
+	}
+
+	/**
+	 * Finds a path and writes it as the cities on it, each with its distance
+	 * from the start, from the end back to the start.
+	 */
+	private static String path(RoadGraph graph, PathFinder finder, int source,
+			int target, PathFinder.Mode mode) {
+		final double length = finder.find(source, target, mode);
+		if (length == Double.POSITIVE_INFINITY) {
+			return "none";
+		}
+		final StringBuilder path = new StringBuilder();
+		for (int v = target; ; v = finder.getPrevious(v)) {
+			path.append(graph.getName(v)).append('@').append(finder.getDistance(v)).append(' ');
+			if (v == source) break;
+		}
+		return path.append("length ").append(length).toString();
+	}
+
+	private static void same(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new IllegalStateException(what + ": expected " + expected
+					+ " but was " + actual);
+		}
+	}
+}
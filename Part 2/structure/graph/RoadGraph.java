@@ -0,0 +1,416 @@
+package cmsc420.structure.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Undirected weighted road graph over city names. Every city is given a small
+ * integer id when it is first added, and adjacency is kept in compressed
+ * sparse row arrays indexed by that id, so walking the roads out of a city
+ * touches only primitive arrays.
+ * <p>
+ * Roads added since the last compaction are kept in a per-city overlay, and a
+ * removed road is swapped out of the live part of its row, so neither
+ * operation rebuilds the arrays. The overlay is folded back into the rows once
+ * it grows past a fraction of the graph.
+ * <p>
+ * The roads out of city <code>v</code> are numbered <code>0</code> through
+ * <code>degree(v) - 1</code>; the numbering changes when roads are added or
+ * removed.
+ */
+public class RoadGraph {
+
+	/** overlay size, in directed edges, that is always allowed */
+	private static final int MIN_OVERLAY = 64;
+
+	/** id of each city name */
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+	/** name of each id */
+	private final ArrayList<String> names = new ArrayList<String>();
+
+	/** x coordinate of each id */
+	private double[] xs = new double[0];
+
+	/** y coordinate of each id */
+	private double[] ys = new double[0];
+
+	/** start of each compacted row in targets and weights */
+	private int[] offsets = new int[1];
+
+	/** number of live edges at the start of each compacted row */
+	private int[] baseDegree = new int[0];
+
+	/** compacted edge targets */
+	private int[] targets = new int[0];
+
+	/** compacted edge weights */
+	private double[] weights = new double[0];
+
+	/** targets of edges added since the last compaction, per id */
+	private int[][] overlayTargets = new int[0][];
+
+	/** weights of edges added since the last compaction, per id */
+	private double[][] overlayWeights = new double[0][];
+
+	/** number of edges in each overlay row */
+	private int[] overlayDegree = new int[0];
+
+	/** number of directed edges in the overlay */
+	private int overlayEdges;
+
+	/** number of live directed edges */
+	private int edges;
+
+	/** number of changes made to the roads */
+	private int version;
+
+	/**
+	 * Whether a city has been added to the graph.
+	 *
+	 * @param name
+	 *            name of the city
+	 * @return true if the city is a vertex of the graph
+	 */
+	public boolean contains(String name) {
+		return ids.containsKey(name);
+	}
+
+	/**
+	 * Gets the id of a city.
+	 *
+	 * @param name
+	 *            name of the city
+	 * @return id of the city, or -1 if it is not in the graph
+	 */
+	public int getId(String name) {
+		final Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Gets the name of the city with the given id.
+	 *
+	 * @param id
+	 *            id of the city
+	 * @return name of the city
+	 */
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * Gets the number of ids handed out. Ids run from 0 to one less than this.
+	 *
+	 * @return number of vertices
+	 */
+	public int getVertexCount() {
+		return names.size();
+	}
+
+	/**
+	 * Gets a counter that changes whenever a road is added, removed or
+	 * changes length, so that structures derived from the roads can tell when
+	 * they are stale. Adding a city with no roads does not change it.
+	 *
+	 * @return the change counter
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Adds a city with no roads. Does nothing if it is already in the graph.
+	 *
+	 * @param name
+	 *            name of the city
+	 * @return id of the city
+	 */
+	public int addVertex(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+			if (id == overlayDegree.length) {
+				final int capacity = Math.max(16, id * 2);
+				xs = Arrays.copyOf(xs, capacity);
+				ys = Arrays.copyOf(ys, capacity);
+				baseDegree = Arrays.copyOf(baseDegree, capacity);
+				overlayDegree = Arrays.copyOf(overlayDegree, capacity);
+				overlayTargets = Arrays.copyOf(overlayTargets, capacity);
+				overlayWeights = Arrays.copyOf(overlayWeights, capacity);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Adds a city with no roads, or moves it if it is already in the graph.
+	 * The location is only used to estimate distances between cities.
+	 *
+	 * @param name
+	 *            name of the city
+	 * @param x
+	 *            x coordinate of the city
+	 * @param y
+	 *            y coordinate of the city
+	 * @return id of the city
+	 */
+	public int addVertex(String name, double x, double y) {
+		final int id = addVertex(name);
+		xs[id] = x;
+		ys[id] = y;
+		return id;
+	}
+
+	/**
+	 * Gets the x coordinate of a city.
+	 *
+	 * @param v
+	 *            id of the city
+	 * @return x coordinate
+	 */
+	public double getX(int v) {
+		return xs[v];
+	}
+
+	/**
+	 * Gets the y coordinate of a city.
+	 *
+	 * @param v
+	 *            id of the city
+	 * @return y coordinate
+	 */
+	public double getY(int v) {
+		return ys[v];
+	}
+
+	/**
+	 * Adds a road between two cities, adding the cities if needed. If the road
+	 * is already in the graph its length is replaced.
+	 *
+	 * @param start
+	 *            name of one end of the road
+	 * @param end
+	 *            name of the other end of the road
+	 * @param length
+	 *            length of the road
+	 */
+	public void addEdge(String start, String end, double length) {
+		final int v = addVertex(start);
+		final int w = addVertex(end);
+		version++;
+		if (!setWeight(v, w, length)) {
+			addOverlay(v, w, length);
+			edges++;
+		}
+		if (v != w && !setWeight(w, v, length)) {
+			addOverlay(w, v, length);
+			edges++;
+		}
+		if (overlayEdges > Math.max(MIN_OVERLAY, edges / 4)) {
+			compact();
+		}
+	}
+
+	/**
+	 * Removes the road between two cities if there is one.
+	 *
+	 * @param start
+	 *            name of one end of the road
+	 * @param end
+	 *            name of the other end of the road
+	 */
+	public void removeEdge(String start, String end) {
+		final int v = getId(start);
+		final int w = getId(end);
+		if (v >= 0 && w >= 0) {
+			removeDirected(v, w);
+			if (v != w) {
+				removeDirected(w, v);
+			}
+		}
+	}
+
+	/**
+	 * Removes every road touching a city. The city keeps its id.
+	 *
+	 * @param name
+	 *            name of the city
+	 */
+	public void removeEdges(String name) {
+		final int v = getId(name);
+		if (v >= 0) {
+			while (degree(v) > 0) {
+				final int w = getTarget(v, 0);
+				removeDirected(v, w);
+				if (v != w) {
+					removeDirected(w, v);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of roads out of a city.
+	 *
+	 * @param v
+	 *            id of the city
+	 * @return number of roads
+	 */
+	public int degree(int v) {
+		return baseDegree[v] + overlayDegree[v];
+	}
+
+	/**
+	 * Gets the city at the far end of a road.
+	 *
+	 * @param v
+	 *            id of the city the road leaves
+	 * @param i
+	 *            number of the road, less than <code>degree(v)</code>
+	 * @return id of the city at the other end
+	 */
+	public int getTarget(int v, int i) {
+		return i < baseDegree[v] ? targets[offsets[v] + i]
+				: overlayTargets[v][i - baseDegree[v]];
+	}
+
+	/**
+	 * Gets the length of a road.
+	 *
+	 * @param v
+	 *            id of the city the road leaves
+	 * @param i
+	 *            number of the road, less than <code>degree(v)</code>
+	 * @return length of the road
+	 */
+	public double getWeight(int v, int i) {
+		return i < baseDegree[v] ? weights[offsets[v] + i]
+				: overlayWeights[v][i - baseDegree[v]];
+	}
+
+	/**
+	 * Removes every city and road.
+	 */
+	public void clear() {
+		ids.clear();
+		names.clear();
+		xs = new double[0];
+		ys = new double[0];
+		offsets = new int[1];
+		baseDegree = new int[0];
+		targets = new int[0];
+		weights = new double[0];
+		overlayTargets = new int[0][];
+		overlayWeights = new double[0][];
+		overlayDegree = new int[0];
+		overlayEdges = 0;
+		edges = 0;
+		version++;
+	}
+
+	/**
+	 * Rebuilds the compressed rows so that they hold every live edge, and
+	 * empties the overlay.
+	 */
+	public void compact() {
+		final int n = names.size();
+		final int[] newOffsets = new int[n + 1];
+		final int[] newTargets = new int[edges];
+		final double[] newWeights = new double[edges];
+		int k = 0;
+		for (int v = 0; v < n; v++) {
+			newOffsets[v] = k;
+			if (baseDegree[v] > 0) {
+				System.arraycopy(targets, offsets[v], newTargets, k, baseDegree[v]);
+				System.arraycopy(weights, offsets[v], newWeights, k, baseDegree[v]);
+				k += baseDegree[v];
+			}
+			if (overlayDegree[v] > 0) {
+				System.arraycopy(overlayTargets[v], 0, newTargets, k, overlayDegree[v]);
+				System.arraycopy(overlayWeights[v], 0, newWeights, k, overlayDegree[v]);
+				k += overlayDegree[v];
+			}
+			baseDegree[v] = k - newOffsets[v];
+			overlayTargets[v] = null;
+			overlayWeights[v] = null;
+			overlayDegree[v] = 0;
+		}
+		newOffsets[n] = k;
+		offsets = newOffsets;
+		targets = newTargets;
+		weights = newWeights;
+		overlayEdges = 0;
+	}
+
+	/**
+	 * Replaces the weight of the edge from v to w if there is one.
+	 *
+	 * @return true if the edge was found
+	 */
+	private boolean setWeight(int v, int w, double length) {
+		for (int i = 0; i < degree(v); i++) {
+			if (getTarget(v, i) == w) {
+				if (i < baseDegree[v]) {
+					weights[offsets[v] + i] = length;
+				} else {
+					overlayWeights[v][i - baseDegree[v]] = length;
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Appends an edge from v to w to the overlay row of v.
+	 */
+	private void addOverlay(int v, int w, double length) {
+		final int size = overlayDegree[v];
+		if (overlayTargets[v] == null) {
+			overlayTargets[v] = new int[4];
+			overlayWeights[v] = new double[4];
+		} else if (size == overlayTargets[v].length) {
+			overlayTargets[v] = Arrays.copyOf(overlayTargets[v], size * 2);
+			overlayWeights[v] = Arrays.copyOf(overlayWeights[v], size * 2);
+		}
+		overlayTargets[v][size] = w;
+		overlayWeights[v][size] = length;
+		overlayDegree[v]++;
+		overlayEdges++;
+	}
+
+	/**
+	 * Removes the edge from v to w if there is one, moving the last edge of
+	 * the same part of the row into its slot.
+	 */
+	private void removeDirected(int v, int w) {
+		for (int i = 0; i < baseDegree[v]; i++) {
+			final int slot = offsets[v] + i;
+			if (targets[slot] == w) {
+				final int last = offsets[v] + baseDegree[v] - 1;
+				targets[slot] = targets[last];
+				weights[slot] = weights[last];
+				baseDegree[v]--;
+				edges--;
+				version++;
+				return;
+			}
+		}
+		for (int i = 0; i < overlayDegree[v]; i++) {
+			if (overlayTargets[v][i] == w) {
+				final int last = overlayDegree[v] - 1;
+				overlayTargets[v][i] = overlayTargets[v][last];
+				overlayWeights[v][i] = overlayWeights[v][last];
+				overlayDegree[v]--;
+				overlayEdges--;
+				edges--;
+				version++;
+				return;
+			}
+		}
+	}
+}
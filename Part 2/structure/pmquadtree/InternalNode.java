@@ -1,7 +1,6 @@
 package cmsc420.structure.pmquadtree;
 
 
-import java.awt.Color;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -9,7 +8,6 @@ import java.util.ArrayList;
 import java.util.TreeSet;
 
 import cmsc420.structure.City;
-import cmsc420.utils.*;
 
 
 /**
@@ -80,15 +78,6 @@ public class InternalNode extends Node {
 					halfWidth, halfHeight);
 			i++;
 		}
-
-		/* add a cross to the drawing panel */
-		if (Canvas.instance != null) {
-            //canvas.addCross(getCenterX(), getCenterY(), halfWidth, Color.d);
-			int cx = getCenterX();
-			int cy = getCenterY();
-            Canvas.instance.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.GRAY);
-            Canvas.instance.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.GRAY);
-		}
 	}
 
 	public Node addCity(City city, Point2D.Float origin, int width, int height) {
@@ -115,18 +104,9 @@ public class InternalNode extends Node {
 		}
 
 		if (getNumEmptyNodes() == 4) {
-			/* remove cross from the drawing panel */
-			if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-			}
 			return EmptyNode.instance;
 
 		} else if (getNumEmptyNodes() == 3 && getNumLeafNodes() == 1) {
-			/* remove cross from the drawing panel */
-            if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-            }
-            
 			for (Node node : children) {
 				if (node.getType() == Node.LEAF) {
 					return node;
@@ -166,18 +146,9 @@ public class InternalNode extends Node {
 		}
 
 		if (getNumEmptyNodes() == 4) {
-			/* remove cross from the drawing panel */
-			if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-			}
 			return EmptyNode.instance;
 
 		} else if (getNumEmptyNodes() == 3 && getNumLeafNodes() == 1) {
-			/* remove cross from the drawing panel */
-            if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-            }
-            
 			for (Node node : children) {
 				if (node.getType() == Node.LEAF) {
 					return node;
@@ -22,6 +22,12 @@ public class PMQuadtree {
 	/** root of the PM Quadtree */
 	protected Node root;
 
+	/**
+	 * number of changes made to the PM Quadtree, so that anything drawn from it
+	 * can tell whether it is still current
+	 */
+	protected int modCount;
+
 	/** bounds of the spatial map */
 	protected Point2D.Float spatialOrigin;
 
@@ -91,6 +97,16 @@ public class PMQuadtree {
 	public Node getRoot() {
 		return root;
 	}
+
+	/**
+	 * Gets the number of changes made to the PM Quadtree. The count only ever
+	 * grows, so two equal counts mean the tree was not changed in between.
+	 * 
+	 * @return number of changes made to the PM Quadtree
+	 */
+	public int getModCount() {
+		return modCount;
+	}
 	
 	public City getCity() {
 		return root.getCity();
@@ -142,6 +158,7 @@ public class PMQuadtree {
 		/* insert city into PMQuadTree */
 		cityNames.add(city.getName());
 		isolatedCityNames.add(city.getName());
+		modCount++;
 		root = root.addCity(city, spatialOrigin, spatialWidth, spatialHeight);
 	}
 	
@@ -157,6 +174,7 @@ public class PMQuadtree {
 		/* insert city into PMQuadTree */
 			if (!cityNames.contains(city.getName())) {
 				cityNames.add(city.getName());
+				modCount++;
 				root = root.addCity(city, spatialOrigin, spatialWidth, spatialHeight);
 			}
 		}
@@ -193,6 +211,7 @@ public class PMQuadtree {
 		addCity(start);
 		addCity(end); 
 		roads.add(citiesToAdd);
+		modCount++;
 		root = root.addRoad(start, end, spatialOrigin, spatialWidth, spatialHeight);
 	}
 
@@ -218,6 +237,7 @@ public class PMQuadtree {
 		if (success) {
 			isolatedCityNames.remove(city.getName());
 			cityNames.remove(city.getName());
+			modCount++;
 			root = root
 					.removeCity(city, spatialOrigin, spatialWidth, spatialHeight);
 		}
@@ -228,6 +248,7 @@ public class PMQuadtree {
 	 * Clears the PM Quadtree so it contains no non-empty nodes.
 	 */
 	public void clear() {
+		modCount++;
 		root = EmptyNode.instance;
 		isolatedCityNames.clear();
 		roads.clear();
@@ -0,0 +1,167 @@
+package cmsc420.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import cmsc420.drawing.CanvasPlus;
+
+/**
+ * Saves drawings of the map on a background thread, so that encoding and
+ * writing an image does not hold up the commands after the one that saved it.
+ * <p>
+ * A canvas handed to the saver belongs to it from then on: the caller must
+ * not change it, though it may hand the same canvas over again to save it
+ * under another name. Saves are written one at a time in the order they were
+ * made. At most {@value #DEFAULT_CAPACITY} saves (or the capacity given) wait
+ * to be written; past that, saving waits for the writer to catch up.
+ * <p>
+ * A save that fails cannot be reported by the command that made it, since
+ * that command has already finished. The failure is thrown by the next call
+ * to save or flush instead.
+ */
+public class MapSaver {
+
+	/** saves that may wait to be written unless told otherwise */
+	public static final int DEFAULT_CAPACITY = 8;
+
+	/** writes the saves, one at a time */
+	private final ExecutorService writer;
+
+	/** one permit for each save that may still be queued */
+	private final Semaphore capacity;
+
+	/** first save that failed and has not been reported yet */
+	private IOException failure;
+
+	/**
+	 * Constructs a saver letting {@value #DEFAULT_CAPACITY} saves wait to be
+	 * written.
+	 */
+	public MapSaver() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a saver.
+	 *
+	 * @param capacity
+	 *            number of saves that may wait to be written
+	 */
+	public MapSaver(final int capacity) {
+		this.capacity = new Semaphore(capacity);
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "MapSaver");
+			}
+		});
+	}
+
+	/**
+	 * Queues a canvas to be saved to '<name>.png'. Waits if too many saves are
+	 * already waiting.
+	 *
+	 * @param canvas
+	 *            canvas to save, which must not be changed afterwards
+	 * @param name
+	 *            name of the image file, without the extension
+	 * @throws IOException
+	 *             an earlier save failed
+	 */
+	public void save(final CanvasPlus canvas, final String name)
+			throws IOException {
+		submit(new Runnable() {
+			public void run() {
+				try {
+					canvas.save(name);
+				} catch (IOException e) {
+					fail(e);
+				} catch (RuntimeException e) {
+					fail(new IOException(e));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a canvas to be disposed of once every save of it queued so far
+	 * has been written.
+	 *
+	 * @param canvas
+	 *            canvas no longer needed
+	 * @throws IOException
+	 *             an earlier save failed
+	 */
+	public void dispose(final CanvasPlus canvas) throws IOException {
+		submit(new Runnable() {
+			public void run() {
+				canvas.dispose();
+			}
+		});
+	}
+
+	/**
+	 * Waits for every save queued so far to be written.
+	 *
+	 * @throws IOException
+	 *             a save failed
+	 */
+	public void flush() throws IOException {
+		try {
+			writer.submit(new Runnable() {
+				public void run() {
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		throwFailure();
+	}
+
+	/**
+	 * Stops the writer once every save queued so far has been written. Saves
+	 * made after this are refused.
+	 */
+	public void shutdown() {
+		writer.shutdown();
+	}
+
+	private void submit(final Runnable task) throws IOException {
+		throwFailure();
+		try {
+			capacity.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					capacity.release();
+				}
+			}
+		});
+	}
+
+	private synchronized void fail(final IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	private synchronized void throwFailure() throws IOException {
+		if (failure != null) {
+			final IOException e = failure;
+			failure = null;
+			throw e;
+		}
+	}
+}
@@ -15,26 +15,29 @@ import java.awt.Color;
 import java.awt.geom.Arc2D;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 import cmsc420.drawing.CanvasPlus;
 import cmsc420.exception.CityOutOfBoundsException;
@@ -44,8 +47,11 @@ import cmsc420.exception.RoadIntersectsAnotherRoadException;
 import cmsc420.exception.RoadOutOfBoundsException;
 import cmsc420.exception.ViolatesPMRulesException;
 import cmsc420.geom.Circle2D;
-import cmsc420.geom.Shape2DDistanceCalculator;
-import cmsc420.sortedmap.Treap;
+import cmsc420.sortedmap.ArrayTreap;
+import cmsc420.sortedmap.PersistentTreap;
+import cmsc420.sortedmap.SortedDictionary;
+import cmsc420.sortedmap.StringComparator;
+import cmsc420.sortedmap.TreapPrinter;
 import cmsc420.structure.Airport;
 import cmsc420.structure.City;
 import cmsc420.structure.CityLocationComparator;
@@ -56,13 +62,16 @@ import cmsc420.structure.Terminal;
 //import cmsc420.structure.prquadtree.LeafNode;
 //import cmsc420.structure.prquadtree.Node;
 //import cmsc420.structure.prquadtree.PRQuadtree;
+import cmsc420.structure.pmquadtree.CompactPMQuadtree;
 import cmsc420.structure.pmquadtree.InternalNode;
 import cmsc420.structure.pmquadtree.LeafNode;
 import cmsc420.structure.pmquadtree.Node;
 import cmsc420.structure.pmquadtree.PMQuadtree;
+import cmsc420.structure.pmquadtree.Road;
 import cmsc420.structure.pmquadtree.StartEndComparator;
 import cmsc420.structure.prquadtree.PRQuadtree;
 import cmsc420.utils.Canvas;
+import cmsc420.utils.MapSaver;
 import cmsc420.xml.XmlUtility;
 
 
@@ -74,7 +83,30 @@ import cmsc420.xml.XmlUtility;
  * Modified by Enock Gansou
  * @version 2.0, 23 Jan 2007
  */
-public class Command {
+public class Command implements Cloneable {
+	/**
+	 *  whether to keep the nodes of each PM Quadtree in flat arrays rather
+	 *  than as node objects. Set with -Dmeeshquest.compactPM=true.
+	 */
+	private static final boolean COMPACT_PM = Boolean.getBoolean("meeshquest.compactPM");
+
+	/**
+	 *  whether to keep the name dictionaries in ArrayTreaps, whose nodes are
+	 *  slots of parallel arrays, rather than in PersistentTreaps. An
+	 *  ArrayTreap copies itself for each version kept for listCities asOf, so
+	 *  no versions are kept with it unless -Dmeeshquest.cityHistory is set.
+	 *  Set with -Dmeeshquest.arrayTreap=true.
+	 */
+	private static final boolean ARRAY_TREAP = Boolean.getBoolean("meeshquest.arrayTreap");
+
+	/**
+	 *  most past versions of the city dictionary kept for listCities asOf;
+	 *  older ones are dropped, and 0 keeps none. 64 by default, or 0 with
+	 *  ArrayTreaps. Set with -Dmeeshquest.cityHistory=n.
+	 */
+	private static final int CITY_HISTORY = Integer.getInteger("meeshquest.cityHistory",
+			ARRAY_TREAP ? 0 : 64);
+
 	/** output DOM Document tree */
 	protected Document results;
 
@@ -83,15 +115,10 @@ public class Command {
 	
 
 	/**
-	 * stores created cities sorted by their names (used with listCities command)
+	 * stores created cities sorted by their names (used with listCities and
+	 * printTreap commands)
 	 */
-	protected final TreeMap<String, City> citiesByName = new TreeMap<String, City>(new Comparator<String>() {
-		@Override
-		public int compare(String o1, String o2) {
-			return o2.compareTo(o1);
-		}
-
-	});
+	protected final SortedDictionary<String, City> citiesByName = newNameDictionary();
 	
 	protected final TreeMap<City, Integer> allMappedCitiesByName = new TreeMap<City, Integer>(new Comparator<City>() {
 		@Override
@@ -103,24 +130,12 @@ public class Command {
 	protected final TreeSet<City> airportsByLocation = new TreeSet<City>(
 			new CityLocationComparator());
 	
-	protected final TreeMap<String, City> airportsByName = new TreeMap<String, City>(new Comparator<String>() {
-		@Override
-		public int compare(String o1, String o2) {
-			return o2.compareTo(o1);
-		}
-
-	});
+	protected final SortedDictionary<String, City> airportsByName = newNameDictionary();
 	
 	protected final TreeSet<City> terminalsByLocation = new TreeSet<City>(
 			new CityLocationComparator());
 	
-	protected final TreeMap<String, City> terminalsByName = new TreeMap<String, City>(new Comparator<String>() {
-		@Override
-		public int compare(String o1, String o2) {
-			return o2.compareTo(o1);
-		}
-
-	});
+	protected final SortedDictionary<String, City> terminalsByName = newNameDictionary();
 
 	/**
 	 * stores created cities sorted by their locations (used with listCities command)
@@ -129,17 +144,30 @@ public class Command {
 			new CityLocationComparator());
 	
 	protected final HashSet<String> roadEndpoints = new HashSet<String>();
-	protected final Treap<String, City> citiesByNameTreap = new Treap<String, City>(new Comparator<String>() {
-		@Override
-		public int compare(String o1, String o2) {
-			return o2.compareTo(o1);
-		}
-	});
+	/**
+	 * snapshot of citiesByName after each command that changed it, keyed by
+	 * the index of the command; only the last CITY_HISTORY are kept
+	 */
+	protected final TreeMap<Integer, SortedDictionary<String, City>> citiesByNameVersions =
+		new TreeMap<Integer, SortedDictionary<String, City>>();
+
+	/** whether versions of the city dictionary have been dropped */
+	protected boolean citiesByNameTrimmed = false;
+
+	/** index of the command being processed, counted from 1 in input order */
+	protected int commandIndex = 0;
 	protected final TreeMap<String,TreeMap<String,Double>> graph = 
 			new TreeMap<String,TreeMap<String,Double>>();
 	
-	protected final HashMap<Metropole, PMQuadtree> rep = 
-			new HashMap<Metropole, PMQuadtree>();
+	protected final ConcurrentHashMap<Metropole, PMQuadtree> rep = 
+			new ConcurrentHashMap<Metropole, PMQuadtree>();
+
+	/**
+	 * guards the structures every metropole shares (the PR Quadtree, the road
+	 * graph and the mapped cities) while commands for different metropoles
+	 * run at once
+	 */
+	protected final Object sharedLock = new Object();
 	
 	protected final PRQuadtree prQuadtree = new PRQuadtree();
 
@@ -147,6 +175,19 @@ public class Command {
 	protected int localSpatialHeight, localSpatialWidth,
 	remoteSpatialHeight, remoteSpatialWidth, order;
 
+	/**
+	 * change count of the PR Quadtree when the canvas was last drawn from it,
+	 * or -1 if nothing has been drawn
+	 */
+	private int renderedModCount = -1;
+
+	/** change count of each PM Quadtree when the canvas was last drawn */
+	private final HashMap<PMQuadtree, Integer> renderedPMModCounts =
+		new HashMap<PMQuadtree, Integer>();
+
+	/** writes saved maps in the background */
+	private final MapSaver mapSaver = new MapSaver();
+
 	/**
 	 * Set the DOM Document tree to send the of processed commands to.
 	 * 
@@ -161,6 +202,109 @@ public class Command {
 		results.appendChild(resultsNode);
 	}
 
+	/**
+	 * Gets a view of this Command for running a command alongside others.
+	 * The view shares every city and structure with this Command but sends
+	 * its results to a document of its own. Views may run at once as long as
+	 * they change nothing, or only change the PM Quadtrees of different
+	 * metropoles.
+	 * 
+	 * @param results
+	 *            DOM Document tree to send the results of the view to
+	 * @return view of this Command
+	 */
+	public Command view(final Document results) {
+		final Command view;
+		try {
+			view = (Command) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
+		view.setResults(results);
+		return view;
+	}
+
+	/**
+	 * Sets the index of the command about to be processed, so that a change
+	 * to the city dictionary is recorded under it.
+	 * 
+	 * @param index
+	 *            index of the command, counted from 1 in input order
+	 */
+	public void setCommandIndex(final int index) {
+		commandIndex = index;
+	}
+
+	/**
+	 * Gets the cities as they were once a command had been processed.
+	 * Versions share all but O(log n) nodes with one another.
+	 * 
+	 * @param index
+	 *            index of the command, counted from 1 in input order
+	 * @return read-only cities sorted by name after that command, or null if
+	 *         that version is no longer kept
+	 */
+	public SortedDictionary<String, City> getCitiesByName(final int index) {
+		final Map.Entry<Integer, SortedDictionary<String, City>> version =
+			citiesByNameVersions.floorEntry(index);
+		if (version != null) {
+			return version.getValue();
+		} else if (citiesByNameTrimmed) {
+			return null;
+		} else {
+			/* nothing had been created yet */
+			return newNameDictionary().snapshot();
+		}
+	}
+
+	/**
+	 * Records the city dictionary as changed by the current command, dropping
+	 * the oldest version if too many are kept.
+	 */
+	private void recordCitiesByName() {
+		if (CITY_HISTORY <= 0) {
+			citiesByNameTrimmed = true;
+			return;
+		}
+		citiesByNameVersions.put(commandIndex, citiesByName.snapshot());
+		while (citiesByNameVersions.size() > CITY_HISTORY) {
+			citiesByNameVersions.pollFirstEntry();
+			citiesByNameTrimmed = true;
+		}
+	}
+
+	/**
+	 * Gets the metropole of a city.
+	 * 
+	 * @param name
+	 *            name of the city
+	 * @return metropole the city is in, or null if there is no such city
+	 */
+	public Metropole getMetropole(final String name) {
+		final City city = citiesByName.get(name);
+		return city == null ? null : new Metropole(city.getRemoteX(), city.getRemoteY());
+	}
+
+	/**
+	 * Creates an empty dictionary of cities by name, array-backed if asked
+	 * for, in reverse lexicographic order.
+	 *
+	 * @return empty name dictionary
+	 */
+	private static SortedDictionary<String, City> newNameDictionary() {
+		return ARRAY_TREAP ? new ArrayTreap<String, City>(new StringComparator())
+				: new PersistentTreap<String, City>(new StringComparator());
+	}
+
+	/**
+	 * Creates the PM Quadtree of a new metropole, compact if asked for.
+	 *
+	 * @return empty PM Quadtree
+	 */
+	private PMQuadtree newPMQuadtree() {
+		return COMPACT_PM ? new CompactPMQuadtree() : new PMQuadtree();
+	}
+
 	/**
 	 * Creates a command result element. Initializes the command name.
 	 * 
@@ -179,7 +323,8 @@ public class Command {
 	 * Processes an integer attribute for a command. Appends the parameter to
 	 * the parameters node of the results. Should not throw a number format
 	 * exception if the attribute has been defined to be an integer in the
-	 * schema and the XML has been validated beforehand.
+	 * schema and the XML has been validated beforehand. A streamed input is
+	 * not validated, so a missing or malformed value throws one there.
 	 * 
 	 * @param commandNode
 	 *            node containing information about the command
@@ -289,16 +434,6 @@ public class Command {
 		
 		order = Integer.parseInt(node.getAttribute("pmOrder"));
 
-		/* initialize canvas */
-		Canvas.instance.setFrameSize(remoteSpatialWidth, remoteSpatialHeight);
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, (remoteSpatialWidth > remoteSpatialHeight) ? 
-				remoteSpatialWidth : remoteSpatialHeight, 
-				(remoteSpatialWidth > remoteSpatialHeight) ? remoteSpatialWidth :
-					remoteSpatialHeight, Color.WHITE, true);
-		Canvas.instance.addRectangle(0, 0, remoteSpatialWidth, remoteSpatialHeight, Color.BLACK,
-				false);
-
 		/* set PR Quadtree range */
 		prQuadtree.setRange(remoteSpatialWidth, remoteSpatialHeight);
 		
@@ -342,7 +477,7 @@ public class Command {
 			/* add city to dictionary */
 			citiesByName.put(name, city);
 			citiesByLocation.add(city);
-			citiesByNameTreap.put(name, city);
+			recordCitiesByName();
 
 			/* add success node to results */
 			addSuccessNode(commandNode, parametersNode, outputNode);
@@ -373,62 +508,42 @@ public class Command {
 
 			Metropole m = new Metropole(deletedCity.getRemoteX(), deletedCity.getRemoteY());
 			PMQuadtree pm = rep.get(m);
-			TreeSet <ArrayList<City>> unmappedRoads = 
-					new TreeSet <ArrayList<City>>(new StartEndComparator());
+			TreeSet <Road> unmappedRoads = 
+					new TreeSet <Road>(new StartEndComparator());
 			if(pm != null){ 
-				for( ArrayList<City> road : pm.getRoads()){
-					if (road.get(0).equals(deletedCity)){
-						unmappedRoads.add(road);
-					}
-					else if (road.get(1).equals(deletedCity)){
-						unmappedRoads.add(road);
-					}
-
-				}
+				unmappedRoads.addAll(pm.getIncidentRoads(deletedCity));
 
 				Element roadUnmapped = null;
-				for (ArrayList<City> road : unmappedRoads) {
-					if (road.get(1).equals(deletedCity)){
-						pm.removeRoad(road.get(0), road.get(1));
+				for (Road road : unmappedRoads) {
+					if (road.getEnd().equals(deletedCity)){
+						pm.removeRoad(road.getStart(), road.getEnd());
 						
 //						roadUnmapped = results.createElement("roadUnmapped");
-//						roadUnmapped.setAttribute("start", road.get(0).getName());
-//						roadUnmapped.setAttribute("end", road.get(1).getName());
+//						roadUnmapped.setAttribute("start", road.getStart().getName());
+//						roadUnmapped.setAttribute("end", road.getEnd().getName());
 //						outputNode.appendChild(roadUnmapped);
 
-						boolean isolated = true;
-						for(ArrayList<City> r : pm.getRoads()){
-							if (r.get(0).equals(road.get(0)) || r.get(1).equals(road.get(0))){
-								isolated = false;
-								break;
-							}
-						}
-						if(isolated == true) {
-							pm.removeCity(road.get(0));
-							allMappedCitiesByName.remove(road.get(0));
+						if(pm.getDegree(road.getStart()) == 0) {
+							pm.removeCity(road.getStart());
+							allMappedCitiesByName.remove(road.getStart());
+							prQuadtree.removeCity(road.getStart());
 						}
 					}
-					else if (road.get(0).equals(deletedCity)){
-						pm.removeRoad(road.get(0), road.get(1));
+					else if (road.getStart().equals(deletedCity)){
+						pm.removeRoad(road.getStart(), road.getEnd());
 //						if(pm.removeCity(deletedCity)) {
 //							allMappedCitiesByName.remove(deletedCity);
 //							addCityNode(outputNode, "cityUnmapped", deletedCity);
 //						}
 //						roadUnmapped = results.createElement("roadUnmapped");
-//						roadUnmapped.setAttribute("start", road.get(0).getName());
-//						roadUnmapped.setAttribute("end", road.get(1).getName());
+//						roadUnmapped.setAttribute("start", road.getStart().getName());
+//						roadUnmapped.setAttribute("end", road.getEnd().getName());
 //						outputNode.appendChild(roadUnmapped);
 
-						boolean isolated = true;
-						for(ArrayList<City> r : pm.getRoads()){
-							if (r.get(0).equals(road.get(1)) || r.get(1).equals(road.get(1))){
-								isolated = false;
-								break;
-							}
-						}
-						if(isolated == true) {
-							pm.removeCity(road.get(1));
-							allMappedCitiesByName.remove(road.get(1));
+						if(pm.getDegree(road.getEnd()) == 0) {
+							pm.removeCity(road.getEnd());
+							allMappedCitiesByName.remove(road.getEnd());
+							prQuadtree.removeCity(road.getEnd());
 						}
 					}
 
@@ -437,18 +552,19 @@ public class Command {
 				if(pm.removeCity(deletedCity)) {
 					addCityNode(outputNode, "cityUnmapped", deletedCity);
 					allMappedCitiesByName.remove(deletedCity);
+					prQuadtree.removeCity(deletedCity);
 				}
-				for (ArrayList<City> road : unmappedRoads) {
+				for (Road road : unmappedRoads) {
 					roadUnmapped = results.createElement("roadUnmapped");
-					roadUnmapped.setAttribute("start", road.get(0).getName());
-					roadUnmapped.setAttribute("end", road.get(1).getName());
+					roadUnmapped.setAttribute("start", road.getStart().getName());
+					roadUnmapped.setAttribute("end", road.getEnd().getName());
 					outputNode.appendChild(roadUnmapped);
 					
 				}
 			}
 			citiesByName.remove(name);
 			citiesByLocation.remove(deletedCity);
-			citiesByNameTreap.remove(name);
+			recordCitiesByName();
 
 			/* add success node to results */
 			addSuccessNode(commandNode, parametersNode, outputNode);
@@ -468,59 +584,92 @@ public class Command {
 		final Element outputNode = results.createElement("output");
 
 		/* clear data structures */
+		final boolean hadCities = !citiesByName.isEmpty();
 		citiesByName.clear();
 		citiesByLocation.clear();
 		terminalsByLocation.clear();
 		terminalsByName.clear();
 		airportsByLocation.clear();
 		airportsByName.clear();
-		citiesByNameTreap.clear();
+		if (hadCities) {
+			recordCitiesByName();
+		}
 		prQuadtree.clear();
 		rep.clear();
 		allMappedCitiesByName.clear();
 		roadEndpoints.clear();
 		graph.clear();
 
-		/* clear canvas */
-		Canvas.instance.clear();
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, remoteSpatialWidth, remoteSpatialHeight, Color.BLACK,
-				false);
-
 		/* add success node to results */
 		addSuccessNode(commandNode, parametersNode, outputNode);
 	}
 
 	/**
-	 * Lists all the cities, either by name or by location.
+	 * Lists all the cities, either by name or by location. The optional offset
+	 * and limit attributes list one page of them: the cities after the first
+	 * offset of them, at most limit of them; a negative offset or limit is
+	 * taken as 0. A page by name starts from the city found at its offset in
+	 * the treap, so earlier cities are not walked. The optional asOf attribute
+	 * lists the cities as they were once the command at that index, counted
+	 * from 1 in input order, had been processed.
 	 * 
 	 * @param node
 	 *            listCities node to be processed
+	 * @throws IOException
+	 *             sortBy is neither name nor coordinate, which only an input
+	 *             that was not validated can hold
 	 */
-	public void processListCities(final Element node) {
+	public void processListCities(final Element node) throws IOException {
 		final Element commandNode = getCommandNode(node);
 		final Element parametersNode = results.createElement("parameters");
 		final String sortBy = processStringAttribute(node, "sortBy",
 				parametersNode);
-
-		if (citiesByName.isEmpty()) {
+		final int offset = node.getAttribute("offset").equals("") ? 0
+				: Math.max(0, processIntegerAttribute(node, "offset", parametersNode));
+		final int limit = node.getAttribute("limit").equals("") ? Integer.MAX_VALUE
+				: Math.max(0, processIntegerAttribute(node, "limit", parametersNode));
+		final SortedDictionary<String, City> byName = node.getAttribute("asOf").equals("")
+				? citiesByName
+				: getCitiesByName(processIntegerAttribute(node, "asOf", parametersNode));
+
+		if (byName == null) {
+			addErrorNode("versionNotKept", commandNode, parametersNode);
+		} else if (byName.isEmpty()) {
 			addErrorNode("noCitiesToList", commandNode, parametersNode);
 		} else {
 			final Element outputNode = results.createElement("output");
 			final Element cityListNode = results.createElement("cityList");
 
-			Collection<City> cityCollection = null;
+			Iterator<City> cities = null;
 			if (sortBy.equals("name")) {
-				cityCollection = citiesByName.values();
+				if (offset == 0) {
+					cities = byName.values().iterator();
+				} else if (offset < byName.size()) {
+					final String first = byName.select(offset).getKey();
+					cities = byName.tailMap(first).values().iterator();
+				} else {
+					cities = Collections.<City>emptyList().iterator();
+				}
 			} else if (sortBy.equals("coordinate")) {
-				cityCollection = citiesByLocation;
+				if (byName == citiesByName) {
+					cities = citiesByLocation.iterator();
+				} else {
+					/* past versions are only kept by name */
+					final TreeSet<City> byLocation = new TreeSet<City>(
+							new CityLocationComparator());
+					byLocation.addAll(byName.values());
+					cities = byLocation.iterator();
+				}
+				for (int i = 0; i < offset && cities.hasNext(); i++) {
+					cities.next();
+				}
 			} else {
-				/* XML validator failed */
-				System.exit(-1);
+				/* XML validator failed, or the input was streamed */
+				throw new IOException("Unknown sortBy " + sortBy);
 			}
 
-			for (City c : cityCollection) {
-				addCityNode(cityListNode, c);
+			for (int i = 0; i < limit && cities.hasNext(); i++) {
+				addCityNode(cityListNode, cities.next());
 			}
 			outputNode.appendChild(cityListNode);
 
@@ -692,14 +841,6 @@ public class Command {
 						((Airport) airport).setTerminals(terminals);
 						((Terminal)terminal).setAirport(airport);
 						((Terminal)terminal).setCity(city);
-						Canvas.instance.addPoint(airport.getName(), airport.getLocalX(), 
-							airport.getLocalY(), Color.RED);
-						
-						Canvas.instance.addPoint(terminal.getName(), terminal.getLocalX(), 
-								terminal.getLocalY(), Color.darkGray);
-						/* add road to canvas */
-						Canvas.instance.addLine(terminal.getLocalX(), terminal.getLocalY(),
-								city.getLocalX(), city.getLocalY(), Color.BLUE);
 						
 						terminalsByLocation.add(terminal);
 						terminalsByName.put(terminalName, terminal);
@@ -746,99 +887,23 @@ public class Command {
 		City startCity = citiesByName.get(start);
 		City endCity = citiesByName.get(end);
 		PMQuadtree pmQuadtree = null;
-		Metropole m = null;
 		boolean check_start = false;
 		boolean check_end = false;
 		
 		final Element outputNode = results.createElement("output");
+		final String error = getRoadError(start, end);
 
-		if (!citiesByName.containsKey(start)) {
-			addErrorNode("startPointDoesNotExist", commandNode, parametersNode);
-		}
-		else if (!citiesByName.containsKey(end)) {
-			addErrorNode("endPointDoesNotExist", commandNode, parametersNode);
-		}
-		else if (start.equals(end)) {
-			addErrorNode("startEqualsEnd", commandNode, parametersNode);
-		}
-		else if (startCity.getRemoteX() != endCity.getRemoteX() ||
-				startCity.getRemoteY() != endCity.getRemoteY()){
-				addErrorNode("roadNotInOneMetropole", commandNode, parametersNode);
-		}else if (startCity.getRemoteX() < 0 || startCity.getRemoteX() >= remoteSpatialWidth 
-				|| startCity.getRemoteY() < 0 || startCity.getRemoteY() >= remoteSpatialHeight) {
-			/* city out of bounds */
-			addErrorNode("roadOutOfBounds", commandNode, parametersNode);
+		if (error != null) {
+			addErrorNode(error, commandNode, parametersNode);
 		} else {
 			try {
-				
-				m = new Metropole(startCity.getRemoteX(), startCity.getRemoteY());
 				/* insert road into PM Quadtree */
-				if(!prQuadtree.contains(m)) {
-					prQuadtree.add(m);
-					pmQuadtree = new PMQuadtree();
-					pmQuadtree.setRange(localSpatialWidth, localSpatialHeight);
-					pmQuadtree.setOrder(order);
-					rep.put(m, pmQuadtree);	
-					
-					pmQuadtree.addRoad(startCity, endCity);
-				}
-				else {
-					pmQuadtree = rep.get(m);
-					
-					check_start = pmQuadtree.containsCity(startCity);
-					check_end = pmQuadtree.containsCity(endCity);
-					
-					pmQuadtree.addRoad(startCity, endCity);
-				}
-				
-				double roadlength = Math.sqrt(Math.pow(startCity.getLocalX()-endCity.getLocalX(),2) + 
-						Math.pow(startCity.getLocalY()-endCity.getLocalY(),2));
-
-				if (startCity.getLocalX() >= 0 && startCity.getLocalX() <= localSpatialWidth 
-						&& startCity.getLocalY() >= 0 && startCity.getLocalY() <= localSpatialHeight &&
-						endCity.getLocalX() >= 0 && endCity.getLocalX() <= localSpatialWidth 
-						&& endCity.getLocalY() >= 0 && endCity.getLocalY() <= localSpatialHeight ) {
-					if(!graph.containsKey(start)){
-						TreeMap<String, Double> endInfo = new TreeMap<String, Double>();
-						endInfo.put(end, roadlength);
-						graph.put(start, endInfo);	
-					}
-					else{
-						graph.get(start).put(end, roadlength);	
-					}
-					if(!graph.containsKey(end)){
-						TreeMap<String, Double> startInfo = new TreeMap<String, Double>();
-						startInfo.put(start, roadlength);
-						graph.put(end, startInfo);
-					}
-					else{
-						graph.get(end).put(start, roadlength);
-						
-					}
-					roadEndpoints.add(start);
-					roadEndpoints.add(end);
-				}
-				
-				final Element roadCreated = results.createElement("roadCreated");
-				roadCreated.setAttribute("start", start);
-				roadCreated.setAttribute("end", end);
-				outputNode.appendChild(roadCreated);
+				pmQuadtree = getPMQuadtree(startCity);
+				check_start = pmQuadtree.containsCity(startCity);
+				check_end = pmQuadtree.containsCity(endCity);
+				pmQuadtree.addRoad(startCity, endCity);
 				
-				if (pmQuadtree.containsCity(startCity)) {
-					 allMappedCitiesByName.put(startCity, startCity.getRadius());
-					Canvas.instance.addPoint(startCity.getName(), startCity.getLocalX(), 
-							startCity.getLocalY(), Color.BLACK);
-				}
-				if (pmQuadtree.containsCity(endCity)) {
-					 allMappedCitiesByName.put(endCity, endCity.getRadius());
-					Canvas.instance.addPoint(endCity.getName(), endCity.getLocalX(), 
-							endCity.getLocalY(), Color.BLACK);
-				}
-
-				/* add road to canvas */
-				Canvas.instance.addLine(startCity.getLocalX(), startCity.getLocalY(),
-						endCity.getLocalX(), endCity.getLocalY(), Color.BLACK);
-
+				addMappedRoad(pmQuadtree, startCity, endCity, outputNode);
 				/* add success node to results */
 				addSuccessNode(commandNode, parametersNode, outputNode);
 			}  catch (RoadOutOfBoundsException e) {
@@ -855,6 +920,211 @@ public class Command {
 			}	
 		}
 	}
+
+	/**
+	 * Maps a batch of roads to the spatial map. Each road element is
+	 * reported just as a mapRoad command with its attributes would have
+	 * been, in order, but the roads of each metropole are loaded into its PM
+	 * Quadtree together.
+	 * 
+	 * @param node
+	 *            mapRoads command node to be processed
+	 */
+	public void processMapRoads(final Element node) {
+		final NodeList roadNodes = node.getElementsByTagName("road");
+		final int numRoads = roadNodes.getLength();
+		final Element[] commandNodes = new Element[numRoads];
+		final Element[] parametersNodes = new Element[numRoads];
+		final City[] startCities = new City[numRoads];
+		final City[] endCities = new City[numRoads];
+		final String[] errors = new String[numRoads];
+		final PMQuadtree[] pmQuadtrees = new PMQuadtree[numRoads];
+		final LinkedHashMap<PMQuadtree, List<Integer>> batches = new LinkedHashMap<PMQuadtree, List<Integer>>();
+
+		for (int i = 0; i < numRoads; i++) {
+			final Element roadNode = (Element) roadNodes.item(i);
+			commandNodes[i] = getCommandNode(roadNode);
+			commandNodes[i].setAttribute("name", "mapRoad");
+			parametersNodes[i] = results.createElement("parameters");
+			final String start = processStringAttribute(roadNode, "start", parametersNodes[i]);
+			final String end = processStringAttribute(roadNode, "end", parametersNodes[i]);
+			errors[i] = getRoadError(start, end);
+			if (errors[i] == null) {
+				startCities[i] = citiesByName.get(start);
+				endCities[i] = citiesByName.get(end);
+				pmQuadtrees[i] = getPMQuadtree(startCities[i]);
+				List<Integer> batch = batches.get(pmQuadtrees[i]);
+				if (batch == null) {
+					batch = new ArrayList<Integer>();
+					batches.put(pmQuadtrees[i], batch);
+				}
+				batch.add(i);
+			}
+		}
+
+		for (Map.Entry<PMQuadtree, List<Integer>> batch : batches.entrySet()) {
+			final List<Integer> indices = batch.getValue();
+			final City[] starts = new City[indices.size()];
+			final City[] ends = new City[indices.size()];
+			for (int k = 0; k < starts.length; k++) {
+				starts[k] = startCities[indices.get(k)];
+				ends[k] = endCities[indices.get(k)];
+			}
+			final Throwable[] failures = batch.getKey().addRoads(starts, ends);
+			for (int k = 0; k < failures.length; k++) {
+				if (failures[k] != null) {
+					errors[indices.get(k)] = getRoadError(failures[k]);
+				}
+			}
+		}
+
+		for (int i = 0; i < numRoads; i++) {
+			if (errors[i] != null) {
+				addErrorNode(errors[i], commandNodes[i], parametersNodes[i]);
+			} else {
+				final Element outputNode = results.createElement("output");
+				addMappedRoad(pmQuadtrees[i], startCities[i], endCities[i], outputNode);
+				addSuccessNode(commandNodes[i], parametersNodes[i], outputNode);
+			}
+		}
+	}
+
+	/**
+	 * Checks the endpoints of a road before it is mapped.
+	 * 
+	 * @param start
+	 *            name of the start of the road
+	 * @param end
+	 *            name of the end of the road
+	 * @return type of the error the road is refused with, or null if its
+	 *         metropole may be asked to map it
+	 */
+	private String getRoadError(final String start, final String end) {
+		final City startCity = citiesByName.get(start);
+		final City endCity = citiesByName.get(end);
+		if (!citiesByName.containsKey(start)) {
+			return "startPointDoesNotExist";
+		} else if (!citiesByName.containsKey(end)) {
+			return "endPointDoesNotExist";
+		} else if (start.equals(end)) {
+			return "startEqualsEnd";
+		} else if (startCity.getRemoteX() != endCity.getRemoteX() ||
+				startCity.getRemoteY() != endCity.getRemoteY()) {
+			return "roadNotInOneMetropole";
+		} else if (startCity.getRemoteX() < 0 || startCity.getRemoteX() >= remoteSpatialWidth 
+				|| startCity.getRemoteY() < 0 || startCity.getRemoteY() >= remoteSpatialHeight) {
+			/* city out of bounds */
+			return "roadOutOfBounds";
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the type of error a road refused by a PM Quadtree is reported with.
+	 * 
+	 * @param failure
+	 *            what the PM Quadtree refused the road with
+	 * @return type of the error
+	 */
+	private static String getRoadError(final Throwable failure) {
+		if (failure instanceof RoadOutOfBoundsException) {
+			return "roadOutOfBounds";
+		} else if (failure instanceof RoadAlreadyMappedException) {
+			return "roadAlreadyMapped";
+		} else if (failure instanceof RoadIntersectsAnotherRoadException) {
+			return "roadIntersectsAnotherRoad";
+		} else {
+			return "roadViolatesPMRules";
+		}
+	}
+
+	/**
+	 * Gets the PM Quadtree of the metropole of a city, adding the metropole
+	 * if it has none yet.
+	 * 
+	 * @param city
+	 *            city in the metropole
+	 * @return PM Quadtree of the metropole
+	 */
+	private PMQuadtree getPMQuadtree(final City city) {
+		final Metropole m = new Metropole(city.getRemoteX(), city.getRemoteY());
+		synchronized (sharedLock) {
+			if (prQuadtree.contains(m)) {
+				return rep.get(m);
+			}
+			prQuadtree.add(m);
+			final PMQuadtree pmQuadtree = newPMQuadtree();
+			pmQuadtree.setRange(localSpatialWidth, localSpatialHeight);
+			pmQuadtree.setOrder(order);
+			rep.put(m, pmQuadtree);
+			return pmQuadtree;
+		}
+	}
+
+	/**
+	 * Records a road just mapped in a PM Quadtree in the road graph and among
+	 * the mapped cities, and reports it.
+	 * 
+	 * @param pmQuadtree
+	 *            PM Quadtree the road was mapped in
+	 * @param startCity
+	 *            start of the road
+	 * @param endCity
+	 *            end of the road
+	 * @param outputNode
+	 *            output of the command that mapped the road
+	 */
+	private void addMappedRoad(final PMQuadtree pmQuadtree,
+			final City startCity, final City endCity, final Element outputNode) {
+		final String start = startCity.getName();
+		final String end = endCity.getName();
+		double roadlength = Math.sqrt(Math.pow(startCity.getLocalX()-endCity.getLocalX(),2) + 
+				Math.pow(startCity.getLocalY()-endCity.getLocalY(),2));
+
+		if (startCity.getLocalX() >= 0 && startCity.getLocalX() <= localSpatialWidth 
+				&& startCity.getLocalY() >= 0 && startCity.getLocalY() <= localSpatialHeight &&
+				endCity.getLocalX() >= 0 && endCity.getLocalX() <= localSpatialWidth 
+				&& endCity.getLocalY() >= 0 && endCity.getLocalY() <= localSpatialHeight ) {
+			synchronized (sharedLock) {
+				if(!graph.containsKey(start)){
+					TreeMap<String, Double> endInfo = new TreeMap<String, Double>();
+					endInfo.put(end, roadlength);
+					graph.put(start, endInfo);	
+				}
+				else{
+					graph.get(start).put(end, roadlength);	
+				}
+				if(!graph.containsKey(end)){
+					TreeMap<String, Double> startInfo = new TreeMap<String, Double>();
+					startInfo.put(start, roadlength);
+					graph.put(end, startInfo);
+				}
+				else{
+					graph.get(end).put(start, roadlength);
+				
+				}
+				roadEndpoints.add(start);
+				roadEndpoints.add(end);
+			}
+		}
+		
+		final Element roadCreated = results.createElement("roadCreated");
+		roadCreated.setAttribute("start", start);
+		roadCreated.setAttribute("end", end);
+		outputNode.appendChild(roadCreated);
+		
+		synchronized (sharedLock) {
+			if (pmQuadtree.containsCity(startCity)) {
+				 allMappedCitiesByName.put(startCity, startCity.getRadius());
+				prQuadtree.addCity(startCity);
+			}
+			if (pmQuadtree.containsCity(endCity)) {
+				 allMappedCitiesByName.put(endCity, endCity.getRadius());
+				prQuadtree.addCity(endCity);
+			}
+		}
+	}
+
 	/**
 	 * Maps a road to the spatial map.
 	 * 
@@ -887,42 +1157,24 @@ public class Command {
 			
 			Metropole m = new Metropole(startCity.getRemoteX(), startCity.getRemoteY());
 			PMQuadtree pm = rep.get(m);
-			
-			ArrayList<City> road = new ArrayList<City> ();
-			int cmp = start.compareTo(end);
-			if(cmp < 0) {
-				road.add(startCity);
-				road.add(endCity);
-			}
-			else {
-				road.add(endCity);
-				road.add(startCity);
-			}
 					
-			if (pm != null && pm.getRoads().contains(road)){
+			if (pm != null && pm.containsRoad(startCity, endCity)){
 				pm.removeRoad(startCity, endCity);
-				boolean isolatedStart = true;
-				boolean isolatedEnd = true;
-				for(ArrayList<City> r : pm.getRoads()){
-					if (r.get(0).equals(startCity) || r.get(1).equals(startCity)){
-						isolatedStart = false;
-						break;
-					}
-				}
-				
-				for(ArrayList<City> r : pm.getRoads()){
-					if (r.get(0).equals(endCity) || r.get(1).equals(endCity)){
-						isolatedEnd = false;
-						break;
-					}
-				}
+				final boolean isolatedStart = pm.getDegree(startCity) == 0;
+				final boolean isolatedEnd = pm.getDegree(endCity) == 0;
 				if(isolatedStart) {
 					pm.removeCity(startCity);
-					allMappedCitiesByName.remove(startCity);
+					synchronized (sharedLock) {
+						allMappedCitiesByName.remove(startCity);
+						prQuadtree.removeCity(startCity);
+					}
 				}
 				if(isolatedEnd) {
 					pm.removeCity(endCity);
-					allMappedCitiesByName.remove(endCity);
+					synchronized (sharedLock) {
+						allMappedCitiesByName.remove(endCity);
+						prQuadtree.removeCity(endCity);
+					}
 				}
 		
 				Element roadDeleted = results.createElement("roadDeleted");
@@ -1000,10 +1252,13 @@ public class Command {
 					cardinality++;
 				}
 				int size = currentLeaf.getRoads().size();
-				for (ArrayList<City> r : currentLeaf.getRoads()){
+				/* leaves keep roads by id, print them in name order */
+				final ArrayList<Road> roads = new ArrayList<Road>(currentLeaf.getRoads());
+				Collections.sort(roads, new StartEndComparator());
+				for (Road r : roads){
 					final Element road = results.createElement("road");
-					road.setAttribute("start", r.get(0).getName());
-					road.setAttribute("end", r.get(1).getName());
+					road.setAttribute("start", r.getStart().getName());
+					road.setAttribute("end", r.getEnd().getName());
 					black.appendChild(road);
 				}
 				cardinality += size;
@@ -1056,13 +1311,170 @@ public class Command {
 		} else {
 		
 			/* save canvas to '<name>.png' */
-			Canvas.instance.save(name);
+			mapSaver.save(renderMap(), name);
 
 			/* add success node to results */
 			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
 
+	/**
+	 * Waits for every map saved so far to be written.
+	 * 
+	 * @throws IOException
+	 *             a map could not be written
+	 */
+	public void flushMaps() throws IOException {
+		mapSaver.flush();
+	}
+
+	/**
+	 * Stops the thread writing maps once every map saved so far is written.
+	 */
+	public void close() {
+		mapSaver.shutdown();
+	}
+
+	/**
+	 * Gets a canvas showing the PR Quadtree and every PM Quadtree as they are
+	 * now. Nothing is drawn as the map changes; instead the first save after a
+	 * change walks the quadtrees once and draws them into a fresh canvas,
+	 * which later saves reuse until a quadtree changes again. The canvas is
+	 * handed to the map saver, so it is never changed once drawn.
+	 * 
+	 * @return canvas showing the quadtrees
+	 * @throws IOException
+	 *             an earlier save failed
+	 */
+	private CanvasPlus renderMap() throws IOException {
+		final HashMap<PMQuadtree, Integer> pmModCounts = new HashMap<PMQuadtree, Integer>();
+		for (PMQuadtree pmQuadtree : rep.values()) {
+			pmModCounts.put(pmQuadtree, pmQuadtree.getModCount());
+		}
+		if (!Canvas.isEnabled() || renderedModCount != prQuadtree.getModCount()
+				|| !renderedPMModCounts.equals(pmModCounts)) {
+			if (Canvas.isEnabled()) {
+				/* saves still queued may be drawing the old map */
+				mapSaver.dispose(Canvas.instance);
+			}
+			Canvas.setEnabled();
+			drawRemoteMap(Canvas.instance);
+			renderedModCount = prQuadtree.getModCount();
+			renderedPMModCounts.clear();
+			renderedPMModCounts.putAll(pmModCounts);
+		}
+		return Canvas.instance;
+	}
+
+	/**
+	 * Draws the bounds of the remote map, the partitions of the PR Quadtree
+	 * and everything in each PM Quadtree.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 */
+	private void drawRemoteMap(final CanvasPlus canvas) {
+		canvas.setFrameSize(remoteSpatialWidth, remoteSpatialHeight);
+		/* add a rectangle to show where the bounds of the map are located */
+		canvas.addRectangle(0, 0, (remoteSpatialWidth > remoteSpatialHeight) ? 
+				remoteSpatialWidth : remoteSpatialHeight, 
+				(remoteSpatialWidth > remoteSpatialHeight) ? remoteSpatialWidth :
+					remoteSpatialHeight, Color.WHITE, true);
+		canvas.addRectangle(0, 0, remoteSpatialWidth, remoteSpatialHeight, Color.BLACK,
+				false);
+		final HashSet<Road> roadsDrawn = new HashSet<Road>();
+		for (PMQuadtree pmQuadtree : rep.values()) {
+			drawMap(canvas, pmQuadtree.getRoot(), roadsDrawn);
+		}
+		drawMetropolePartitions(canvas, prQuadtree.getRoot());
+		for (PMQuadtree pmQuadtree : rep.values()) {
+			drawCityPartitions(canvas, pmQuadtree.getRoot());
+		}
+	}
+
+	/**
+	 * Draws the cross splitting each internal node of the PR Quadtree.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 * @param node
+	 *            PR Quadtree node being drawn
+	 */
+	private void drawMetropolePartitions(final CanvasPlus canvas,
+			final cmsc420.structure.prquadtree.Node node) {
+		if (node.getType() == cmsc420.structure.prquadtree.Node.INTERNAL) {
+			final cmsc420.structure.prquadtree.InternalNode internal =
+				(cmsc420.structure.prquadtree.InternalNode) node;
+			final int cx = internal.getCenterX();
+			final int cy = internal.getCenterY();
+			final int halfWidth = internal.getHalfWidth();
+			final int halfHeight = internal.getHalfHeight();
+			canvas.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.BLACK);
+			canvas.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.BLACK);
+			for (int i = 0; i < 4; i++) {
+				drawMetropolePartitions(canvas, internal.getChild(i));
+			}
+		}
+	}
+
+	/**
+	 * Draws the cross splitting each internal node of a PM Quadtree.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 * @param node
+	 *            PM Quadtree node being drawn
+	 */
+	private void drawCityPartitions(final CanvasPlus canvas, final Node node) {
+		if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			canvas.addCross(internal.getCenterX(), internal.getCenterY(),
+					internal.getHalfWidth(), Color.GRAY);
+			for (int i = 0; i < 4; i++) {
+				drawCityPartitions(canvas, internal.getChild(i));
+			}
+		}
+	}
+
+	/**
+	 * Draws every city, airport, terminal and road held by the leaves under a
+	 * PM Quadtree node, in the colors they are given when mapped.
+	 * 
+	 * @param canvas
+	 *            canvas to draw on
+	 * @param node
+	 *            PM Quadtree node being drawn
+	 * @param roadsDrawn
+	 *            roads already drawn, since a road crosses many leaves
+	 */
+	private void drawMap(final CanvasPlus canvas, final Node node,
+			final HashSet<Road> roadsDrawn) {
+		if (node.getType() == Node.LEAF) {
+			final City city = node.getCity();
+			if (city != null) {
+				final Color color = (city instanceof Airport) ? Color.RED
+						: (city instanceof Terminal) ? Color.darkGray : Color.BLACK;
+				canvas.addPoint(city.getName(), city.getLocalX(),
+						city.getLocalY(), color);
+			}
+			for (Road road : node.getRoads()) {
+				if (roadsDrawn.add(road)) {
+					final City start = road.getStart();
+					final City end = road.getEnd();
+					final Color color = (start instanceof Terminal || end instanceof Terminal)
+							? Color.BLUE : Color.BLACK;
+					canvas.addLine(start.getLocalX(), start.getLocalY(),
+							end.getLocalX(), end.getLocalY(), color);
+				}
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				drawMap(canvas, internal.getChild(i), roadsDrawn);
+			}
+		}
+	}
+
 	
 	/**
 	 * Prints out the structure of the Treap in a human-readable format.
@@ -1075,10 +1487,10 @@ public class Command {
         final Element parametersNode = results.createElement("parameters");
         final Element outputNode = results.createElement("output");
 
-        if (citiesByNameTreap.isEmpty()) {
+        if (citiesByName.isEmpty()) {
             addErrorNode("emptyTree", commandNode, parametersNode);
         } else {
-			citiesByNameTreap.createXml(outputNode);
+			TreapPrinter.createXml(citiesByName, outputNode);
             addSuccessNode(commandNode, parametersNode, outputNode);
         }
     }
@@ -1356,12 +1768,7 @@ public class Command {
 		/* get cities within range */
 		final Point2D.Double point = new Point2D.Double(remoteX, remoteY);
 		
-		for (City city : allMappedCitiesByName.keySet()){
-			final double distance = point.distance(city.remotetoPoint2D());
-			if (distance <= radius) {
-				citiesInRange.add(city);
-			}
-		}
+		prQuadtree.rangeCities(point, radius, citiesInRange);
 		
 
 
@@ -1382,11 +1789,13 @@ public class Command {
 			if (pathFile.compareTo("") != 0) {
 				/* save canvas to file with range circle */
 				if(radius != 0) {
-					Canvas.instance.addCircle(remoteX, remoteY, radius, Color.BLUE, false);
-				}
-				Canvas.instance.save(pathFile);
-				if(radius != 0) {
-					Canvas.instance.removeCircle(remoteX, remoteY, radius, Color.BLUE, false);
+					final CanvasPlus canvas = new CanvasPlus("MeeshQuest");
+					drawRemoteMap(canvas);
+					canvas.addCircle(remoteX, remoteY, radius, Color.BLUE, false);
+					mapSaver.save(canvas, pathFile);
+					mapSaver.dispose(canvas);
+				} else {
+					mapSaver.save(renderMap(), pathFile);
 				}
 			}
 		}
@@ -1566,7 +1975,7 @@ public class Command {
 				!pm.containsCity(pm.getRoot().getCity())) {
 			addErrorNode("cityNotFound", commandNode, parametersNode);}
 		else {
-			City n = nearestCityHelper(pm.getRoot(), point, pm);
+			City n = nearestCityHelper(pm, point);
 			if (n == null) addErrorNode("cityNotFound", commandNode, parametersNode);
 			else {
 				addCityNode(outputNode, n);
@@ -1577,70 +1986,58 @@ public class Command {
 	}
 
 	/**
-	 * 2/25/2011
-	 * @param root
+	 * Finds the city closest to a point, skipping airports and terminals.
+	 * 
+	 * @param pm
+	 *            PM Quadtree of the metropole being searched
 	 * @param point
+	 *            point in local coordinates
+	 * @return nearest city, or null if the metropole has no cities
 	 */
-	private City nearestCityHelper(Node root, Point2D.Float point, PMQuadtree pm) {
-		PriorityQueue<QuadrantDistance> q = new PriorityQueue<QuadrantDistance>();
-		Node currNode = root;
-		while (currNode.getType() != Node.LEAF ) {
-			InternalNode g = (InternalNode) currNode;
-			for (int i = 0; i < 4; i++) {
-				Node kid = g.children[i];
-				if (kid.getType() == Node.INTERNAL || 
-					   (kid.getType() == Node.LEAF && kid.getCity() != null 
-					   && pm.containsCity(kid.getCity()))) {
-					q.add(new QuadrantDistance(kid, point));
-				}
-			}
-			if(!q.isEmpty()) currNode = q.remove().quadtreeNode;
-			else return null;
-		}
-
-		return ((LeafNode) currNode).getCity();
+	private City nearestCityHelper(PMQuadtree pm, Point2D.Float point) {
+		final Iterator<City> nearest = pm.nearestCities(point);
+		return nearest.hasNext() ? nearest.next() : null;
 	}
 
-	
-	class QuadrantDistance implements Comparable<QuadrantDistance> {
-		public Node quadtreeNode;
-		private double distance;
-
-		public QuadrantDistance(Node node, Point2D.Float pt) {
-			quadtreeNode = node;
-			if (node.getType() == Node.INTERNAL) {
-				InternalNode gray = (InternalNode) node;
-				distance = Shape2DDistanceCalculator.distance(pt, 
-						new Rectangle2D.Float(gray.origin.x, gray.origin.y, gray.width, gray.height));
-			} else if (node.getType() == Node.LEAF) {
-				LeafNode leaf = (LeafNode) node;
-				distance = pt.distance(leaf.getCity().localtoPoint2D());
-			} else {
-				throw new IllegalArgumentException("Only leaf or internal node can be passed in");
-			}
+	/**
+	 * Finds the k cities closest to a point within a metropole, closest
+	 * first. Fewer are listed if the metropole has fewer cities.
+	 * 
+	 * @param node
+	 *            nearestCities command being processed
+	 */
+	public void processNearestCities(Element node) {
+		final Element commandNode = getCommandNode(node);
+		final Element parametersNode = results.createElement("parameters");
+		final Element outputNode = results.createElement("output");
+
+		/* extract attribute values from command */
+		final int localX = processIntegerAttribute(node, "localX", parametersNode);
+		final int localY = processIntegerAttribute(node, "localY", parametersNode);
+		final int remoteX = processIntegerAttribute(node, "remoteX", parametersNode);
+		final int remoteY = processIntegerAttribute(node, "remoteY", parametersNode);
+		final int k = processIntegerAttribute(node, "k", parametersNode);
+
+		final PMQuadtree pm = rep.get(new Metropole(remoteX, remoteY));
+		final Point2D.Float point = new Point2D.Float(localX, localY);
+
+		if (pm == null || k <= 0) {
+			addErrorNode("cityNotFound", commandNode, parametersNode);
+			return;
 		}
 
-		public int compareTo(QuadrantDistance qd) {
-			if (distance < qd.distance) {
-				return -1;
-			} else if (distance > qd.distance) {
-				return 1;
-			} else {
-				if (quadtreeNode.getType() != qd.quadtreeNode.getType()) {
-					if (quadtreeNode.getType() == Node.INTERNAL) {
-						return -1;
-					} else {
-						return 1;
-					}
-				} else if (quadtreeNode.getType() == Node.LEAF) {
-					// both are leaves
-					return ((LeafNode) qd.quadtreeNode).getCity().getName().compareTo(
-							((LeafNode) quadtreeNode).getCity().getName());
-				} else {
-					// both are internals
-					return 0;
-				}
-			}
+		final Element cityListNode = results.createElement("cityList");
+		final Iterator<City> nearest = pm.nearestCities(point);
+		for (int i = 0; i < k && nearest.hasNext(); i++) {
+			addCityNode(cityListNode, nearest.next());
+		}
+
+		if (!cityListNode.hasChildNodes()) {
+			addErrorNode("cityNotFound", commandNode, parametersNode);
+		} else {
+			outputNode.appendChild(cityListNode);
+			/* add success node to results */
+			addSuccessNode(commandNode, parametersNode, outputNode);
 		}
 	}
 	
@@ -1,23 +1,39 @@
 package cmsc420.meeshquest.part3;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import cmsc420.command.Command;
+import cmsc420.structure.Metropole;
 import cmsc420.utils.Canvas;
+import cmsc420.utils.CommandReader;
+import cmsc420.utils.ResultsPrinter;
 import cmsc420.xml.XmlUtility;
 
 /**
@@ -33,6 +49,51 @@ public class MeeshQuest {
 	 */
 	private static final boolean LOCAL_TEST = false; 
 	private static final boolean GENERATE_JUNIT_SRC = false;
+	/**
+	 *  whether to run each command as soon as it is read and print its result
+	 *  right away, instead of parsing and validating the whole input first.
+	 *  An element that is no command, a number attribute that is missing or
+	 *  not a number, or a listCities sortBy other than name or coordinate
+	 *  then ends the run with a fatalError after the results already
+	 *  printed. Set with -Dmeeshquest.stream=true.
+	 */
+	private static final boolean STREAM_INPUT = Boolean.getBoolean("meeshquest.stream");
+	/**
+	 *  whether to print the result of each command as soon as it has run
+	 *  instead of keeping every result until the end. Streaming the input
+	 *  implies this. Set with -Dmeeshquest.streamOutput=true.
+	 */
+	private static final boolean STREAM_OUTPUT = STREAM_INPUT || Boolean.getBoolean("meeshquest.streamOutput");
+	/**
+	 *  whether to leave the canvas uncreated until a command saves the map,
+	 *  so a run that saves nothing never builds a drawing. Set with
+	 *  -Dmeeshquest.headless=true.
+	 */
+	private static final boolean HEADLESS = Boolean.getBoolean("meeshquest.headless");
+	/**
+	 *  whether to run commands that change nothing on several threads at once
+	 *  when they come one after another. Their results are still printed in
+	 *  input order. Set with -Dmeeshquest.parallel=true.
+	 */
+	private static final boolean PARALLEL = Boolean.getBoolean("meeshquest.parallel");
+	/**
+	 *  most commands run at once, so that a streamed input is not held back
+	 *  for too long
+	 */
+	private static final int MAX_RUN = 256;
+	/**
+	 *  commands that change nothing, unless they save a map
+	 */
+	private static final HashSet<String> READ_ONLY = new HashSet<String>(Arrays.asList(
+			"globalRangeCities", "nearestCity", "nearestCities",
+			"printTreap", "printPMQuadtree", "listCities"));
+	/**
+	 *  whether to run commands that only touch one metropole on a lane
+	 *  chosen by their metropole, so that commands for different metropoles
+	 *  run at once. Their results are still printed in input order. Set with
+	 *  -Dmeeshquest.sharded=true.
+	 */
+	private static final boolean SHARDED = Boolean.getBoolean("meeshquest.sharded");
 	private static String testName = "";
 	
 	/**
@@ -58,6 +119,18 @@ public class MeeshQuest {
 	 */
 	private Command command;
 
+	/**
+	 * single threaded lanes running the commands of the metropoles hashed to
+	 * them, made on the first command sent to a lane
+	 */
+	private ExecutorService[] lanes;
+
+	/**
+	 * results of the commands sent to the lanes and not yet added, in input
+	 * order
+	 */
+	private final List<Future<Document>> pending = new ArrayList<Future<Document>>();
+
     public static void main(String[] args) {
         final MeeshQuest m = new MeeshQuest();
     
@@ -100,48 +173,114 @@ public class MeeshQuest {
 
     public void processInput() {
     	
-    	Canvas.setEnabled();
+    	if (HEADLESS) {
+    		Canvas.setDisabled();
+    	} else {
+    		Canvas.setEnabled();
+    	}
     	
+    	ResultsPrinter printer = null;
+    	boolean failed = false;
         try {
 			
 			if (LOCAL_TEST) {
 				System.out.println("Open " + "part1." + testName);
 				xmlInput = new File("testfiles/" + testName + ".input.xml");
 			}
-			Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput);
-			//Document doc = XmlUtility.validateNoNamespace(new File("./src/part3.public.airport.input.xml")); 
 			
             /* create output */
             results = XmlUtility.getDocumentBuilder().newDocument();
             command = new Command();
             command.setResults(results);
 
+            if (STREAM_OUTPUT) {
+            	printer = new ResultsPrinter(System.out, results);
+            }
+
+            final CommandReader commands;
+            if (STREAM_INPUT) {
+            	commands = new CommandReader(LOCAL_TEST ? new FileInputStream(xmlInput) : systemInput, results);
+            } else {
+            	Document doc = LOCAL_TEST ? XmlUtility.validateNoNamespace(xmlInput) : XmlUtility.validateNoNamespace(systemInput);
+            	//Document doc = XmlUtility.validateNoNamespace(new File("./src/part3.public.airport.input.xml")); 
+            	commands = new CommandReader(doc);
+            }
+
             /* process commands element */
-            Element commandNode = doc.getDocumentElement();
-            processCommand(commandNode);
+            Element commandNode = commands.getRoot();
+            processCommand(command, commandNode);
 
             /* process each command */
-            final NodeList nl = commandNode.getChildNodes();
-            for (int i = 0; i < nl.getLength(); i++) {
-                if (nl.item(i).getNodeType() == Document.ELEMENT_NODE) {
-                    /* need to check if Element (ignore comments) */
-                    commandNode = (Element) nl.item(i);
-                    processCommand(commandNode);
+            final List<Element> run = new ArrayList<Element>();
+            int commandIndex = 0;
+            while ((commandNode = commands.next()) != null) {
+                /* changes to the city dictionary are kept under this index */
+                command.setCommandIndex(++commandIndex);
+                final Metropole shard = SHARDED ? getShard(commandNode) : null;
+                if (shard != null) {
+                	processInParallel(run, printer);
+                	processOnShard(shard, commandNode, printer);
+                	continue;
+                }
+                /* anything else may look at every metropole */
+                finishShards(printer);
+                if (PARALLEL && isReadOnly(commandNode)) {
+                	/* hold commands that change nothing to run them together */
+                	run.add(commandNode);
+                	if (run.size() == MAX_RUN) {
+                		processInParallel(run, printer);
+                	}
+                	continue;
+                }
+                processInParallel(run, printer);
+                processCommand(command, commandNode);
+                if (printer != null) {
+                	printer.print(results.getDocumentElement());
                 }
             }
+            processInParallel(run, printer);
+            finishShards(printer);
+
+            /* wait for the saved maps to be written */
+            command.flushMaps();
             
             //Canvas.instance.setVisible(true);
         } catch (SAXException e) {
             e.printStackTrace();
+            failed = true;
             addFatalError();
         } catch (ParserConfigurationException e) {
             e.printStackTrace();
+            failed = true;
             addFatalError();
         } catch (IOException e) {
             e.printStackTrace();
+            failed = true;
+            addFatalError();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+            failed = true;
             addFatalError();
         } finally {
-			if (LOCAL_TEST) {
+			if (command != null) {
+				command.close();
+			}
+			if (lanes != null) {
+				for (ExecutorService lane : lanes) {
+					lane.shutdown();
+				}
+			}
+			if (printer != null) {
+				try {
+					if (failed) {
+						printer.printFatalError();
+					}
+					printer.finish();
+				} catch (XMLStreamException e) {
+					e.printStackTrace();
+					System.exit(-1);
+				}
+			} else if (LOCAL_TEST) {
 				try {
 					xmlOutput = new File("testfiles/" + testName + ".output.xml");
 					XmlUtility.write(results, xmlOutput);
@@ -170,11 +309,238 @@ public class MeeshQuest {
     }
 
 	/**
-	 * Process command from the root command node of the XML tree
+	 * Whether a command changes nothing, so that it can run alongside others
+	 * like it.
+	 * 
+	 * @param commandNode
+	 *            command to check
+	 * @return true if the command only reads the map
+	 */
+	private static boolean isReadOnly(final Element commandNode) {
+		return READ_ONLY.contains(commandNode.getNodeName())
+				&& commandNode.getAttribute("saveMap").isEmpty()
+				&& commandNode.getAttribute("saveHTML").isEmpty();
+	}
+
+	/**
+	 * Runs a run of commands that change nothing on the common fork-join
+	 * pool and adds their results in the order of the commands. The run is
+	 * emptied.
+	 * 
+	 * @param run
+	 *            commands to run, all of which change nothing
+	 * @param printer
+	 *            prints the results once every command has run, or null
+	 * @throws IOException
+	 *             a command failed
+	 * @throws ParserConfigurationException
+	 *             no document could be made for a command
+	 * @throws XMLStreamException
+	 *             the results could not be printed
+	 */
+	private void processInParallel(final List<Element> run,
+			final ResultsPrinter printer) throws IOException,
+			ParserConfigurationException, XMLStreamException {
+		if (run.isEmpty()) {
+			return;
+		}
+		final List<Future<Document>> tasks = new ArrayList<Future<Document>>(run.size());
+		for (Element commandNode : run) {
+			tasks.add(ForkJoinPool.commonPool().submit(viewTask(commandNode)));
+		}
+		run.clear();
+		addResults(tasks);
+		if (printer != null) {
+			printer.print(results.getDocumentElement());
+		}
+	}
+
+	/**
+	 * Gets the metropole a command is confined to: the metropole of the
+	 * start city of a road, or the metropole a query names.
+	 * 
+	 * @param commandNode
+	 *            command to check
+	 * @return metropole of the command, or null if it may touch more than
+	 *         one metropole, or anything they share besides the mapped cities
+	 *         and the road graph
+	 */
+	private Metropole getShard(final Element commandNode) {
+		final String name = commandNode.getNodeName();
+		if (!commandNode.getAttribute("saveMap").isEmpty()
+				|| !commandNode.getAttribute("saveHTML").isEmpty()) {
+			/* the drawing of the map is shared */
+			return null;
+		} else if (name.equals("mapRoad") || name.equals("unmapRoad")) {
+			return command.getMetropole(commandNode.getAttribute("start"));
+		} else if (name.equals("nearestCity") || name.equals("nearestCities")
+				|| name.equals("printPMQuadtree")) {
+			try {
+				return new Metropole(Integer.parseInt(commandNode.getAttribute("remoteX")),
+						Integer.parseInt(commandNode.getAttribute("remoteY")));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Sends a command to the lane of its metropole. Commands for one
+	 * metropole run one at a time in input order, while those for metropoles
+	 * on other lanes run alongside them; Command guards what the metropoles
+	 * share. The results are added by finishShards.
+	 * 
+	 * @param shard
+	 *            metropole the command is confined to
+	 * @param commandNode
+	 *            command to run
+	 * @param printer
+	 *            prints the results if too many are waiting, or null
+	 * @throws IOException
+	 *             a command failed
+	 * @throws ParserConfigurationException
+	 *             no document could be made for the command
+	 * @throws XMLStreamException
+	 *             the results could not be printed
+	 */
+	private void processOnShard(final Metropole shard, final Element commandNode,
+			final ResultsPrinter printer) throws IOException,
+			ParserConfigurationException, XMLStreamException {
+		if (lanes == null) {
+			lanes = new ExecutorService[Runtime.getRuntime().availableProcessors()];
+			for (int i = 0; i < lanes.length; i++) {
+				final String laneName = "MeeshQuest lane " + i;
+				lanes[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						final Thread thread = new Thread(r, laneName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		final int lane = (shard.hashCode() & Integer.MAX_VALUE) % lanes.length;
+		pending.add(lanes[lane].submit(viewTask(commandNode)));
+		if (pending.size() == MAX_RUN) {
+			finishShards(printer);
+		}
+	}
+
+	/**
+	 * Waits for every command sent to the lanes and adds their results in
+	 * input order.
+	 * 
+	 * @param printer
+	 *            prints the results, or null
+	 * @throws IOException
+	 *             a command failed
+	 * @throws XMLStreamException
+	 *             the results could not be printed
+	 */
+	private void finishShards(final ResultsPrinter printer)
+			throws IOException, XMLStreamException {
+		if (pending.isEmpty()) {
+			return;
+		}
+		addResults(pending);
+		pending.clear();
+		if (printer != null) {
+			printer.print(results.getDocumentElement());
+		}
+	}
+
+	/**
+	 * Makes a task running a command on a view of the Command with a document
+	 * of its own, since a DOM document cannot be built from several threads.
+	 * The command is copied into that document before the task runs.
+	 * 
+	 * @param commandNode
+	 *            command to run
+	 * @return task giving the document holding the results of the command
+	 * @throws ParserConfigurationException
+	 *             no document could be made for the command
+	 */
+	private Callable<Document> viewTask(final Element commandNode)
+			throws ParserConfigurationException {
+		final Document viewResults = XmlUtility.getDocumentBuilder().newDocument();
+		final Element node = (Element) viewResults.importNode(commandNode, true);
+		final Command view = command.view(viewResults);
+		return new Callable<Document>() {
+			public Document call() throws IOException {
+				processCommand(view, node);
+				return viewResults;
+			}
+		};
+	}
+
+	/**
+	 * Waits for tasks made by viewTask and adds their results in order.
+	 * 
+	 * @param tasks
+	 *            tasks in input order
+	 * @throws IOException
+	 *             a command failed
+	 */
+	private void addResults(final List<Future<Document>> tasks) throws IOException {
+		final Element resultsNode = results.getDocumentElement();
+		for (Future<Document> task : tasks) {
+			final Document viewResults;
+			try {
+				viewResults = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				while (cause.getClass() == RuntimeException.class
+						&& cause.getCause() != null) {
+					/* the fork-join pool wraps what a callable throws */
+					cause = cause.getCause();
+				}
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new IOException(cause);
+			}
+			for (Node child = viewResults.getDocumentElement().getFirstChild(); child != null; child = child
+					.getNextSibling()) {
+				resultsNode.appendChild(results.importNode(child, true));
+			}
+		}
+	}
+
+	/**
+	 * Process command from the root command node of the XML tree. A number
+	 * attribute that can not be read, which only an input that was not
+	 * validated can hold, fails the command.
+	 * @param command
+	 * @param commandNode
+	 * @throws IOException
+	 *             a command failed, or the element is not a command
+	 */
+	private static void processCommand(final Command command,
+			final Element commandNode) throws IOException {
+		try {
+			runCommand(command, commandNode);
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad number in " + commandNode.getNodeName(), e);
+		}
+	}
+
+	/**
+	 * Runs the command an element names.
+	 * @param command
 	 * @param commandNode
 	 * @throws IOException
+	 *             a command failed, or the element is not a command
 	 */
-	private void processCommand(final Element commandNode) throws IOException {
+	private static void runCommand(final Command command,
+			final Element commandNode) throws IOException {
 		final String name = commandNode.getNodeName();
 
 		if (name.equals("commands")) {
@@ -197,6 +563,8 @@ public class MeeshQuest {
 			command.processPrintPMQuadtree(commandNode);	
 		} else if (name.equals("mapRoad")) {
 			command.processMapRoad(commandNode);
+		} else if (name.equals("mapRoads")) {
+			command.processMapRoads(commandNode);
 		} else if (name.equals("saveMap")) {
 			command.processSaveMap(commandNode);
     	} else if (name.equals("mapAirport")) {
@@ -207,6 +575,8 @@ public class MeeshQuest {
 //			command.processRangeRoads(commandNode);
 		} else if (name.equals("nearestCity")) {
 			command.processNearestCity(commandNode);
+		} else if (name.equals("nearestCities")) {
+			command.processNearestCities(commandNode);
 //		}else if (name.equals("nearestCityToRoad")) {
 //			command.processNearestCityToRoad(commandNode);
 //		} else if (name.equals("nearestRoad")) {
@@ -217,7 +587,7 @@ public class MeeshQuest {
 //			command.processShortestPath(commandNode);	
 		} else {
 			if (LOCAL_TEST) System.out.println("Problem with the validator");
-			System.exit(-1);
+			throw new IOException("Unknown command " + name);
 		}
 	}
 }
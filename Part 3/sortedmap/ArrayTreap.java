@@ -0,0 +1,759 @@
+package cmsc420.sortedmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Treap keeping its nodes in parallel arrays instead of node objects. A node
+ * is an int slot: its key, value, priority, children, parent and subtree size
+ * are entries of the arrays at that slot, and slot 0 stands for no node.
+ * The slots of removed nodes go on a free list and are given to the next
+ * nodes put, so a map that keeps changing allocates nothing once its arrays
+ * have grown to fit it.
+ * <p>
+ * Changes are made by splitting and merging subtrees, as in Treap, and the
+ * subtree sizes give rank, select and range counts in O(log n). Priorities
+ * come from a SplittableRandom of this treap's own, so treaps being filled at
+ * once do not contend on a shared generator.
+ * <p>
+ * Entries handed out by iterators are copies; setting the value of one
+ * writes through as long as its mapping has not been removed.
+ * <p>
+ * Readers may share the treap only while nobody changes it, and a snapshot
+ * copies the arrays, so it takes O(n) rather than the O(1) of PersistentTreap.
+ */
+public class ArrayTreap<K, V> extends AbstractMap<K, V> implements
+		SortedDictionary<K, V> {
+
+	/** slot standing for no node */
+	private static final int NIL = 0;
+
+	private final Comparator<? super K> comparator;
+
+	private final SplittableRandom random = new SplittableRandom();
+
+	/** key of each slot */
+	private Object[] keys;
+
+	/** value of each slot */
+	private Object[] values;
+
+	/** priority of each slot */
+	private int[] priorities;
+
+	/** left child, right child and parent of each slot */
+	private int[] lefts, rights, parents;
+
+	/** number of nodes in the subtree of each slot; 0 for NIL */
+	private int[] sizes;
+
+	private int root = NIL;
+
+	/** least slot never used */
+	private int nextSlot = 1;
+
+	/** first free slot, the rest linked through rights */
+	private int freeSlot = NIL;
+
+	private int modCount = 0;
+
+	/** halves of the last split */
+	private int splitLeft, splitRight;
+
+	/** whether this treap is a snapshot, which cannot be changed */
+	private boolean frozen = false;
+
+	private EntrySet entrySet = null;
+
+	public ArrayTreap() {
+		this(null);
+	}
+
+	public ArrayTreap(final Comparator<? super K> comp) {
+		this.comparator = comp;
+		final int capacity = 16;
+		keys = new Object[capacity];
+		values = new Object[capacity];
+		priorities = new int[capacity];
+		lefts = new int[capacity];
+		rights = new int[capacity];
+		parents = new int[capacity];
+		sizes = new int[capacity];
+	}
+
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * Gets a read-only copy of this treap. Takes O(n), copying the slots in
+	 * use; later changes to this treap do not show in the copy.
+	 *
+	 * @return read-only treap of the mappings in this one now
+	 */
+	public ArrayTreap<K, V> snapshot() {
+		final ArrayTreap<K, V> copy = new ArrayTreap<K, V>(comparator);
+		copy.keys = Arrays.copyOf(keys, nextSlot);
+		copy.values = Arrays.copyOf(values, nextSlot);
+		copy.priorities = Arrays.copyOf(priorities, nextSlot);
+		copy.lefts = Arrays.copyOf(lefts, nextSlot);
+		copy.rights = Arrays.copyOf(rights, nextSlot);
+		copy.parents = Arrays.copyOf(parents, nextSlot);
+		copy.sizes = Arrays.copyOf(sizes, nextSlot);
+		copy.root = root;
+		copy.nextSlot = nextSlot;
+		copy.freeSlot = freeSlot;
+		copy.frozen = true;
+		return copy;
+	}
+
+	public void clear() {
+		checkWritable();
+		modCount++;
+		Arrays.fill(keys, 0, nextSlot, null);
+		Arrays.fill(values, 0, nextSlot, null);
+		root = NIL;
+		nextSlot = 1;
+		freeSlot = NIL;
+	}
+
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	public int size() {
+		return sizes[root];
+	}
+
+	public boolean containsKey(Object key) {
+		return getSlot(key) != NIL;
+	}
+
+	public V get(Object key) {
+		final int p = getSlot(key);
+		return p == NIL ? null : value(p);
+	}
+
+	public V put(K key, V value) {
+		if (key == null || value == null) throw new NullPointerException();
+		checkWritable();
+		if (root == NIL) {
+			compare(key, key);  // type check
+		} else {
+			final int p = getSlot(key);
+			if (p != NIL) {
+				final V oldValue = value(p);
+				values[p] = value;
+				return oldValue;
+			}
+		}
+		final int e = allocate(key, value);
+		int parent = NIL;
+		int curr = root;
+		boolean left = false;
+		while (curr != NIL && priorities[curr] >= priorities[e]) {
+			parent = curr;
+			left = compare(key, keys[curr]) < 0;
+			curr = left ? lefts[curr] : rights[curr];
+		}
+		split(curr, key, false);
+		lefts[e] = splitLeft;
+		rights[e] = splitRight;
+		update(e);
+		replace(parent, left, e);
+		modCount++;
+		return null;
+	}
+
+	public V remove(Object key) {
+		final int p = getSlot(key);
+		if (p == NIL) return null;
+		final V oldValue = value(p);
+		deleteSlot(p);
+		return oldValue;
+	}
+
+	public K firstKey() {
+		return key(firstSlot());
+	}
+
+	public K lastKey() {
+		return key(lastSlot());
+	}
+
+	/**
+	 * Gets the number of keys less than a key. Takes O(log n).
+	 *
+	 * @param key
+	 *            key whose rank is wanted; need not be in this treap
+	 * @return number of keys in this treap less than the key
+	 */
+	public int rank(Object key) {
+		if (key == null) throw new NullPointerException();
+		int rank = 0;
+		int p = root;
+		while (p != NIL) {
+			if (compare(key, keys[p]) <= 0) {
+				p = lefts[p];
+			} else {
+				rank += sizes[lefts[p]] + 1;
+				p = rights[p];
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Gets the mapping with a given number of keys before it. Takes O(log n).
+	 *
+	 * @param index
+	 *            rank of the mapping, from 0 to size() - 1
+	 * @return mapping at the rank
+	 * @throws IndexOutOfBoundsException
+	 *             if no mapping has the rank
+	 */
+	public Map.Entry<K, V> select(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		int p = root;
+		while (true) {
+			final int left = sizes[lefts[p]];
+			if (index < left) {
+				p = lefts[p];
+			} else if (index > left) {
+				index -= left + 1;
+				p = rights[p];
+			} else {
+				return new SlotEntry(p);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of keys in a range. Takes O(log n).
+	 *
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 * @return number of keys in the range
+	 */
+	public int countInRange(Object fromKey, Object toKey) {
+		final int count = (toKey == null ? size() : rank(toKey))
+				- (fromKey == null ? 0 : rank(fromKey));
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * Removes every mapping whose key lies in a range, by detaching the
+	 * range as one subtree and freeing its slots.
+	 *
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 */
+	public void removeRange(K fromKey, K toKey) {
+		if (fromKey != null && toKey != null && compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException();
+		checkWritable();
+		int head = NIL;
+		int rest = root;
+		if (fromKey != null) {
+			split(rest, fromKey, false);
+			head = splitLeft;
+			rest = splitRight;
+		}
+		int tail = NIL;
+		if (toKey != null) {
+			split(rest, toKey, false);
+			rest = splitLeft;
+			tail = splitRight;
+		}
+		freeSubtree(rest);
+		setRoot(merge(head, tail));
+		modCount++;
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+		EntrySet es = entrySet;
+		return (es != null) ? es : (entrySet = new EntrySet());
+	}
+
+	public SortedMap<K, V> headMap(K toKey) {
+		return new SubMap(null, toKey);
+	}
+
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return new SubMap(fromKey, toKey);
+	}
+
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return new SubMap(fromKey, null);
+	}
+
+	public void createXml(final Node parent) {
+		final Element rootNode = parent.getOwnerDocument().createElement(
+				"treap");
+		rootNode.setAttribute("cardinality", String.valueOf(size()));
+		rootNode.appendChild(buildXmlNode(rootNode, root));
+		parent.appendChild(rootNode);
+	}
+
+	private Node buildXmlNode(final Node parent, int p) {
+		if (p == NIL) {
+			return parent.getOwnerDocument().createElement("emptyChild");
+		}
+		final Element e = parent.getOwnerDocument().createElement("node");
+		e.setAttribute("key", keys[p].toString());
+		e.setAttribute("value", values[p].toString());
+		e.setAttribute("priority", Integer.toString(priorities[p]));
+		e.appendChild(buildXmlNode(e, lefts[p]));
+		e.appendChild(buildXmlNode(e, rights[p]));
+		return e;
+	}
+
+	private void checkWritable() {
+		if (frozen)
+			throw new UnsupportedOperationException("snapshot");
+	}
+
+	/** Gets a free slot holding a mapping, growing the arrays if none is left. */
+	private int allocate(K key, V value) {
+		int p = freeSlot;
+		if (p != NIL) {
+			freeSlot = rights[p];
+		} else {
+			if (nextSlot == keys.length) {
+				final int capacity = 2 * keys.length;
+				keys = Arrays.copyOf(keys, capacity);
+				values = Arrays.copyOf(values, capacity);
+				priorities = Arrays.copyOf(priorities, capacity);
+				lefts = Arrays.copyOf(lefts, capacity);
+				rights = Arrays.copyOf(rights, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				sizes = Arrays.copyOf(sizes, capacity);
+			}
+			p = nextSlot++;
+		}
+		keys[p] = key;
+		values[p] = value;
+		priorities[p] = random.nextInt();
+		lefts[p] = rights[p] = parents[p] = NIL;
+		sizes[p] = 1;
+		return p;
+	}
+
+	/** Puts a slot on the free list, dropping its key and value. */
+	private void free(int p) {
+		keys[p] = values[p] = null;
+		rights[p] = freeSlot;
+		freeSlot = p;
+	}
+
+	private void freeSubtree(int p) {
+		if (p == NIL) return;
+		freeSubtree(lefts[p]);
+		freeSubtree(rights[p]);
+		free(p);
+	}
+
+	/** Unlinks a slot, merging its two subtrees in its place, and frees it. */
+	private void deleteSlot(int p) {
+		checkWritable();
+		final int parent = parents[p];
+		replace(parent, parent != NIL && lefts[parent] == p,
+				merge(lefts[p], rights[p]));
+		free(p);
+		modCount++;
+	}
+
+	/**
+	 * Hangs a subtree where a child of a node was, and counts it in the sizes
+	 * of the node and its ancestors.
+	 */
+	private void replace(int parent, boolean left, int t) {
+		if (parent == NIL) {
+			setRoot(t);
+			return;
+		}
+		if (left) lefts[parent] = t;
+		else rights[parent] = t;
+		if (t != NIL) parents[t] = parent;
+		for (int p = parent; p != NIL; p = parents[p])
+			sizes[p] = 1 + sizes[lefts[p]] + sizes[rights[p]];
+	}
+
+	private void setRoot(int t) {
+		root = t;
+		if (t != NIL) parents[t] = NIL;
+	}
+
+	/**
+	 * Splits a subtree at a key into splitLeft, the nodes with lesser keys (or
+	 * lesser or equal keys, if inclusive), and splitRight, the rest.
+	 */
+	private void split(int t, Object key, boolean inclusive) {
+		if (t == NIL) {
+			splitLeft = splitRight = NIL;
+			return;
+		}
+		final int cmp = compare(keys[t], key);
+		if (cmp < 0 || (inclusive && cmp == 0)) {
+			split(rights[t], key, inclusive);
+			rights[t] = splitLeft;
+			update(t);
+			splitLeft = t;
+		} else {
+			split(lefts[t], key, inclusive);
+			lefts[t] = splitRight;
+			update(t);
+			splitRight = t;
+		}
+	}
+
+	/**
+	 * Merges two subtrees, every key of the first coming before every key of
+	 * the second.
+	 */
+	private int merge(int a, int b) {
+		if (a == NIL) return b;
+		if (b == NIL) return a;
+		if (priorities[a] > priorities[b]) {
+			rights[a] = merge(rights[a], b);
+			update(a);
+			return a;
+		} else {
+			lefts[b] = merge(a, lefts[b]);
+			update(b);
+			return b;
+		}
+	}
+
+	/** Links the children of a node to it and counts its subtree. */
+	private void update(int t) {
+		final int l = lefts[t];
+		final int r = rights[t];
+		if (l != NIL) parents[l] = t;
+		if (r != NIL) parents[r] = t;
+		sizes[t] = 1 + sizes[l] + sizes[r];
+	}
+
+	private int getSlot(Object key) {
+		if (key == null) throw new NullPointerException();
+		int p = root;
+		while (p != NIL) {
+			final int cmp = compare(key, keys[p]);
+			if (cmp < 0)
+				p = lefts[p];
+			else if (cmp > 0)
+				p = rights[p];
+			else
+				return p;
+		}
+		return NIL;
+	}
+
+	private int firstSlot() {
+		int p = root;
+		if (p != NIL)
+			while (lefts[p] != NIL)
+				p = lefts[p];
+		return p;
+	}
+
+	private int lastSlot() {
+		int p = root;
+		if (p != NIL)
+			while (rights[p] != NIL)
+				p = rights[p];
+		return p;
+	}
+
+	/** Gets the slot with the least key not less than a key. */
+	private int ceilingSlot(Object key) {
+		int p = root;
+		int ceiling = NIL;
+		while (p != NIL) {
+			if (compare(keys[p], key) >= 0) {
+				ceiling = p;
+				p = lefts[p];
+			} else
+				p = rights[p];
+		}
+		return ceiling;
+	}
+
+	/** Gets the slot with the greatest key less than a key. */
+	private int lowerSlot(Object key) {
+		int p = root;
+		int lower = NIL;
+		while (p != NIL) {
+			if (compare(keys[p], key) < 0) {
+				lower = p;
+				p = rights[p];
+			} else
+				p = lefts[p];
+		}
+		return lower;
+	}
+
+	private int successor(int t) {
+		if (rights[t] != NIL) {
+			int p = rights[t];
+			while (lefts[p] != NIL)
+				p = lefts[p];
+			return p;
+		}
+		int p = parents[t];
+		int ch = t;
+		while (p != NIL && ch == rights[p]) {
+			ch = p;
+			p = parents[p];
+		}
+		return p;
+	}
+
+	@SuppressWarnings("unchecked")
+	private K key(int p) {
+		if (p == NIL)
+			throw new NoSuchElementException();
+		return (K) keys[p];
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int p) {
+		return (V) values[p];
+	}
+
+	@SuppressWarnings("unchecked")
+	private final int compare(Object k1, Object k2) {
+		return comparator == null ? ((Comparable<? super K>) k1)
+				.compareTo((K) k2) : comparator.compare((K) k1, (K) k2);
+	}
+
+	private final static boolean valEquals(Object o1, Object o2) {
+		return (o1 == null ? o2 == null : o1.equals(o2));
+	}
+
+	/** Copy of the mapping in a slot, whose value is set through to it. */
+	@SuppressWarnings("serial")
+	final class SlotEntry extends AbstractMap.SimpleEntry<K, V> {
+		private final int slot;
+
+		SlotEntry(int slot) {
+			super(key(slot), value(slot));
+			this.slot = slot;
+		}
+
+		public V setValue(V value) {
+			if (value == null) throw new NullPointerException();
+			checkWritable();
+			if (keys[slot] == getKey()) values[slot] = value;
+			return super.setValue(value);
+		}
+	}
+
+	/** Iterates over the slots from one slot up to, not including, another. */
+	final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		int next;
+		final int fence;
+		int lastReturned = NIL;
+		int expectedModCount = modCount;
+
+		EntryIterator(int first, int fence) {
+			this.next = first;
+			this.fence = fence;
+		}
+
+		public boolean hasNext() {
+			return next != fence;
+		}
+
+		public Map.Entry<K, V> next() {
+			final int e = next;
+			if (e == fence)
+				throw new NoSuchElementException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			next = successor(e);
+			lastReturned = e;
+			return new SlotEntry(e);
+		}
+
+		public void remove() {
+			if (lastReturned == NIL) throw new IllegalStateException();
+			if (modCount != expectedModCount) throw new ConcurrentModificationException();
+			deleteSlot(lastReturned);
+			expectedModCount = modCount;
+			lastReturned = NIL;
+		}
+	}
+
+	class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator(firstSlot(), NIL);
+		}
+
+		public int size() {
+			return ArrayTreap.this.size();
+		}
+
+		public void clear() {
+			ArrayTreap.this.clear();
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			final int p = getSlot(entry.getKey());
+			return p != NIL && valEquals(values[p], entry.getValue());
+		}
+
+		public boolean remove(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			final int p = getSlot(entry.getKey());
+			if (p != NIL && valEquals(values[p], entry.getValue())) {
+				deleteSlot(p);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/** View of the mappings whose keys lie in a range; null bounds are open. */
+	final class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+		final K low;
+		final K high;
+		Set<Map.Entry<K, V>> entrySetView = null;
+
+		SubMap(K low, K high) {
+			if (low == null && high == null)
+				throw new IllegalArgumentException();
+			if (low != null && high != null && compare(low, high) > 0)
+				throw new IllegalArgumentException();
+			this.low = low;
+			this.high = high;
+		}
+
+		public Comparator<? super K> comparator() {
+			return comparator;
+		}
+
+		public V put(K key, V value) {
+			if (!inRange(key))
+				throw new IllegalArgumentException("key out of range");
+			return ArrayTreap.this.put(key, value);
+		}
+
+		public V get(Object key) {
+			return !inRange(key) ? null : ArrayTreap.this.get(key);
+		}
+
+		public boolean containsKey(Object key) {
+			return inRange(key) && ArrayTreap.this.containsKey(key);
+		}
+
+		public V remove(Object key) {
+			return !inRange(key) ? null : ArrayTreap.this.remove(key);
+		}
+
+		public int size() {
+			return countInRange(low, high);
+		}
+
+		public void clear() {
+			removeRange(low, high);
+		}
+
+		public K firstKey() {
+			return key(firstSlot());
+		}
+
+		public K lastKey() {
+			final int last = high == null ? lastSlot() : lowerSlot(high);
+			return key(last == NIL || tooLow(keys[last]) ? NIL : last);
+		}
+
+		int firstSlot() {
+			final int first = low == null ? ArrayTreap.this.firstSlot() : ceilingSlot(low);
+			return first == NIL || tooHigh(keys[first]) ? NIL : first;
+		}
+
+		public SortedMap<K, V> headMap(K toKey) {
+			if (!inRange(toKey))
+				throw new IllegalArgumentException();
+			return new SubMap(low, toKey);
+		}
+
+		public SortedMap<K, V> subMap(K fromKey, K toKey) {
+			if (!inRange(fromKey) || !inRange(toKey))
+				throw new IllegalArgumentException();
+			return new SubMap(fromKey, toKey);
+		}
+
+		public SortedMap<K, V> tailMap(K fromKey) {
+			if (!inRange(fromKey))
+				throw new IllegalArgumentException();
+			return new SubMap(fromKey, high);
+		}
+
+		final boolean tooLow(Object key) {
+			return low != null && compare(key, low) < 0;
+		}
+
+		final boolean tooHigh(Object key) {
+			return high != null && compare(key, high) >= 0;
+		}
+
+		final boolean inRange(Object key) {
+			return !tooLow(key) && !tooHigh(key);
+		}
+
+		public Set<Map.Entry<K, V>> entrySet() {
+			Set<Map.Entry<K, V>> esv = entrySetView;
+			return (esv != null) ? esv : (entrySetView = new AbstractSet<Map.Entry<K, V>>() {
+				public Iterator<Map.Entry<K, V>> iterator() {
+					final int first = firstSlot();
+					return new EntryIterator(first,
+							first == NIL || high == null ? NIL : ceilingSlot(high));
+				}
+
+				public int size() {
+					return SubMap.this.size();
+				}
+
+				public boolean contains(Object o) {
+					return o instanceof Map.Entry
+							&& inRange(((Map.Entry<?, ?>) o).getKey())
+							&& ArrayTreap.this.entrySet().contains(o);
+				}
+
+				public boolean remove(Object o) {
+					return o instanceof Map.Entry
+							&& inRange(((Map.Entry<?, ?>) o).getKey())
+							&& ArrayTreap.this.entrySet().remove(o);
+				}
+			});
+		}
+	}
+}
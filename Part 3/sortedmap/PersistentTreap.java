@@ -0,0 +1,672 @@
+package cmsc420.sortedmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Treap whose nodes are never changed once made. A put or remove copies only
+ * the nodes on the search path of its key, O(log n) of them, and shares every
+ * other node with the version before it, so an older root still describes
+ * the treap as it was. snapshot() hands out such a version as a read-only
+ * treap of its own.
+ * <p>
+ * The current root is published through a volatile field, so readers need no
+ * lock: each get, iterator or view reads one root and sees one whole version,
+ * however many puts and removes the writer makes meanwhile. Iterators never
+ * throw ConcurrentModificationException. Changes are serialized by this
+ * treap's lock, so only the writers wait on one another.
+ * <p>
+ * Because nodes are shared between versions, the entries handed out are
+ * immutable; put a new value instead of setting one.
+ */
+public class PersistentTreap<K, V> extends AbstractMap<K, V> implements
+		SortedDictionary<K, V> {
+
+	private final Comparator<? super K> comparator;
+
+	/** generator of priorities, or null if this treap is a snapshot */
+	private final SplittableRandom random;
+
+	private volatile TreapNode<K, V> root;
+
+	private EntrySet entrySet = null;
+
+	public PersistentTreap() {
+		this(null);
+	}
+
+	public PersistentTreap(final Comparator<? super K> comp) {
+		this(comp, null, new SplittableRandom());
+	}
+
+	private PersistentTreap(final Comparator<? super K> comp,
+			final TreapNode<K, V> root, final SplittableRandom random) {
+		this.comparator = comp;
+		this.root = root;
+		this.random = random;
+	}
+
+	public Comparator<? super K> comparator() {
+		return comparator;
+	}
+
+	/**
+	 * Gets the current version of this treap. Takes O(1) and copies nothing;
+	 * later changes to this treap do not show in the snapshot.
+	 *
+	 * @return read-only treap of the mappings in this one now
+	 */
+	public PersistentTreap<K, V> snapshot() {
+		return new PersistentTreap<K, V>(comparator, root, null);
+	}
+
+	/**
+	 * Whether this treap is a snapshot, which cannot be changed.
+	 *
+	 * @return true if this treap is read-only
+	 */
+	public boolean isSnapshot() {
+		return random == null;
+	}
+
+	public synchronized void clear() {
+		checkWritable();
+		root = null;
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	public int size() {
+		return size(root);
+	}
+
+	public boolean containsKey(Object key) {
+		return getNode(root, key) != null;
+	}
+
+	public V get(Object key) {
+		final TreapNode<K, V> p = getNode(root, key);
+		return p == null ? null : p.value;
+	}
+
+	public synchronized V put(K key, V value) {
+		if (key == null || value == null) throw new NullPointerException();
+		checkWritable();
+		final TreapNode<K, V> r = root;
+		if (r == null) {
+			compare(key, key);  // type check
+		} else {
+			final TreapNode<K, V> p = getNode(r, key);
+			if (p != null) {
+				if (p.value != value) root = replaceValue(r, key, value);
+				return p.value;
+			}
+		}
+		root = insert(r, key, value, random.nextInt());
+		return null;
+	}
+
+	public synchronized V remove(Object key) {
+		checkWritable();
+		final TreapNode<K, V> r = root;
+		final TreapNode<K, V> p = getNode(r, key);
+		if (p == null) return null;
+		root = delete(r, key);
+		return p.value;
+	}
+
+	public K firstKey() {
+		return key(firstNode(root));
+	}
+
+	public K lastKey() {
+		return key(lastNode(root));
+	}
+
+	/**
+	 * Gets the number of keys less than a key. Takes O(log n).
+	 *
+	 * @param key
+	 *            key whose rank is wanted; need not be in this treap
+	 * @return number of keys in this treap less than the key
+	 */
+	public int rank(Object key) {
+		return rank(root, key);
+	}
+
+	/**
+	 * Gets the mapping with a given number of keys before it. Takes O(log n).
+	 *
+	 * @param index
+	 *            rank of the mapping, from 0 to size() - 1
+	 * @return mapping at the rank
+	 * @throws IndexOutOfBoundsException
+	 *             if no mapping has the rank
+	 */
+	public Map.Entry<K, V> select(int index) {
+		TreapNode<K, V> p = root;
+		if (index < 0 || index >= size(p))
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		while (true) {
+			final int left = size(p.left);
+			if (index < left) {
+				p = p.left;
+			} else if (index > left) {
+				index -= left + 1;
+				p = p.right;
+			} else {
+				return p;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of keys in a range. Takes O(log n).
+	 *
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 * @return number of keys in the range
+	 */
+	public int countInRange(Object fromKey, Object toKey) {
+		final TreapNode<K, V> r = root;
+		final int count = (toKey == null ? size(r) : rank(r, toKey))
+				- (fromKey == null ? 0 : rank(r, fromKey));
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * Removes every mapping whose key lies in a range, by splitting the range
+	 * out and merging what is left. Copies O(log n) nodes.
+	 *
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 */
+	public synchronized void removeRange(K fromKey, K toKey) {
+		if (fromKey != null && toKey != null && compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException();
+		checkWritable();
+		final Halves<K, V> h = new Halves<K, V>();
+		TreapNode<K, V> head = null;
+		TreapNode<K, V> rest = root;
+		if (fromKey != null) {
+			split(rest, fromKey, h);
+			head = h.left;
+			rest = h.right;
+		}
+		TreapNode<K, V> tail = null;
+		if (toKey != null) {
+			split(rest, toKey, h);
+			tail = h.right;
+		}
+		root = merge(head, tail);
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+		EntrySet es = entrySet;
+		return (es != null) ? es : (entrySet = new EntrySet());
+	}
+
+	public SortedMap<K, V> headMap(K toKey) {
+		return new SubMap(null, toKey);
+	}
+
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return new SubMap(fromKey, toKey);
+	}
+
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return new SubMap(fromKey, null);
+	}
+
+	public void createXml(final Node parent) {
+		final TreapNode<K, V> r = root;
+		final Element rootNode = parent.getOwnerDocument().createElement(
+				"treap");
+		rootNode.setAttribute("cardinality", String.valueOf(size(r)));
+		rootNode.appendChild(buildXmlNode(rootNode, r));
+		parent.appendChild(rootNode);
+	}
+
+	private static <K, V> Node buildXmlNode(final Node parent,
+			final TreapNode<K, V> p) {
+		if (p == null) {
+			return parent.getOwnerDocument().createElement("emptyChild");
+		}
+		final Element e = parent.getOwnerDocument().createElement("node");
+		e.setAttribute("key", p.key.toString());
+		e.setAttribute("value", p.value.toString());
+		e.setAttribute("priority", Integer.toString(p.priority));
+		e.appendChild(buildXmlNode(e, p.left));
+		e.appendChild(buildXmlNode(e, p.right));
+		return e;
+	}
+
+	private void checkWritable() {
+		if (random == null)
+			throw new UnsupportedOperationException("snapshot");
+	}
+
+	/**
+	 * Puts a new mapping where its priority puts it: in place of the first
+	 * node on its search path with a lower priority, whose subtree is split
+	 * at its key into its two children. The nodes above it are copied.
+	 */
+	private TreapNode<K, V> insert(TreapNode<K, V> t, K key, V value,
+			int priority) {
+		if (t == null || t.priority < priority) {
+			final Halves<K, V> h = new Halves<K, V>();
+			split(t, key, h);
+			return new TreapNode<K, V>(key, value, priority, h.left, h.right);
+		}
+		if (compare(key, t.key) < 0)
+			return t.withLeft(insert(t.left, key, value, priority));
+		else
+			return t.withRight(insert(t.right, key, value, priority));
+	}
+
+	/** Copies the path to a key in the treap, giving the key a new value. */
+	private TreapNode<K, V> replaceValue(TreapNode<K, V> t, Object key, V value) {
+		final int cmp = compare(key, t.key);
+		if (cmp < 0)
+			return t.withLeft(replaceValue(t.left, key, value));
+		else if (cmp > 0)
+			return t.withRight(replaceValue(t.right, key, value));
+		else
+			return new TreapNode<K, V>(t.key, value, t.priority, t.left, t.right);
+	}
+
+	/**
+	 * Copies the path to a key in the treap, merging the two subtrees of its
+	 * node in the node's place.
+	 */
+	private TreapNode<K, V> delete(TreapNode<K, V> t, Object key) {
+		final int cmp = compare(key, t.key);
+		if (cmp < 0)
+			return t.withLeft(delete(t.left, key));
+		else if (cmp > 0)
+			return t.withRight(delete(t.right, key));
+		else
+			return merge(t.left, t.right);
+	}
+
+	/**
+	 * Splits a subtree at a key into h.left, the nodes with lesser keys, and
+	 * h.right, the rest. Copies the nodes on the path to the key.
+	 */
+	private void split(TreapNode<K, V> t, Object key, Halves<K, V> h) {
+		if (t == null) {
+			h.left = h.right = null;
+			return;
+		}
+		if (compare(t.key, key) < 0) {
+			split(t.right, key, h);
+			h.left = t.withRight(h.left);
+		} else {
+			split(t.left, key, h);
+			h.right = t.withLeft(h.right);
+		}
+	}
+
+	/**
+	 * Merges two subtrees, every key of the first coming before every key of
+	 * the second. Copies the nodes along the spines it walks.
+	 */
+	private static <K, V> TreapNode<K, V> merge(TreapNode<K, V> a,
+			TreapNode<K, V> b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority > b.priority)
+			return a.withRight(merge(a.right, b));
+		else
+			return b.withLeft(merge(a, b.left));
+	}
+
+	private TreapNode<K, V> getNode(TreapNode<K, V> p, Object key) {
+		if (key == null) throw new NullPointerException();
+		while (p != null) {
+			final int cmp = compare(key, p.key);
+			if (cmp < 0)
+				p = p.left;
+			else if (cmp > 0)
+				p = p.right;
+			else
+				return p;
+		}
+		return null;
+	}
+
+	private int rank(TreapNode<K, V> p, Object key) {
+		if (key == null) throw new NullPointerException();
+		int rank = 0;
+		while (p != null) {
+			if (compare(key, p.key) <= 0) {
+				p = p.left;
+			} else {
+				rank += size(p.left) + 1;
+				p = p.right;
+			}
+		}
+		return rank;
+	}
+
+	private static <K, V> TreapNode<K, V> firstNode(TreapNode<K, V> p) {
+		if (p != null)
+			while (p.left != null)
+				p = p.left;
+		return p;
+	}
+
+	private static <K, V> TreapNode<K, V> lastNode(TreapNode<K, V> p) {
+		if (p != null)
+			while (p.right != null)
+				p = p.right;
+		return p;
+	}
+
+	/** Gets the node in a subtree with the greatest key less than a key. */
+	private TreapNode<K, V> lowerNode(TreapNode<K, V> p, Object key) {
+		TreapNode<K, V> lower = null;
+		while (p != null) {
+			if (compare(p.key, key) < 0) {
+				lower = p;
+				p = p.right;
+			} else
+				p = p.left;
+		}
+		return lower;
+	}
+
+	private static <K, V> K key(TreapNode<K, V> p) {
+		if (p == null)
+			throw new NoSuchElementException();
+		return p.key;
+	}
+
+	private static int size(TreapNode<?, ?> p) {
+		return p == null ? 0 : p.size;
+	}
+
+	@SuppressWarnings("unchecked")
+	private final int compare(Object k1, Object k2) {
+		return comparator == null ? ((Comparable<? super K>) k1)
+				.compareTo((K) k2) : comparator.compare((K) k1, (K) k2);
+	}
+
+	private final static boolean valEquals(Object o1, Object o2) {
+		return (o1 == null ? o2 == null : o1.equals(o2));
+	}
+
+	/** Halves of a split. */
+	private static final class Halves<K, V> {
+		TreapNode<K, V> left, right;
+	}
+
+	/** Node shared by every version holding it; never changed once made. */
+	static final class TreapNode<K, V> implements Map.Entry<K, V> {
+		final K key;
+		final V value;
+		final int priority;
+		final TreapNode<K, V> left, right;
+		/** number of nodes in the subtree of this node */
+		final int size;
+
+		TreapNode(K key, V value, int priority, TreapNode<K, V> left,
+				TreapNode<K, V> right) {
+			this.key = key;
+			this.value = value;
+			this.priority = priority;
+			this.left = left;
+			this.right = right;
+			this.size = 1 + size(left) + size(right);
+		}
+
+		TreapNode<K, V> withLeft(TreapNode<K, V> left) {
+			return new TreapNode<K, V>(key, value, priority, left, right);
+		}
+
+		TreapNode<K, V> withRight(TreapNode<K, V> right) {
+			return new TreapNode<K, V>(key, value, priority, left, right);
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V value) {
+			throw new UnsupportedOperationException();
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return key.equals(e.getKey()) && value.equals(e.getValue());
+		}
+
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+
+	/**
+	 * Iterates in order over the nodes of one version with keys from one key
+	 * up to, not including, another; null bounds are open.
+	 */
+	final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private final ArrayDeque<TreapNode<K, V>> path =
+			new ArrayDeque<TreapNode<K, V>>();
+		private final Object high;
+		private TreapNode<K, V> lastReturned = null;
+
+		EntryIterator(TreapNode<K, V> t, Object low, Object high) {
+			this.high = high;
+			while (t != null) {
+				if (low == null || compare(t.key, low) >= 0) {
+					path.push(t);
+					t = t.left;
+				} else
+					t = t.right;
+			}
+		}
+
+		public boolean hasNext() {
+			final TreapNode<K, V> next = path.peek();
+			return next != null && (high == null || compare(next.key, high) < 0);
+		}
+
+		public Map.Entry<K, V> next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			final TreapNode<K, V> e = path.pop();
+			for (TreapNode<K, V> t = e.right; t != null; t = t.left)
+				path.push(t);
+			lastReturned = e;
+			return e;
+		}
+
+		public void remove() {
+			if (lastReturned == null) throw new IllegalStateException();
+			PersistentTreap.this.remove(lastReturned.key);
+			lastReturned = null;
+		}
+	}
+
+	class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator(root, null, null);
+		}
+
+		public int size() {
+			return PersistentTreap.this.size();
+		}
+
+		public void clear() {
+			PersistentTreap.this.clear();
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			final TreapNode<K, V> p = getNode(root, entry.getKey());
+			return p != null && valEquals(p.value, entry.getValue());
+		}
+
+		public boolean remove(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			synchronized (PersistentTreap.this) {
+				final TreapNode<K, V> p = getNode(root, entry.getKey());
+				if (p != null && valEquals(p.value, entry.getValue())) {
+					PersistentTreap.this.remove(p.key);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/** View of the mappings whose keys lie in a range; null bounds are open. */
+	final class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+		final K low;
+		final K high;
+		Set<Map.Entry<K, V>> entrySetView = null;
+
+		SubMap(K low, K high) {
+			if (low == null && high == null)
+				throw new IllegalArgumentException();
+			if (low != null && high != null && compare(low, high) > 0)
+				throw new IllegalArgumentException();
+			this.low = low;
+			this.high = high;
+		}
+
+		public Comparator<? super K> comparator() {
+			return comparator;
+		}
+
+		public V put(K key, V value) {
+			if (!inRange(key))
+				throw new IllegalArgumentException("key out of range");
+			return PersistentTreap.this.put(key, value);
+		}
+
+		public V get(Object key) {
+			return !inRange(key) ? null : PersistentTreap.this.get(key);
+		}
+
+		public boolean containsKey(Object key) {
+			return inRange(key) && PersistentTreap.this.containsKey(key);
+		}
+
+		public V remove(Object key) {
+			return !inRange(key) ? null : PersistentTreap.this.remove(key);
+		}
+
+		public int size() {
+			return countInRange(low, high);
+		}
+
+		public void clear() {
+			removeRange(low, high);
+		}
+
+		public K firstKey() {
+			final Iterator<Map.Entry<K, V>> i = new EntryIterator(root, low, high);
+			if (!i.hasNext())
+				throw new NoSuchElementException();
+			return i.next().getKey();
+		}
+
+		public K lastKey() {
+			final TreapNode<K, V> r = root;
+			final TreapNode<K, V> last = high == null ? lastNode(r) : lowerNode(r, high);
+			return key(last == null || tooLow(last.key) ? null : last);
+		}
+
+		public SortedMap<K, V> headMap(K toKey) {
+			if (!inRange(toKey))
+				throw new IllegalArgumentException();
+			return new SubMap(low, toKey);
+		}
+
+		public SortedMap<K, V> subMap(K fromKey, K toKey) {
+			if (!inRange(fromKey) || !inRange(toKey))
+				throw new IllegalArgumentException();
+			return new SubMap(fromKey, toKey);
+		}
+
+		public SortedMap<K, V> tailMap(K fromKey) {
+			if (!inRange(fromKey))
+				throw new IllegalArgumentException();
+			return new SubMap(fromKey, high);
+		}
+
+		final boolean tooLow(Object key) {
+			return low != null && compare(key, low) < 0;
+		}
+
+		final boolean tooHigh(Object key) {
+			return high != null && compare(key, high) >= 0;
+		}
+
+		final boolean inRange(Object key) {
+			return !tooLow(key) && !tooHigh(key);
+		}
+
+		public Set<Map.Entry<K, V>> entrySet() {
+			Set<Map.Entry<K, V>> esv = entrySetView;
+			return (esv != null) ? esv : (entrySetView = new AbstractSet<Map.Entry<K, V>>() {
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator(root, low, high);
+				}
+
+				public int size() {
+					return SubMap.this.size();
+				}
+
+				public boolean contains(Object o) {
+					return o instanceof Map.Entry
+							&& inRange(((Map.Entry<?, ?>) o).getKey())
+							&& PersistentTreap.this.entrySet().contains(o);
+				}
+
+				public boolean remove(Object o) {
+					return o instanceof Map.Entry
+							&& inRange(((Map.Entry<?, ?>) o).getKey())
+							&& PersistentTreap.this.entrySet().remove(o);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package cmsc420.sortedmap;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Sorted map that also gives the rank of a key, the mapping at a rank and the
+ * number of keys in a range, and hands out read-only snapshots of itself.
+ * <p>
+ * Any number of threads may read a dictionary that nobody changes. A
+ * PersistentTreap may also be read while one thread changes it: get,
+ * containsKey and iteration take no lock and never wait on the writer, each
+ * seeing the map as it was after some whole change. An ArrayTreap may not.
+ */
+public interface SortedDictionary<K, V> extends SortedMap<K, V> {
+
+	/**
+	 * Gets the number of keys less than a key.
+	 *
+	 * @param key
+	 *            key whose rank is wanted; need not be in this dictionary
+	 * @return number of keys in this dictionary less than the key
+	 */
+	int rank(Object key);
+
+	/**
+	 * Gets the mapping with a given number of keys before it.
+	 *
+	 * @param index
+	 *            rank of the mapping, from 0 to size() - 1
+	 * @return mapping at the rank
+	 * @throws IndexOutOfBoundsException
+	 *             if no mapping has the rank
+	 */
+	Map.Entry<K, V> select(int index);
+
+	/**
+	 * Gets the number of keys in a range.
+	 *
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 * @return number of keys in the range
+	 */
+	int countInRange(Object fromKey, Object toKey);
+
+	/**
+	 * Gets the current version of this dictionary. Later changes to this
+	 * dictionary do not show in the snapshot.
+	 *
+	 * @return read-only dictionary of the mappings in this one now
+	 */
+	SortedDictionary<K, V> snapshot();
+}
@@ -0,0 +1,188 @@
+package cmsc420.sortedmap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Checks the treaps of this package against TreeMap. Each treap is put
+ * through the same random puts, removes, range views, view clears and
+ * iterator removals as a TreeMap, in natural and in reverse order, and must
+ * agree with it after every step: on its mappings, first and last keys,
+ * views, and on rank, select and range counts. Snapshots of the dictionaries
+ * must keep the mappings they were taken with. Run as a program; it prints
+ * one line per treap and exits with 1 if any disagrees.
+ */
+public class SortedMapContract {
+
+	private static final int ROUNDS = 50;
+	private static final int STEPS = 2000;
+	private static final int KEYS = 300;
+
+	/** makes empty maps of the treap being checked */
+	private interface Factory {
+		SortedMap<Integer, Integer> create(Comparator<Integer> comp);
+	}
+
+	public static void main(String[] args) {
+		boolean passed = true;
+		passed &= check("Treap", new Factory() {
+			public SortedMap<Integer, Integer> create(Comparator<Integer> comp) {
+				return new Treap<Integer, Integer>(comp);
+			}
+		});
+		passed &= check("ArrayTreap", new Factory() {
+			public SortedMap<Integer, Integer> create(Comparator<Integer> comp) {
+				return new ArrayTreap<Integer, Integer>(comp);
+			}
+		});
+		passed &= check("PersistentTreap", new Factory() {
+			public SortedMap<Integer, Integer> create(Comparator<Integer> comp) {
+				return new PersistentTreap<Integer, Integer>(comp);
+			}
+		});
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(String name, Factory factory) {
+		try {
+			run(factory, null);
+			run(factory, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return i2.compareTo(i1);
+				}
+			});
+			System.out.println(name + ": passed");
+			return true;
+		} catch (RuntimeException e) {
+			System.out.println(name + ": FAILED " + e);
+			return false;
+		}
+	}
+
+	private static void run(Factory factory, Comparator<Integer> comp) {
+		final Random random = new Random(420);
+		for (int round = 0; round < ROUNDS; round++) {
+			final SortedMap<Integer, Integer> map = factory.create(comp);
+			final TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>(comp);
+			final List<SortedMap<Integer, Integer>> snapshots =
+				new ArrayList<SortedMap<Integer, Integer>>();
+			final List<TreeMap<Integer, Integer>> snapshotsExpected =
+				new ArrayList<TreeMap<Integer, Integer>>();
+			for (int step = 0; step < STEPS; step++) {
+				final int key = random.nextInt(KEYS);
+				switch (random.nextInt(6)) {
+				case 0:
+				case 1:
+				case 2:
+					same(expected.put(key, step), map.put(key, step), "put");
+					break;
+				case 3:
+					same(expected.remove(key), map.remove(key), "remove");
+					break;
+				case 4:
+					checkRange(map, expected, random);
+					break;
+				default:
+					final Iterator<Map.Entry<Integer, Integer>> i = map.entrySet().iterator();
+					while (i.hasNext()) {
+						final Map.Entry<Integer, Integer> e = i.next();
+						if (e.getKey() % 7 == key % 7 && random.nextInt(10) == 0) {
+							i.remove();
+							expected.remove(e.getKey());
+						}
+					}
+				}
+				if (map instanceof SortedDictionary && random.nextInt(50) == 0) {
+					snapshots.add(((SortedDictionary<Integer, Integer>) map).snapshot());
+					snapshotsExpected.add(new TreeMap<Integer, Integer>(expected));
+				}
+				checkMap(map, expected, random.nextInt(KEYS), random);
+			}
+			for (int s = 0; s < snapshots.size(); s++) {
+				checkMap(snapshots.get(s), snapshotsExpected.get(s), 0, random);
+			}
+		}
+	}
+
+	private static void checkRange(SortedMap<Integer, Integer> map,
+			TreeMap<Integer, Integer> expected, Random random) {
+		Integer low = random.nextInt(KEYS);
+		Integer high = random.nextInt(KEYS);
+		final Comparator<? super Integer> comp = expected.comparator();
+		if (comp == null ? low.compareTo(high) > 0 : comp.compare(low, high) > 0) {
+			final Integer t = low;
+			low = high;
+			high = t;
+		}
+		final SortedMap<Integer, Integer> view;
+		final SortedMap<Integer, Integer> expectedView;
+		switch (random.nextInt(3)) {
+		case 0:
+			view = map.subMap(low, high);
+			expectedView = expected.subMap(low, high);
+			break;
+		case 1:
+			view = map.headMap(high);
+			expectedView = expected.headMap(high);
+			break;
+		default:
+			view = map.tailMap(low);
+			expectedView = expected.tailMap(low);
+		}
+		same(expectedView.size(), view.size(), "view size");
+		same(new ArrayList<Map.Entry<Integer, Integer>>(expectedView.entrySet()),
+				new ArrayList<Map.Entry<Integer, Integer>>(view.entrySet()), "view entries");
+		if (!expectedView.isEmpty()) {
+			same(expectedView.firstKey(), view.firstKey(), "view firstKey");
+			same(expectedView.lastKey(), view.lastKey(), "view lastKey");
+		}
+		if (random.nextInt(20) == 0) {
+			view.clear();
+			expectedView.clear();
+		}
+	}
+
+	private static void checkMap(SortedMap<Integer, Integer> map,
+			TreeMap<Integer, Integer> expected, int key, Random random) {
+		same(expected.size(), map.size(), "size");
+		same(true, map.equals(expected) && expected.equals(map), "equals");
+		same(expected.hashCode(), map.hashCode(), "hashCode");
+		same(expected.containsKey(key), map.containsKey(key), "containsKey");
+		same(expected.get(key), map.get(key), "get");
+		if (expected.isEmpty()) {
+			return;
+		}
+		same(expected.firstKey(), map.firstKey(), "firstKey");
+		same(expected.lastKey(), map.lastKey(), "lastKey");
+		final int index = random.nextInt(expected.size());
+		final Integer selected = new ArrayList<Integer>(expected.keySet()).get(index);
+		final int rank = expected.headMap(key).size();
+		final int count = expected.tailMap(key).size();
+		if (map instanceof SortedDictionary) {
+			final SortedDictionary<Integer, Integer> d = (SortedDictionary<Integer, Integer>) map;
+			same(selected, d.select(index).getKey(), "select");
+			same(rank, d.rank(key), "rank");
+			same(count, d.countInRange(key, null), "countInRange");
+		} else if (map instanceof Treap) {
+			final Treap<Integer, Integer> t = (Treap<Integer, Integer>) map;
+			same(selected, t.select(index).getKey(), "select");
+			same(rank, t.rank(key), "rank");
+			same(count, t.countInRange(key, null), "countInRange");
+		}
+	}
+
+	private static void same(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new IllegalStateException(what + ": expected " + expected
+					+ " but was " + actual);
+		}
+	}
+}
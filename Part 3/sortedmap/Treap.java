@@ -18,13 +18,19 @@ import org.w3c.dom.Node;
  
 /**
  * Treap implementation, lots of code taken from E. Wang's AVL-g tree implementation.
+ * <p>
+ * Every change is made by splitting subtrees at a key and merging them back,
+ * rather than by rotations. Each node counts the nodes of its subtree, so the
+ * treap can be split in two, joined with another, have a whole range of keys
+ * cut out, or have a sorted run of mappings put into it, each without
+ * visiting the mappings one by one. The counts also give the rank of a key,
+ * the mapping at a rank and the number of keys in a range in O(log n).
  */
 public class Treap<K, V> extends AbstractMap<K, V> implements
         SortedMap<K, V> {
    
     private Comparator<? super K> comparator = null;
     private TreapNode<K, V> root = null;
-    private long size = 0;
     private int modCount = 0;
     private EntrySet entrySet = null;
     private KeySet keySet = null;
@@ -44,19 +50,15 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
 
     public void clear() {
         modCount++;
-        size = 0;
         root = null;
     }
 
     public boolean isEmpty() {
-        return size == 0;
+        return root == null;
     }
 
     public int size() {
-        if (size > Integer.MAX_VALUE)
-            return Integer.MAX_VALUE;
-        else
-            return (int) size;
+        return size(root);
     }
 
     public boolean containsKey(Object key) {
@@ -82,92 +84,348 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
     @Override
 	public V put(K key, V value) {
 		if (key == null || value == null) throw new NullPointerException();
-		TreapNode<K,V> curr = root;
-		if (curr == null) {
+		if (root == null) {
 			compare(key, key);  // type (and possibly null) check
-			root = new TreapNode<K,V>(key, value, comparator);
-			size = 1;
-			modCount++;
-			return null;
+		} else {
+			TreapNode<K,V> p = getNode(key);
+			if (p != null) return p.setValue(value);
 		}
-		int cmp;
-		
-		TreapNode<K,V> parent;
-		do {
-			parent = curr;
-			cmp = compare(key, curr.key);
-			if(cmp < 0){
-				curr = curr.left;
+		insert(new TreapNode<K,V>(key, value));
+		modCount++;
+		return null;
+	}
+
+	/**
+	 * Puts every mapping of a map into this treap. A run of keys in ascending
+	 * order, such as the mappings of a sorted map with the same ordering, is
+	 * built into a treap of its own in linear time and united with this one,
+	 * which takes O(m log(n/m)) for m mappings put into n; other maps are put
+	 * one mapping at a time.
+	 * 
+	 * @param map
+	 *            mappings to be put into this treap
+	 */
+	@Override
+	public void putAll(Map<? extends K, ? extends V> map) {
+		final int m = map.size();
+		if (m < 2) {
+			super.putAll(map);
+			return;
+		}
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		final TreapNode<K,V>[] run = new TreapNode[m];
+		int i = 0;
+		for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+			if (e.getKey() == null || e.getValue() == null)
+				throw new NullPointerException();
+			if (i > 0 && compare(run[i - 1].key, e.getKey()) >= 0) {
+				super.putAll(map);
+				return;
 			}
-			else if(cmp > 0){
-				curr = curr.right;
+			run[i++] = new TreapNode<K,V>(e.getKey(), e.getValue());
+		}
+		root = union(root, build(run), false, new Halves<K,V>());
+		root.parent = null;
+		modCount++;
+	}
+
+	/**
+	 * Splits this treap at a key. The mappings whose keys are not less than
+	 * the key are moved into a new treap with the same ordering, and the rest
+	 * are kept. Takes O(log n).
+	 * 
+	 * @param key
+	 *            least key of the mappings to be moved
+	 * @return treap of the mappings moved out of this one
+	 */
+	public Treap<K, V> splitAt(K key) {
+		if (key == null) throw new NullPointerException();
+		compare(key, key);  // type check
+		final Treap<K,V> tail = new Treap<K,V>(comparator);
+		final Halves<K,V> h = new Halves<K,V>();
+		split(root, key, false, h);
+		setRoot(h.left);
+		tail.setRoot(h.right);
+		modCount++;
+		return tail;
+	}
+
+	/**
+	 * Joins a treap onto the end of this one. Every key of the other treap
+	 * must be greater than every key of this one; its mappings are moved into
+	 * this treap, leaving it empty. Takes O(log n).
+	 * 
+	 * @param other
+	 *            treap whose mappings all come after those of this one
+	 * @throws IllegalArgumentException
+	 *             if the treaps overlap
+	 */
+	public void join(Treap<K, V> other) {
+		if (other == this || other.root == null) return;
+		if (root != null && compare(getLastNode().key, other.getFirstNode().key) >= 0)
+			throw new IllegalArgumentException("treaps overlap");
+		setRoot(merge(root, other.root));
+		other.clear();
+		modCount++;
+	}
+
+	/**
+	 * Removes every mapping whose key lies in a range, by detaching the
+	 * range as one subtree. Takes O(log n) however many mappings are removed.
+	 * 
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 */
+	public void removeRange(K fromKey, K toKey) {
+		if (fromKey != null && toKey != null && compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException();
+		final Halves<K,V> h = new Halves<K,V>();
+		TreapNode<K,V> head = null;
+		TreapNode<K,V> rest = root;
+		if (fromKey != null) {
+			split(rest, fromKey, false, h);
+			head = h.left;
+			rest = h.right;
+		}
+		TreapNode<K,V> tail = null;
+		if (toKey != null) {
+			split(rest, toKey, false, h);
+			tail = h.right;
+		}
+		setRoot(merge(head, tail));
+		modCount++;
+	}
+
+	/**
+	 * Gets the number of keys less than a key. Takes O(log n).
+	 * 
+	 * @param key
+	 *            key whose rank is wanted; need not be in this treap
+	 * @return number of keys in this treap less than the key
+	 */
+	public int rank(Object key) {
+		if (key == null) throw new NullPointerException();
+		int rank = 0;
+		TreapNode<K,V> p = root;
+		while (p != null) {
+			if (compare(key, p.key) <= 0) {
+				p = p.left;
+			} else {
+				rank += size(p.left) + 1;
+				p = p.right;
 			}
-			else {
-				return curr.setValue(value);
+		}
+		return rank;
+	}
+
+	/**
+	 * Gets the mapping with a given number of keys before it. Takes O(log n).
+	 * 
+	 * @param index
+	 *            rank of the mapping, from 0 to size() - 1
+	 * @return mapping at the rank
+	 * @throws IndexOutOfBoundsException
+	 *             if no mapping has the rank
+	 */
+	public Map.Entry<K, V> select(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		TreapNode<K,V> p = root;
+		while (true) {
+			final int left = size(p.left);
+			if (index < left) {
+				p = p.left;
+			} else if (index > left) {
+				index -= left + 1;
+				p = p.right;
+			} else {
+				return p;
 			}
-		} while (curr != null);	
-		TreapNode<K,V> e = new TreapNode<>(key, value, comparator);
-		e.parent = parent;
-		if (cmp < 0) parent.left = e;
-		else parent.right = e;
-		
-		while (e != null && e != root) {
-			if (e.parent.priority < e.priority){
-				if ( e.equals(e.parent.left)) {
-					e = e.parent;
-					rotateRight(e);
-				} 
-				else if ( e.equals(e.parent.right)){
-					e = e.parent;
-					rotateLeft(e);
-				}
-			} 
-			else{
-				e = e.parent;
+		}
+	}
+
+	/**
+	 * Gets the number of keys in a range. Takes O(log n).
+	 * 
+	 * @param fromKey
+	 *            low endpoint (inclusive) of the range, or null for no low
+	 *            endpoint
+	 * @param toKey
+	 *            high endpoint (exclusive) of the range, or null for no high
+	 *            endpoint
+	 * @return number of keys in the range
+	 */
+	public int countInRange(Object fromKey, Object toKey) {
+		final int count = (toKey == null ? size() : rank(toKey))
+				- (fromKey == null ? 0 : rank(fromKey));
+		return Math.max(count, 0);
+	}
+
+	/**
+	 * Puts a node holding a key not in this treap where its priority puts it:
+	 * in place of the first node on its search path with a lower priority,
+	 * whose subtree is split at its key into its two children.
+	 */
+	private void insert(TreapNode<K,V> e) {
+		TreapNode<K,V> parent = null;
+		TreapNode<K,V> curr = root;
+		boolean left = false;
+		while (curr != null && curr.priority >= e.priority) {
+			parent = curr;
+			left = compare(e.key, curr.key) < 0;
+			curr = left ? curr.left : curr.right;
+		}
+		final Halves<K,V> h = new Halves<K,V>();
+		split(curr, e.key, false, h);
+		e.left = h.left;
+		e.right = h.right;
+		update(e);
+		replace(parent, left, e);
+	}
+
+	/**
+	 * Hangs a subtree where a child of a node was, and counts it in the sizes
+	 * of the node and its ancestors.
+	 */
+	private void replace(TreapNode<K,V> parent, boolean left, TreapNode<K,V> t) {
+		if (parent == null) {
+			setRoot(t);
+			return;
+		}
+		if (left) parent.left = t;
+		else parent.right = t;
+		if (t != null) t.parent = parent;
+		for (TreapNode<K,V> p = parent; p != null; p = p.parent)
+			p.size = 1 + size(p.left) + size(p.right);
+	}
+
+	private void setRoot(TreapNode<K,V> t) {
+		root = t;
+		if (t != null) t.parent = null;
+	}
+
+	/** Holds the two halves of a split. */
+	private static final class Halves<K,V> {
+		TreapNode<K,V> left;
+		TreapNode<K,V> right;
+	}
+
+	/**
+	 * Splits a subtree at a key into the nodes with lesser keys (or lesser or
+	 * equal keys, if inclusive) and the rest.
+	 */
+	private void split(TreapNode<K,V> t, Object key, boolean inclusive, Halves<K,V> h) {
+		if (t == null) {
+			h.left = h.right = null;
+			return;
+		}
+		final int cmp = compare(t.key, key);
+		if (cmp < 0 || (inclusive && cmp == 0)) {
+			split(t.right, key, inclusive, h);
+			t.right = h.left;
+			update(t);
+			h.left = t;
+		} else {
+			split(t.left, key, inclusive, h);
+			t.left = h.right;
+			update(t);
+			h.right = t;
+		}
+	}
+
+	/**
+	 * Merges two subtrees, every key of the first coming before every key of
+	 * the second.
+	 */
+	private static <K,V> TreapNode<K,V> merge(TreapNode<K,V> a, TreapNode<K,V> b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		} else {
+			b.left = merge(a, b.left);
+			update(b);
+			return b;
+		}
+	}
+
+	/**
+	 * Unites two subtrees. Where both hold a key, the node of the first is
+	 * kept with the value of the second's, unless newFirst says the first is
+	 * the newer.
+	 */
+	private TreapNode<K,V> union(TreapNode<K,V> a, TreapNode<K,V> b, boolean newFirst,
+			Halves<K,V> h) {
+		if (a == null) return b;
+		if (b == null) return a;
+		if (a.priority < b.priority) {
+			final TreapNode<K,V> t = a;
+			a = b;
+			b = t;
+			newFirst = !newFirst;
+		}
+		split(b, a.key, false, h);
+		final TreapNode<K,V> less = h.left;
+		split(h.right, a.key, true, h);
+		if (h.left != null && !newFirst) a.value = h.left.value;
+		final TreapNode<K,V> greater = h.right;
+		a.left = union(a.left, less, newFirst, h);
+		a.right = union(a.right, greater, newFirst, h);
+		update(a);
+		return a;
+	}
+
+	/**
+	 * Builds a treap of nodes in ascending order of key in linear time, each
+	 * node going below the last node on the right spine with a higher
+	 * priority.
+	 */
+	private static <K,V> TreapNode<K,V> build(TreapNode<K,V>[] run) {
+		@SuppressWarnings({"rawtypes", "unchecked"})
+		final TreapNode<K,V>[] spine = new TreapNode[run.length];
+		int top = 0;
+		for (TreapNode<K,V> e : run) {
+			TreapNode<K,V> last = null;
+			while (top > 0 && spine[top - 1].priority < e.priority) {
+				last = spine[--top];
 			}
+			e.left = last;
+			if (top > 0) spine[top - 1].right = e;
+			spine[top++] = e;
 		}
-		size++;
-		modCount++;
-		return null;		
+		fix(spine[0]);
+		return spine[0];
 	}
-	
-	/** From CLR */
-	private void rotateLeft(TreapNode<K,V> p) {
-		if (p != null) {
-			TreapNode<K,V> r = p.right;
-            p.right = r.left;
-            if (r.left != null)
-                r.left.parent = p;
-            r.parent = p.parent;
-            if (p.parent == null)
-                root = r;
-            else if (p.parent.left == p)
-                p.parent.left = r;
-            else
-                p.parent.right = r;
-            r.left = p;
-            p.parent = r;
-        }
-	
+
+	/** Sets the parents and sizes of a subtree built without them. */
+	private static <K,V> void fix(TreapNode<K,V> t) {
+		if (t.left != null) fix(t.left);
+		if (t.right != null) fix(t.right);
+		update(t);
 	}
-			
-	/** From CLR */
-	private void rotateRight(TreapNode<K,V> p) {
-		 if (p != null) {
-			 TreapNode<K,V> l = p.left;
-	            p.left = l.right;
-	            if (l.right != null) l.right.parent = p;
-	            l.parent = p.parent;
-	            if (p.parent == null)
-	                root = l;
-	            else if (p.parent.right == p)
-	                p.parent.right = l;
-	            else p.parent.left = l;
-	            l.right = p;
-	            p.parent = l;
-	        }
+
+	/** Links the children of a node to it and counts its subtree. */
+	private static <K,V> void update(TreapNode<K,V> t) {
+		t.size = 1;
+		if (t.left != null) {
+			t.left.parent = t;
+			t.size += t.left.size;
+		}
+		if (t.right != null) {
+			t.right.parent = t;
+			t.size += t.right.size;
+		}
+	}
+
+	private static int size(TreapNode<?,?> t) {
+		return t == null ? 0 : t.size;
 	}
-	
 
     public K firstKey() {
         return key(getFirstNode());
@@ -240,41 +498,15 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         public TreapNode<K, V> left = null;
         public TreapNode<K, V> right = null;
         public TreapNode<K, V> parent = null;
-        Comparator<? super K> comparator;
+        private int size = 1;
         
-        TreapNode(K key, V value, Comparator<? super K> comp) {
+        TreapNode(K key, V value) {
             this.key = key;
             this.value = value;
             this.parent = null;
-            this.comparator = comp;
             priority = rand.nextInt();
         }
 
-        public V add(TreapNode<K, V> node) {
-            int cmp = compare(node.key, this.key);
-            if (cmp < 0) {
-                if (left == null) {
-                    left = node;
-                    left.parent = this;
-                    return null;
-                } else {
-                    V ret = this.left.add(node);
-                    return ret;
-                }
-            } else if (cmp > 0) {
-                if (right == null) {
-                    right = node;
-                    right.parent = this;
-                    return null;
-                } else {
-                    V ret = this.right.add(node);
-                    return ret;
-                }
-            } else {
-                return this.setValue(node.value);
-            }
-        }
-
         public int hashCode() {
             int keyHash = (key == null ? 0 : key.hashCode());
             int valueHash = (value == null ? 0 : value.hashCode());
@@ -311,12 +543,6 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
             return left == null && right == null;
         }
 
-        @SuppressWarnings({ "unchecked" })
-        private int compare(Object k1, Object k2) {
-            return comparator == null ? ((Comparable<? super K>) k1)
-                    .compareTo((K) k2) : comparator.compare((K) k1, (K) k2);
-        }
-
         public Node buildXmlNode(final Node parent) {
             final Element e = parent.getOwnerDocument().createElement("node");
             e.setAttribute("key", key.toString());
@@ -380,12 +606,32 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         return p;
     }
 
-    private final NodeIterator getNodeIterator() {
-        return new NodeIterator(getFirstNode());
+    /** Gets the node with the least key not less than a key. */
+    private final TreapNode<K, V> getCeilingNode(Object key) {
+        TreapNode<K, V> p = root;
+        TreapNode<K, V> ceiling = null;
+        while (p != null) {
+            if (compare(p.key, key) >= 0) {
+                ceiling = p;
+                p = p.left;
+            } else
+                p = p.right;
+        }
+        return ceiling;
     }
 
-    private final ReverseNodeIterator getReverseNodeIterator() {
-        return new ReverseNodeIterator(getLastNode());
+    /** Gets the node with the greatest key less than a key. */
+    private final TreapNode<K, V> getLowerNode(Object key) {
+        TreapNode<K, V> p = root;
+        TreapNode<K, V> lower = null;
+        while (p != null) {
+            if (compare(p.key, key) < 0) {
+                lower = p;
+                p = p.right;
+            } else
+                p = p.left;
+        }
+        return lower;
     }
 
     private static <K, V> TreapNode<K, V> successor(TreapNode<K, V> t) {
@@ -407,25 +653,6 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         }
     }
 
-    private static <K, V> TreapNode<K, V> predecessor(TreapNode<K, V> t) {
-        if (t == null)
-            return null;
-        else if (t.left != null) {
-            TreapNode<K, V> p = t.left;
-            while (p.right != null)
-                p = p.right;
-            return p;
-        } else {
-            TreapNode<K, V> p = t.parent;
-            TreapNode<K, V> ch = t;
-            while (p != null && ch == p.left) {
-                ch = p;
-                p = p.parent;
-            }
-            return p;
-        }
-    }  
-
     private static <K> K key(Map.Entry<K, ?> e) {
         if (e == null)
             throw new NoSuchElementException();
@@ -592,17 +819,6 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
             return e;
         }
 
-        final TreapNode<K, V> prevNode() {
-            TreapNode<K, V> e = next;
-            if (e == null)
-                throw new NoSuchElementException();
-            if (modCount != expectedModCount)
-                throw new ConcurrentModificationException();
-            next = predecessor(e);
-            lastReturned = e;
-            return e;
-        }
-
         public void remove() {
         	if (lastReturned == null) throw new IllegalStateException();
         	if (modCount != expectedModCount) throw new ConcurrentModificationException();
@@ -614,26 +830,6 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         }
     }
 
-    final class NodeIterator extends PrivateNodeIterator<TreapNode<K, V>> {
-        NodeIterator(TreapNode<K, V> first) {
-            super(first);
-        }
-
-        public TreapNode<K, V> next() {
-            return nextNode();
-        }
-    }
-
-    final class ReverseNodeIterator extends PrivateNodeIterator<TreapNode<K, V>> {
-        ReverseNodeIterator(TreapNode<K, V> last) {
-            super(last);
-        }
-
-        public TreapNode<K, V> next() {
-            return prevNode();
-        }
-    }
-
     final class EntryIterator extends PrivateNodeIterator<Map.Entry<K, V>> {
         EntryIterator(TreapNode<K, V> first) {
             super(first);
@@ -708,23 +904,8 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         }
 
         TreapNode<K, V> getFirstNode() {
-            if (low == null) {
-                TreapNode<K, V> first = m.getFirstNode();
-                if (compare(first.getKey(), high) < 0)
-                    return first;
-                else
-                    return null;
-            } else {
-                Iterator<TreapNode<K, V>> i = m.getNodeIterator();
-                TreapNode<K, V> e;
-                while (i.hasNext()) {
-                    e = i.next();
-                    int cmp = m.compare(e.getKey(), low);
-                    if (cmp >= 0)
-                        return e;
-                }
-                return null;
-            }
+            final TreapNode<K, V> first = low == null ? m.getFirstNode() : m.getCeilingNode(low);
+            return first == null || tooHigh(first.key) ? null : first;
         }
 
         public K lastKey() {
@@ -732,23 +913,12 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         }
 
         final Entry<K, V> getLastNode() {
-            if (high == null) {
-                TreapNode<K, V> last = m.getLastNode();
-                if (compare(last.getKey(), low) >= 0)
-                    return last;
-                else
-                    return null;
-            } else {
-                Iterator<TreapNode<K, V>> i = m.getReverseNodeIterator();
-                Entry<K, V> e;
-                while (i.hasNext()) {
-                    e = i.next();
-                    int cmp = m.compare(e.getKey(), high);
-                    if (cmp < 0)
-                        return e;
-                }
-                return null;
-            }
+            final TreapNode<K, V> last = high == null ? m.getLastNode() : m.getLowerNode(high);
+            return last == null || tooLow(last.key) ? null : last;
+        }
+
+        public void clear() {
+            m.removeRange(low, high);
         }
 
         public Set<Map.Entry<K, V>> entrySet() {
@@ -859,13 +1029,7 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
             }
 
             public int size() {
-                int size = 0;
-                Iterator<Entry<K, V>> i = iterator();
-                while (i.hasNext()) {
-                    size++;
-                    i.next();
-                }
-                return size;
+                return m.countInRange(low, high);
             }
 
             @SuppressWarnings("unchecked")
@@ -950,52 +1114,18 @@ public class Treap<K, V> extends AbstractMap<K, V> implements
         return oldValue;
 	}
 	
+	/**
+	 * Unlinks a node, merging its two subtrees in its place. Other nodes stay
+	 * where they are in memory, so an iterator's next node is still valid.
+	 */
 	private void deleteEntry(TreapNode<K,V> curr) {
 		if (curr == null) return;
-		if ( curr.left == null && curr.right == null){
-			modCount++;
-			size--;
-			//System.out.println("Eventually:" + curr.key);
-			if(curr.parent == null){
-				//System.out.println("A");
-				root = null;
-				curr = null;
-			}
-			else {
-				//System.out.println("B");
-				if(curr.parent.left == curr){
-					
-					curr = curr.parent;
-					curr.left = null;
-				}
-				else {
-					curr = curr.parent;
-					curr.right = null;
-				}
-				
-			}
-		}
-		else {
-			if(curr.left == null) {
-				rotateLeft(curr);
-				deleteEntry(curr);
-			}
-			else if(curr.right == null) {
-				rotateRight(curr);
-				deleteEntry(curr);
-			}
-			// Match found, two children
-			else if( curr.left.priority < curr.right.priority ) {
-				rotateLeft(curr);
-				deleteEntry(curr);
-			} 
-			else {
-				rotateRight(curr);
-				deleteEntry(curr);
-			}
-		}
-
-    }
+		final TreapNode<K,V> parent = curr.parent;
+		final TreapNode<K,V> t = merge(curr.left, curr.right);
+		replace(parent, parent != null && parent.left == curr, t);
+		curr.left = curr.right = curr.parent = null;
+		modCount++;
+	}
 	
 	public void printTree ( Treap<K, V> t){
 		printTree(t.root);
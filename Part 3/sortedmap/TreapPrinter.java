@@ -0,0 +1,39 @@
+package cmsc420.sortedmap;
+
+import java.util.SortedMap;
+
+import org.w3c.dom.Node;
+
+/**
+ * Prints the structure of the treaps in this package as XML, for the
+ * printTreap command. The dictionary interfaces stay free of any output
+ * format; each treap describes its own nodes.
+ */
+public final class TreapPrinter {
+
+	private TreapPrinter() {
+	}
+
+	/**
+	 * Appends a treap element describing the nodes of a treap.
+	 * 
+	 * @param treap
+	 *            treap to describe
+	 * @param parent
+	 *            node the description is appended to
+	 * @throws IllegalArgumentException
+	 *             if the map is not one of the treaps of this package
+	 */
+	public static void createXml(final SortedMap<?, ?> treap, final Node parent) {
+		if (treap instanceof PersistentTreap) {
+			((PersistentTreap<?, ?>) treap).createXml(parent);
+		} else if (treap instanceof ArrayTreap) {
+			((ArrayTreap<?, ?>) treap).createXml(parent);
+		} else if (treap instanceof Treap) {
+			((Treap<?, ?>) treap).createXml(parent);
+		} else {
+			throw new IllegalArgumentException("not a treap: "
+					+ treap.getClass().getName());
+		}
+	}
+}
@@ -0,0 +1,652 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import cmsc420.exception.ViolatesPMRulesException;
+import cmsc420.structure.City;
+
+/**
+ * PM Quadtree keeping its nodes in flat arrays indexed by node id instead of
+ * as node objects. An internal node is only the ids of its four children:
+ * its region is worked out from the region of its parent on the way down, the
+ * same way InternalNode lays out its quadrants, so no origins or rectangles
+ * are stored. A leaf is its city and the sorted ids of its roads. The slots
+ * of removed nodes go on a free list and are given to the next nodes made.
+ * <p>
+ * Nodes are split and merged exactly as the node objects split and merge
+ * them, so the tree has the same shape and every command gives the same
+ * output. getRoot builds node objects from the arrays as they are visited;
+ * they are read-only and only valid until the tree is next changed.
+ */
+@SuppressWarnings("serial")
+public class CompactPMQuadtree extends PMQuadtree {
+
+	/** id standing for an empty node */
+	private static final int EMPTY = -1;
+
+	/** roads of a leaf that has none */
+	private static final int[] NO_ROADS = new int[0];
+
+	/** type of each slot: Node.LEAF, Node.INTERNAL, or Node.EMPTY if free */
+	private byte[] types;
+
+	/** ids of the children of each internal node, four to a node */
+	private int[] children;
+
+	/** city of each leaf, or null */
+	private City[] leafCities;
+
+	/** ids of the roads of each leaf, sorted */
+	private int[][] leafRoads;
+
+	/** number of roads of each leaf */
+	private int[] numLeafRoads;
+
+	/** number of slots ever given out */
+	private int numSlots;
+
+	/** slots of removed nodes, to be given out again */
+	private int[] freeSlots;
+
+	/** number of slots waiting in freeSlots */
+	private int numFreeSlots;
+
+	/** id of the root node */
+	private int rootId;
+
+	/**
+	 * Constructs an empty PM Quadtree.
+	 */
+	public CompactPMQuadtree() {
+		super();
+		resetSlots();
+	}
+
+	/**
+	 * Gets the root node of the PM Quadtree. The nodes are built from the
+	 * arrays as they are visited and must not be kept past the next change.
+	 *
+	 * @return root node of the PM Quadtree
+	 */
+	public Node getRoot() {
+		return view(rootId, spatialOrigin.x, spatialOrigin.y, spatialWidth,
+				spatialHeight);
+	}
+
+	/**
+	 * Whether the PM Quadtree has zero or more elements.
+	 *
+	 * @return <code>true</code> if the PM Quadtree has no non-empty nodes.
+	 *         Otherwise returns <code>false</code>
+	 */
+	public boolean isEmpty() {
+		return rootId == EMPTY;
+	}
+
+	protected void collect(Line2D.Float segment, HashSet<Road> nearbyRoads) {
+		collect(rootId, segment, spatialOrigin.x, spatialOrigin.y, spatialWidth,
+				spatialHeight, nearbyRoads);
+	}
+
+	protected void insertCity(City city) throws ViolatesPMRulesException {
+		modCount++;
+		rootId = addCity(rootId, city, spatialOrigin.x, spatialOrigin.y,
+				spatialWidth, spatialHeight);
+	}
+
+	protected void insertRoad(Road road, Line2D.Float segment)
+			throws ViolatesPMRulesException {
+		modCount++;
+		rootId = addRoad(rootId, road, segment, spatialOrigin.x,
+				spatialOrigin.y, spatialWidth, spatialHeight);
+	}
+
+	protected void deleteCity(City city) {
+		modCount++;
+		rootId = removeCity(rootId, city, spatialOrigin.x, spatialOrigin.y,
+				spatialWidth, spatialHeight);
+	}
+
+	protected void deleteRoad(Road road) {
+		modCount++;
+		rootId = removeRoad(rootId, road, null, spatialOrigin.x,
+				spatialOrigin.y, spatialWidth, spatialHeight);
+	}
+
+	protected void trimRoad(Road road) {
+		modCount++;
+		rootId = removeRoad(rootId, road, road.getLine(), spatialOrigin.x,
+				spatialOrigin.y, spatialWidth, spatialHeight);
+	}
+
+	protected void clearNodes() {
+		modCount++;
+		resetSlots();
+	}
+
+	protected void buildNodes(List<City> nodeCities, List<Road> nodeRoads)
+			throws ViolatesPMRulesException {
+		final int built = build(new NodeContents(nodeCities, nodeRoads),
+				spatialOrigin.x, spatialOrigin.y, spatialWidth, spatialHeight);
+		modCount++;
+		freeSubtree(rootId);
+		rootId = built;
+	}
+
+	/**
+	 * Gets the x coordinate of the origin of a quadrant, laid out as in
+	 * InternalNode: top left, top right, bottom left, bottom right.
+	 */
+	private static float childX(float x, int quadrant, int half) {
+		return (quadrant & 1) == 0 ? x : x + half;
+	}
+
+	/**
+	 * Gets the y coordinate of the origin of a quadrant.
+	 */
+	private static float childY(float y, int quadrant, int half) {
+		return quadrant < 2 ? y + half : y;
+	}
+
+	/**
+	 * Returns if a city lies within a region, borders included, as
+	 * InternalNode.intersects decides it.
+	 */
+	private static boolean contains(float x, float y, int width, int height,
+			City city) {
+		final Point2D.Float location = city.getLocalPT();
+		return location.x >= x && location.x <= (double) x + width
+				&& location.y >= y && location.y <= (double) y + height;
+	}
+
+	private Node view(int node, float x, float y, int width, int height) {
+		if (node == EMPTY) {
+			return EmptyNode.instance;
+		} else if (types[node] == Node.LEAF) {
+			final LeafView leaf = new LeafView();
+			leaf.city = leafCities[node];
+			for (int i = 0; i < numLeafRoads[node]; i++) {
+				leaf.insertRoad(roads.get(leafRoads[node][i]));
+			}
+			return leaf;
+		} else {
+			try {
+				return new InternalView(node, x, y, width, height, order);
+			} catch (ViolatesPMRulesException e) {
+				/* the node was made with this region, so it can not be too small */
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	private void collect(int node, Line2D.Float segment, float x, float y,
+			int width, int height, HashSet<Road> nearbyRoads) {
+		if (node == EMPTY) {
+			return;
+		} else if (types[node] == Node.LEAF) {
+			if (segment.intersects(x, y, width, height)) {
+				for (int i = 0; i < numLeafRoads[node]; i++) {
+					nearbyRoads.add(roads.get(leafRoads[node][i]));
+				}
+			}
+		} else {
+			final int half = height / 2;
+			for (int i = 0; i < 4; i++) {
+				final float cx = childX(x, i, half);
+				final float cy = childY(y, i, half);
+				if (segment.intersects(cx, cy, half, half)) {
+					collect(children[4 * node + i], segment, cx, cy, half, half,
+							nearbyRoads);
+				}
+			}
+		}
+	}
+
+	private int addCity(int node, City city, float x, float y, int width,
+			int height) throws ViolatesPMRulesException {
+		if (node == EMPTY) {
+			return addCityToLeaf(newLeaf(), city, x, y, width, height);
+		} else if (types[node] == Node.LEAF) {
+			return addCityToLeaf(node, city, x, y, width, height);
+		}
+		final int half = height / 2;
+		for (int i = 0; i < 4; i++) {
+			final float cx = childX(x, i, half);
+			final float cy = childY(y, i, half);
+			if (contains(cx, cy, half, half, city)) {
+				/* the arrays may be replaced while the child is changed */
+				final int child = addCity(children[4 * node + i], city, cx, cy,
+						half, half);
+				children[4 * node + i] = child;
+			}
+		}
+		return node;
+	}
+
+	private int addCityToLeaf(int leaf, City newCity, float x, float y,
+			int width, int height) throws ViolatesPMRulesException {
+		final City city = leafCities[leaf];
+		if (city == newCity) {
+			return leaf;
+		} else if (city != null) {
+			/* node is full, partition node and then add city */
+			return split(leaf, x, y, width, height, city, newCity, null, null, null);
+		} else if (order == 3 || numLeafRoads[leaf] == 0
+				|| hasRoadEndingAt(leaf, newCity)) {
+			leafCities[leaf] = newCity;
+			return leaf;
+		} else {
+			return split(leaf, x, y, width, height, newCity, null, null, null, null);
+		}
+	}
+
+	private int addRoad(int node, Road road, Line2D.Float segment, float x,
+			float y, int width, int height) throws ViolatesPMRulesException {
+		if (node == EMPTY) {
+			return addRoadToLeaf(newLeaf(), road, segment, x, y, width, height);
+		} else if (types[node] == Node.LEAF) {
+			return addRoadToLeaf(node, road, segment, x, y, width, height);
+		}
+		final int half = height / 2;
+		for (int i = 0; i < 4; i++) {
+			final float cx = childX(x, i, half);
+			final float cy = childY(y, i, half);
+			if (segment.intersects(cx, cy, half, half)) {
+				final int child = addRoad(children[4 * node + i], road, segment,
+						cx, cy, half, half);
+				children[4 * node + i] = child;
+			}
+		}
+		return node;
+	}
+
+	private int addRoadToLeaf(int leaf, Road road, Line2D.Float segment,
+			float x, float y, int width, int height)
+			throws ViolatesPMRulesException {
+		if (indexOf(leaf, road.id) >= 0
+				|| !segment.intersects(x, y, width, height)) {
+			return leaf;
+		}
+		final City city = leafCities[leaf];
+		if (order == 3 || (city == null && numLeafRoads[leaf] == 0)
+				|| (city != null && road.hasEndpoint(city))) {
+			insertRoadId(leaf, road.id);
+			return leaf;
+		} else if (city == null) {
+			return split(leaf, x, y, width, height, null, null, null, road,
+					segment);
+		} else {
+			return split(leaf, x, y, width, height, city, null, road, null,
+					segment);
+		}
+	}
+
+	/**
+	 * Replaces a leaf by an internal node holding what the leaf held and
+	 * whatever is being added, in the order LeafNode adds them. The roads the
+	 * leaf held are added again along their own segments. If the internal
+	 * node can not be built it is dropped and the leaf is left as it was.
+	 *
+	 * @return id of the internal node
+	 */
+	private int split(int leaf, float x, float y, int width, int height,
+			City first, City second, Road before, Road after,
+			Line2D.Float segment) throws ViolatesPMRulesException {
+		final int[] ids = leafRoads[leaf];
+		final int n = numLeafRoads[leaf];
+		final int internal = newInternal(height);
+		try {
+			if (first != null) addCity(internal, first, x, y, width, height);
+			if (second != null) addCity(internal, second, x, y, width, height);
+			if (before != null) addRoad(internal, before, segment, x, y, width, height);
+			for (int i = 0; i < n; i++) {
+				final Road road = roads.get(ids[i]);
+				addRoad(internal, road, road.getLine(), x, y, width, height);
+			}
+			if (after != null) addRoad(internal, after, segment, x, y, width, height);
+		} catch (ViolatesPMRulesException e) {
+			freeSubtree(internal);
+			throw e;
+		}
+		freeSlot(leaf);
+		return internal;
+	}
+
+	private int build(NodeContents contents, float x, float y, int width,
+			int height) throws ViolatesPMRulesException {
+		if (contents.isEmpty()) {
+			return EMPTY;
+		} else if (contents.fitsInLeaf(order)) {
+			final int leaf = newLeaf();
+			leafCities[leaf] = contents.getCity();
+			for (int k = 0; k < contents.getNumRoads(); k++) {
+				insertRoadId(leaf, contents.getRoad(k).id);
+			}
+			return leaf;
+		}
+		final int internal = newInternal(height);
+		final int half = height / 2;
+		try {
+			for (int i = 0; i < 4; i++) {
+				final float cx = childX(x, i, half);
+				final float cy = childY(y, i, half);
+				contents.push(cx, cy, half, half);
+				final int child = build(contents, cx, cy, half, half);
+				children[4 * internal + i] = child;
+				contents.pop();
+			}
+		} catch (ViolatesPMRulesException e) {
+			freeSubtree(internal);
+			throw e;
+		}
+		return internal;
+	}
+
+	private int removeCity(int node, City city, float x, float y, int width,
+			int height) {
+		if (node == EMPTY) {
+			/* a city outside the square of the nodes is left out once it is split */
+			return EMPTY;
+		} else if (types[node] == Node.LEAF) {
+			if (leafCities[node] == city) {
+				leafCities[node] = null;
+				if (numLeafRoads[node] == 0) {
+					freeSlot(node);
+					return EMPTY;
+				}
+			}
+			return node;
+		}
+		final int half = height / 2;
+		for (int i = 0; i < 4; i++) {
+			final float cx = childX(x, i, half);
+			final float cy = childY(y, i, half);
+			if (children[4 * node + i] != EMPTY
+					&& contains(cx, cy, half, half, city)) {
+				children[4 * node + i] = removeCity(children[4 * node + i], city,
+						cx, cy, half, half);
+			}
+		}
+		return merge(node);
+	}
+
+	private int removeRoad(int node, Road road, Line2D.Float kept, float x,
+			float y, int width, int height) {
+		if (node == EMPTY) {
+			/* a road outside the square of the nodes is left out of them */
+			return EMPTY;
+		} else if (types[node] == Node.LEAF) {
+			if (kept != null && kept.intersects(x, y, width, height)) {
+				return node;
+			}
+			deleteRoadId(node, road.id);
+			if (leafCities[node] == null && numLeafRoads[node] == 0) {
+				freeSlot(node);
+				return EMPTY;
+			}
+			return node;
+		}
+		final int half = height / 2;
+		for (int i = 0; i < 4; i++) {
+			final float cx = childX(x, i, half);
+			final float cy = childY(y, i, half);
+			if (children[4 * node + i] != EMPTY
+					&& road.touches(new Rectangle2D.Float(cx, cy, half, half))) {
+				children[4 * node + i] = removeRoad(children[4 * node + i], road,
+						kept, cx, cy, half, half);
+			}
+		}
+		return merge(node);
+	}
+
+	/**
+	 * Collapses an internal node after a removal if everything left in its
+	 * region fits in a single leaf, as InternalNode.merge does.
+	 *
+	 * @return id of the node replacing the internal node
+	 */
+	private int merge(int node) {
+		if (children[4 * node] == EMPTY && children[4 * node + 1] == EMPTY
+				&& children[4 * node + 2] == EMPTY
+				&& children[4 * node + 3] == EMPTY) {
+			freeSlot(node);
+			return EMPTY;
+		}
+		final int leaf = newLeaf();
+		if (!gather(node, leaf) || !satisfiesPMRules(leaf)) {
+			freeSlot(leaf);
+			return node;
+		}
+		freeSubtree(node);
+		return leaf;
+	}
+
+	private boolean gather(int node, int leaf) {
+		if (node == EMPTY) {
+			return true;
+		} else if (types[node] == Node.LEAF) {
+			final City c = leafCities[node];
+			if (c != null && c != leafCities[leaf]) {
+				if (leafCities[leaf] != null) return false;
+				leafCities[leaf] = c;
+			}
+			for (int i = 0; i < numLeafRoads[node]; i++) {
+				insertRoadId(leaf, leafRoads[node][i]);
+			}
+			return leafCities[leaf] == null || satisfiesPMRules(leaf);
+		}
+		for (int i = 0; i < 4; i++) {
+			if (!gather(children[4 * node + i], leaf)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether a leaf may stay a leaf, as LeafNode.satisfiesPMRules
+	 * does.
+	 */
+	private boolean satisfiesPMRules(int leaf) {
+		if (order == 3) return true;
+		final City city = leafCities[leaf];
+		if (city == null) return numLeafRoads[leaf] <= 1;
+		for (int i = 0; i < numLeafRoads[leaf]; i++) {
+			if (!roads.get(leafRoads[leaf][i]).hasEndpoint(city)) return false;
+		}
+		return true;
+	}
+
+	private boolean hasRoadEndingAt(int leaf, City city) {
+		for (int i = 0; i < numLeafRoads[leaf]; i++) {
+			if (roads.get(leafRoads[leaf][i]).hasEndpoint(city)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Finds a road among the roads of a leaf.
+	 *
+	 * @return index of the road, or -(insertion point) - 1 if it is not there
+	 */
+	private int indexOf(int leaf, int id) {
+		return Arrays.binarySearch(leafRoads[leaf], 0, numLeafRoads[leaf], id);
+	}
+
+	private void insertRoadId(int leaf, int id) {
+		int index = indexOf(leaf, id);
+		if (index >= 0) {
+			return;
+		}
+		index = -(index + 1);
+		final int n = numLeafRoads[leaf];
+		int[] ids = leafRoads[leaf];
+		if (n == ids.length) {
+			final int[] grown = new int[n == 0 ? 2 : n * 2];
+			System.arraycopy(ids, 0, grown, 0, index);
+			System.arraycopy(ids, index, grown, index + 1, n - index);
+			ids = grown;
+			leafRoads[leaf] = ids;
+		} else {
+			System.arraycopy(ids, index, ids, index + 1, n - index);
+		}
+		ids[index] = id;
+		numLeafRoads[leaf] = n + 1;
+	}
+
+	private void deleteRoadId(int leaf, int id) {
+		final int index = indexOf(leaf, id);
+		if (index < 0) {
+			return;
+		}
+		final int n = --numLeafRoads[leaf];
+		if (n == 0) {
+			leafRoads[leaf] = NO_ROADS;
+		} else {
+			System.arraycopy(leafRoads[leaf], index + 1, leafRoads[leaf], index,
+					n - index);
+		}
+	}
+
+	private int newLeaf() {
+		final int leaf = allocate(Node.LEAF);
+		leafRoads[leaf] = NO_ROADS;
+		return leaf;
+	}
+
+	/**
+	 * Makes an internal node for a region of the given height, which must be
+	 * big enough to be split, as the InternalNode constructor requires.
+	 */
+	private int newInternal(int height) throws ViolatesPMRulesException {
+		if (height / 2 < 1) throw new ViolatesPMRulesException();
+		final int internal = allocate(Node.INTERNAL);
+		Arrays.fill(children, 4 * internal, 4 * internal + 4, EMPTY);
+		return internal;
+	}
+
+	private int allocate(int type) {
+		final int slot;
+		if (numFreeSlots > 0) {
+			slot = freeSlots[--numFreeSlots];
+		} else {
+			slot = numSlots++;
+			if (slot == types.length) {
+				final int capacity = slot * 2;
+				types = Arrays.copyOf(types, capacity);
+				children = Arrays.copyOf(children, 4 * capacity);
+				leafCities = Arrays.copyOf(leafCities, capacity);
+				leafRoads = Arrays.copyOf(leafRoads, capacity);
+				numLeafRoads = Arrays.copyOf(numLeafRoads, capacity);
+			}
+		}
+		types[slot] = (byte) type;
+		return slot;
+	}
+
+	private void freeSubtree(int node) {
+		if (node == EMPTY) {
+			return;
+		}
+		if (types[node] == Node.INTERNAL) {
+			for (int i = 0; i < 4; i++) {
+				freeSubtree(children[4 * node + i]);
+			}
+		}
+		freeSlot(node);
+	}
+
+	private void freeSlot(int slot) {
+		types[slot] = Node.EMPTY;
+		leafCities[slot] = null;
+		leafRoads[slot] = null;
+		numLeafRoads[slot] = 0;
+		if (numFreeSlots == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, numFreeSlots * 2);
+		}
+		freeSlots[numFreeSlots++] = slot;
+	}
+
+	private void resetSlots() {
+		types = new byte[16];
+		children = new int[64];
+		leafCities = new City[16];
+		leafRoads = new int[16][];
+		numLeafRoads = new int[16];
+		freeSlots = new int[16];
+		numSlots = 0;
+		numFreeSlots = 0;
+		rootId = EMPTY;
+	}
+
+	/**
+	 * Read-only internal node whose children are built when asked for.
+	 */
+	private class InternalView extends InternalNode {
+		/** id of the node */
+		private final int id;
+
+		InternalView(int id, float x, float y, int width, int height,
+				int order) throws ViolatesPMRulesException {
+			super(new Point2D.Float(x, y), width, height, order);
+			this.id = id;
+		}
+
+		public Node getChild(int quadrant) {
+			if (quadrant < 0 || quadrant > 3) {
+				throw new IllegalArgumentException();
+			}
+			return view(CompactPMQuadtree.this.children[4 * id + quadrant],
+					origins[quadrant].x, origins[quadrant].y, halfWidth,
+					halfHeight);
+		}
+
+		public Node addCity(City city, Point2D.Float origin, int width,
+				int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node addRoad(Road road, Line2D.Float segment,
+				Point2D.Float origin, int width, int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node removeCity(City city, Point2D.Float origin, int width,
+				int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node removeRoad(Road road, Line2D.Float kept,
+				Point2D.Float origin, int width, int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Read-only copy of a leaf.
+	 */
+	private static class LeafView extends LeafNode {
+		public Node addCity(City city, Point2D.Float origin, int width,
+				int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node addRoad(Road road, Line2D.Float segment,
+				Point2D.Float origin, int width, int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node removeCity(City city, Point2D.Float origin, int width,
+				int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+
+		public Node removeRoad(Road road, Line2D.Float kept,
+				Point2D.Float origin, int width, int height, int order) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
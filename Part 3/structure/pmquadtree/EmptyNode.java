@@ -1,9 +1,9 @@
 package cmsc420.structure.pmquadtree;
 
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.List;
 
 import cmsc420.exception.ViolatesPMRulesException;
 import cmsc420.structure.City;
@@ -30,19 +30,20 @@ public class EmptyNode extends Node implements Serializable{
 
 	public Node removeCity(City city, Point2D.Float origin, int width,
 			int height, int order) {
-		/* should never get here, nothing to remove */
-		throw new IllegalArgumentException();
+		/* a city outside the square of the nodes is left out once it is split */
+		return this;
 	}
 
-	public Node addRoad(City start, City end, Point2D.Float origin, int width, int height, int order)
-			throws ViolatesPMRulesException {
+	public Node addRoad(Road road, Line2D.Float segment, Point2D.Float origin, int width,
+			int height, int order) throws ViolatesPMRulesException {
 		Node leafNode = new LeafNode();
-		return leafNode.addRoad(start, end, origin, width, height, order);
+		return leafNode.addRoad(road, segment, origin, width, height, order);
 	}
 
-	public Node removeRoad(City start, City end, Point2D.Float origin, int width, int height, int order) {
-		/* should never get here, nothing to remove */
-		throw new IllegalArgumentException();
+	public Node removeRoad(Road road, Line2D.Float kept, Point2D.Float origin,
+			int width, int height, int order) {
+		/* a road outside the square of the nodes is left out of them */
+		return this;
 	}
 
 	@Override
@@ -52,7 +53,7 @@ public class EmptyNode extends Node implements Serializable{
 	}
 
 	@Override
-	public TreeSet<ArrayList<City>> getRoads() {
+	public List<Road> getRoads() {
 		/* should never get here, nothing to remove */
 		throw new IllegalArgumentException();
 	}
@@ -1,17 +1,13 @@
 package cmsc420.structure.pmquadtree;
 
  
-import java.awt.Color;  
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.TreeSet;
+import java.util.List;
 
 import cmsc420.exception.ViolatesPMRulesException;
 import cmsc420.structure.City;
-import cmsc420.utils.*;
 
 
 /**
@@ -93,11 +89,6 @@ public class InternalNode extends Node {
 					halfWidth, halfHeight);
 			i++;
 		}
-
-		/* add a cross to the drawing panel */
-		if (Canvas.instance != null) {
-            Canvas.instance.addCross(getCenterX(), getCenterY(), halfWidth, Color.GRAY);
-		}
 	}
 
 	public Node addCity(City city, Point2D.Float origin, int width, int height, int order) 
@@ -113,151 +104,94 @@ public class InternalNode extends Node {
 	}
 	
 	@Override
-	public Node addRoad(City start, City end, Point2D.Float origin, int width, int height, int order) 
-			throws ViolatesPMRulesException {
-		Line2D.Float road = new Line2D.Float(start.getLocalX(), start.getLocalY(), 
-				end.getLocalX(),end.getLocalY());
+	public Node addRoad(Road road, Line2D.Float segment, Point2D.Float origin, int width,
+			int height, int order) throws ViolatesPMRulesException {
 		for (int i = 0; i < 4; i++) {
-			if (road.intersects(regions[i])) {
-				children[i] = children[i].addRoad(start, end, origins[i], halfWidth,
+			if (segment.intersects(regions[i])) {
+				children[i] = children[i].addRoad(road, segment, origins[i], halfWidth,
 						halfHeight, order);
 			}
 		}
 		return this;
 	}
 	
-	public Node removeCity ( City city, Point2D.Float origin, int width,
+	public Node removeCity(City city, Point2D.Float origin, int width,
 			int height, int order) {
-		HashSet<City> cities = new HashSet<City>();
-		HashSet<ArrayList<City>> roads = new HashSet<ArrayList<City>>();
-		
-		/* initialize canvas */
-		Canvas.instance.setFrameSize(width, height);
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, (width > height) ? 
-				width : height, 
-				(width > height) ? width :
-					height, Color.WHITE, true);
-		Canvas.instance.addRectangle(0, 0, width, height, Color.BLACK,
-				false);
-		
-		Node root = EmptyNode.instance;
-	
-		removeCityHelper(this, city, origin, width, height, order, cities, roads);
-		
-		try {
-			for (City c : cities){
-//				if(root.getType() == Node.EMPTY) System.out.println("it is empty");
-//				System.out.println(c.getName());
-				root = root.addCity(c, origin, width, height, order);
-				
-				Canvas.instance.addPoint(c.getName(), c.getLocalX(), c.getLocalY(), Color.GRAY);
-			}
-			for (ArrayList<City> r : roads){
-//				if(root.getType() == Node.EMPTY) System.out.println("it is empty");
-//				System.out.println(r.get(0).getName() + " - " + r.get(1).getName());
-				root = root.addRoad(r.get(0), r.get(1),origin, this.width, this.height, order);
-				Canvas.instance.addLine(r.get(0).getLocalX(), r.get(0).getLocalY(), r.get(1).getLocalX(),
-						r.get(1).getLocalY(), Color.GRAY);
+		final Point2D cityLocation = city.localtoPoint2D();
+		for (int i = 0; i < 4; i++) {
+			if (children[i].getType() != Node.EMPTY 
+					&& intersects(cityLocation, regions[i])) {
+				children[i] = children[i].removeCity(city, origins[i], halfWidth,
+						halfHeight, order);
 			}
-			return root;
-		} catch (ViolatesPMRulesException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
 		}
-		/* Should never get there */
-		return null;
+		return merge();
 	}
-
-	public void removeCityHelper(InternalNode curr, City city, Point2D.Float origin, int width,
-			int height, int order, HashSet<City> cities, HashSet<ArrayList<City>> roads) {
-		//final Point2D cityLocation = city.localtoPoint2D();
-		 
+	
+	@Override
+	public Node removeRoad(Road road, Line2D.Float kept, Point2D.Float origin,
+			int width, int height, int order) {
 		for (int i = 0; i < 4; i++) {
-			if(curr.children[i].getType() == Node.LEAF) {
-				curr.children[i] = curr.children[i].removeCity(city, curr.origins[i],
-						width/2, height/2, order);
-				if(curr.children[i].getType() == Node.LEAF){
-					if(curr.children[i].getCity() != null) cities.add(curr.children[i].getCity());
-					if(! curr.children[i].getRoads().isEmpty()){
-						for(ArrayList<City> road : curr.children[i].getRoads() ){
-							roads.add(road);
-						}
-					}
-				}
+			if (children[i].getType() != Node.EMPTY && road.touches(regions[i])) {
+				children[i] = children[i].removeRoad(road, kept, origins[i],
+						halfWidth, halfHeight, order);
 			}
-			if (curr.children[i].getType() == Node.INTERNAL) removeCityHelper((InternalNode)curr.children[i], 
-					city, curr.origins[i], width/2, height/2, order,cities,roads);
 		}
-		
+		return merge();
 	}
 	
-	public Node removeRoad (City start, City end, Point2D.Float origin, int width,
-			int height, int order) {
-		HashSet<City> cities = new HashSet<City>();
-		HashSet<ArrayList<City>> roads = new HashSet<ArrayList<City>>();
-		/* initialize canvas */
-		Canvas.instance.setFrameSize(width, height);
-		/* add a rectangle to show where the bounds of the map are located */
-		Canvas.instance.addRectangle(0, 0, (width > height) ? 
-				width : height, 
-				(width > height) ? width :
-					height, Color.WHITE, true);
-		Canvas.instance.addRectangle(0, 0, width, height, Color.BLACK,
-				false);
-		
-		Node root = EmptyNode.instance;
-	
-		removeRoadHelper(this, start, end, origin, width, height, order, cities, roads);
+	/**
+	 * Collapses this internal node after a removal if everything left in its
+	 * region fits in a single leaf under the PM rules of its order. Only the
+	 * nodes along the removal path are ever asked to merge, so a removal costs
+	 * the depth of the tree plus the size of the quadrants being merged.
+	 * 
+	 * @return this node if it still has to be partitioned, otherwise the
+	 *         leaf (or empty node) replacing it
+	 */
+	protected Node merge() {
+		if (getNumEmptyNodes() == 4) {
+			return EmptyNode.instance;
+		}
 		
-		try {
-			for (City c : cities){
-//				if(root.getType() == Node.EMPTY) System.out.println("it is empty");
-//				System.out.println(c.getName());
-				root = root.addCity(c, origin, width, height, order);
-				Canvas.instance.addPoint(c.getName(), c.getLocalX(), c.getLocalY(), Color.GRAY);
-			}
-			for (ArrayList<City> r : roads){
-//				if(root.getType() == Node.EMPTY) System.out.println("it is empty");
-//				System.out.println(r.get(0).getName() + " - " + r.get(1).getName());
-				root = root.addRoad(r.get(0), r.get(1),origin, width, height, order);
-				Canvas.instance.addLine(r.get(0).getLocalX(), r.get(0).getLocalY(), r.get(1).getLocalX(),
-						r.get(1).getLocalY(), Color.GRAY);
-			}
-			return root;
-		} catch (ViolatesPMRulesException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		final LeafNode leaf = new LeafNode();
+		if (!gather(this, leaf) || !leaf.satisfiesPMRules(order)) {
+			return this;
 		}
-		/* Should never get there */
-		return null;
 		
+		return leaf;
 	}
-
-	public void removeRoadHelper(InternalNode curr, City start, City end, Point2D.Float origin, int width,
-			int height, int order, HashSet<City> cities, HashSet<ArrayList<City>> roads) {
-		//final Point2D cityLocation = city.localtoPoint2D();
-		 
-		for (int i = 0; i < 4; i++) {
-			if(curr.children[i].getType() == Node.LEAF) {
-				curr.children[i] = curr.children[i].removeRoad(start, end, curr.origins[i],
-						width/2, height/2, order);
-				if(curr.children[i].getType() == Node.LEAF){
-					if(curr.children[i].getCity() != null) cities.add(curr.children[i].getCity());
-					if(! curr.children[i].getRoads().isEmpty()){
-						for(ArrayList<City> road : curr.children[i].getRoads() ){
-							roads.add(road);
-						}
-					}
-				}
+	
+	/**
+	 * Collects the city and roads of a subtree into a single leaf. Stops as soon
+	 * as the subtree is known to hold more than the leaf is allowed to.
+	 * 
+	 * @param node
+	 *            root of the subtree being collected
+	 * @param leaf
+	 *            leaf receiving the city and roads
+	 * @return false if the subtree can not be merged into one leaf
+	 */
+	private boolean gather(Node node, LeafNode leaf) {
+		if (node.getType() == Node.LEAF) {
+			final City c = node.getCity();
+			if (c != null && c != leaf.city) {
+				if (leaf.city != null) return false;
+				leaf.city = c;
+			}
+			for (Road road : node.getRoads()) {
+				leaf.insertRoad(road);
+			}
+			return leaf.city == null || leaf.satisfiesPMRules(order);
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				if (!gather(internal.children[i], leaf)) return false;
 			}
-			if (curr.children[i].getType() == Node.INTERNAL) removeRoadHelper((InternalNode)curr.children[i], 
-					start, end, curr.origins[i], width/2, height/2, order,cities,roads);
 		}
-		
+		return true;
 	}
 	
-	
 	/**
 	 * Returns if a point lies within a given rectangular bounds according to
 	 * the rules of the PR Quadtree.
@@ -388,7 +322,7 @@ public class InternalNode extends Node {
 	}
 
 	@Override
-	public TreeSet<ArrayList<City>> getRoads() {
+	public List<Road> getRoads() {
 		/* should never get here, nothing to remove */
 		throw new IllegalArgumentException();
 	}
@@ -1,12 +1,12 @@
 package cmsc420.structure.pmquadtree;
 
+import java.awt.geom.Line2D;
 import java.awt.geom.Point2D; 
 
-import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.TreeSet;
-import java.awt.geom.Line2D;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
 
 import cmsc420.exception.ViolatesPMRulesException;
 import cmsc420.structure.City;
@@ -14,14 +14,23 @@ import cmsc420.structure.City;
 
 /**
  * Represents a leaf node of a PM Quadtree.
+ * <p>
+ * Most leaves hold one or two roads, so the roads are kept in an array sorted
+ * by id rather than a set. The array starts out shared and empty and only
+ * grows when a road would not fit.
  */
 @SuppressWarnings("serial")
 public class LeafNode extends Node implements Serializable {
 	
 	/** city contained within this leaf node */
 	protected City city;
-	/** roads contained within this leaf node */
-	protected TreeSet<ArrayList<City>> roads;
+	/** roads contained within this leaf node, sorted by id */
+	protected Road[] roads;
+	/** number of roads contained within this leaf node */
+	protected int numRoads;
+
+	/** roads of a leaf that has none */
+	private static final Road[] NO_ROADS = new Road[0];
 
 	/**
 	 * Constructs and initializes a leaf node.
@@ -29,7 +38,7 @@ public class LeafNode extends Node implements Serializable {
 	public LeafNode() {
 		super(Node.LEAF);
 		this.city = null;
-		this.roads = new TreeSet<ArrayList<City>>(new StartEndComparator());
+		this.roads = NO_ROADS;
 	}
 
 	/**
@@ -42,12 +51,110 @@ public class LeafNode extends Node implements Serializable {
 	}
 	
 	/**
-	 * Gets the city contained by this node.
+	 * Gets the roads contained by this node.
 	 * 
-	 * @return city contained by this node
+	 * @return roads contained by this node, in order of id
+	 */
+	public List<Road> getRoads() {
+		return new RoadList();
+	}
+
+	/**
+	 * Finds a road among the roads of this leaf.
+	 * 
+	 * @param road
+	 *            road to find
+	 * @return index of the road, or -(insertion point) - 1 if it is not here
+	 */
+	private int indexOf(Road road) {
+		int low = 0;
+		int high = numRoads - 1;
+		while (low <= high) {
+			final int mid = (low + high) >>> 1;
+			final int id = roads[mid].id;
+			if (id < road.id) {
+				low = mid + 1;
+			} else if (id > road.id) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Returns if a road is contained by this leaf.
+	 * 
+	 * @param road
+	 *            road to be checked
+	 * @return true if the road is here
+	 */
+	protected boolean containsRoad(Road road) {
+		return indexOf(road) >= 0;
+	}
+
+	/**
+	 * Adds a road to this leaf, growing the array if it is full.
+	 * 
+	 * @param road
+	 *            road to be added
+	 */
+	protected void insertRoad(Road road) {
+		int index = indexOf(road);
+		if (index >= 0) {
+			return;
+		}
+		index = -(index + 1);
+		if (numRoads == roads.length) {
+			final Road[] grown = new Road[numRoads == 0 ? 2 : numRoads * 2];
+			System.arraycopy(roads, 0, grown, 0, index);
+			System.arraycopy(roads, index, grown, index + 1, numRoads - index);
+			roads = grown;
+		} else {
+			System.arraycopy(roads, index, roads, index + 1, numRoads - index);
+		}
+		roads[index] = road;
+		numRoads++;
+	}
+
+	/**
+	 * Removes a road from this leaf. The array is dropped once it is empty.
+	 * 
+	 * @param road
+	 *            road to be removed
 	 */
-	public TreeSet<ArrayList<City>> getRoads() {
-		return roads;
+	protected void deleteRoad(Road road) {
+		final int index = indexOf(road);
+		if (index < 0) {
+			return;
+		}
+		numRoads--;
+		if (numRoads == 0) {
+			roads = NO_ROADS;
+		} else {
+			System.arraycopy(roads, index + 1, roads, index, numRoads - index);
+			roads[numRoads] = null;
+		}
+	}
+
+	/**
+	 * Checks whether the contents of this leaf are allowed in a single leaf of
+	 * a PM Quadtree of the given order. A PM3 leaf holds at most one city and
+	 * any number of roads, otherwise a leaf holds either a single road or one
+	 * city together with roads incident to that city.
+	 * 
+	 * @param order
+	 *            order of the PM Quadtree
+	 * @return true if the leaf does not need to be partitioned
+	 */
+	protected boolean satisfiesPMRules(int order) {
+		if (order == 3) return true;
+		if (city == null) return numRoads <= 1;
+		for (int i = 0; i < numRoads; i++) {
+			if (!roads[i].hasEndpoint(city)) return false;
+		}
+		return true;
 	}
 
 	public Node addCity(City newCity, Point2D.Float origin, int width,
@@ -68,8 +175,8 @@ public class LeafNode extends Node implements Serializable {
 					internalNode.addCity(city, origin, width, height, order);
 					internalNode.addCity(newCity, origin, width, height, order);
 			
-					for(ArrayList<City> road : roads){
-						internalNode.addRoad(road.get(0), road.get(1), origin, width, height, order);
+					for(Road road : getRoads()){
+						internalNode.addRoad(road, road.getLine(), origin, width, height, order);
 					}
 			
 					return internalNode;
@@ -79,14 +186,14 @@ public class LeafNode extends Node implements Serializable {
 		else {
 			if (city == null ) {
 				/* node is empty, add city */
-				if(roads.isEmpty()) {
+				if(numRoads == 0) {
 					city = newCity;
 					return this;
 				}
 				else {
 					boolean check = false;
-					for(ArrayList<City> road : roads){
-						if(road.get(0) == newCity || road.get(1) == newCity){
+					for(Road road : getRoads()){
+						if(road.hasEndpoint(newCity)){
 							check = true;
 						}
 					}
@@ -98,8 +205,8 @@ public class LeafNode extends Node implements Serializable {
 						InternalNode internalNode = new InternalNode(origin, width,
 								height, order);
 						internalNode.addCity(newCity, origin, width, height, order);
-						for(ArrayList<City> road : roads){
-							internalNode.addRoad(road.get(0), road.get(1), origin, width, height, order);
+						for(Road road : getRoads()){
+							internalNode.addRoad(road, road.getLine(), origin, width, height, order);
 						}
 			
 						return internalNode;
@@ -118,8 +225,8 @@ public class LeafNode extends Node implements Serializable {
 					internalNode.addCity(city, origin, width, height, order);
 					internalNode.addCity(newCity, origin, width, height, order);
 			
-					for(ArrayList<City> road : roads){
-						internalNode.addRoad(road.get(0), road.get(1), origin, width, height, order);
+					for(Road road : getRoads()){
+						internalNode.addRoad(road, road.getLine(), origin, width, height, order);
 				}
 			
 				return internalNode;
@@ -131,89 +238,50 @@ public class LeafNode extends Node implements Serializable {
 	}
 	
 	@Override
-	public Node addRoad(City start, City end, Point2D.Float origin, int width, int height, int order) 
-			throws ViolatesPMRulesException {
-		Line2D.Float road = new Line2D.Float(start.getLocalX(), start.getLocalY(), 
-				end.getLocalX(), end.getLocalY());
-		Rectangle2D.Float rec = new Rectangle2D.Float(origin.x, origin.y, width, height);
-		ArrayList<City> cities1 =  new ArrayList<City>();
-		cities1.add(start);
-		cities1.add(end);
-		ArrayList<City> cities2 =  new ArrayList<City>();
-		cities2.add(end);
-		cities2.add(start);
-		
-		if(roads.contains(cities1) || roads.contains(cities2)){
+	public Node addRoad(Road road, Line2D.Float segment, Point2D.Float origin, int width,
+			int height, int order) throws ViolatesPMRulesException {
+		if(containsRoad(road)){
 			return this;
 		}
 		
+		final boolean intersects = segment.intersects(origin.x, origin.y, width, height);
 		if(order == 3){
-			if (road.intersects(rec)) {
-				ArrayList<City> cities =  new ArrayList<City>();
-				if(start.getName().compareTo(end.getName()) < 0){
-					cities.add(start);
-					cities.add(end);
-				}
-				else {
-					cities.add(end);
-					cities.add(start);
-				}
-			
-				roads.add(cities);	
+			if (intersects) {
+				insertRoad(road);	
 			}
 			return this;
 		}
 		else {
-			if (road.intersects(rec)) {
+			if (intersects) {
 				if(city == null){
-					if(roads.isEmpty()){
-						ArrayList<City> cities =  new ArrayList<City>();
-						if(start.getName().compareTo(end.getName()) < 0){
-							cities.add(start);
-							cities.add(end);
-						}
-						else {
-							cities.add(end);
-							cities.add(start);
-						}
-						roads.add(cities);
+					if(numRoads == 0){
+						insertRoad(road);
 						return this;
 					}
 					else{
 						InternalNode internalNode = new InternalNode(origin, width,
 								height, order);
 		
-						for(ArrayList<City> r : roads){
-							internalNode.addRoad(r.get(0), r.get(1), origin, width, height, order);
+						for(Road r : getRoads()){
+							internalNode.addRoad(r, r.getLine(), origin, width, height, order);
 						}
 						
-						internalNode.addRoad(start, end, origin, width, height, order);
+						internalNode.addRoad(road, segment, origin, width, height, order);
 						return internalNode;
 					}
 				}
-				else if (city != null && (city == start || city == end) ){
-				
-					ArrayList<City> cities =  new ArrayList<City>();
-					if(start.getName().compareTo(end.getName()) < 0){
-						cities.add(start);
-						cities.add(end);
-					}
-					else {
-						cities.add(end);
-						cities.add(start);
-					}
-			
-					roads.add(cities);
+				else if (road.hasEndpoint(city)){
+					insertRoad(road);
 					return this;
 				}
 				else {
 					InternalNode internalNode = new InternalNode(origin, width,
 							height, order);
 					internalNode.addCity(city, origin, width, height, order);
-					internalNode.addRoad(start, end, origin, width, height, order);
+					internalNode.addRoad(road, segment, origin, width, height, order);
 				
-					for(ArrayList<City> r : roads){
-						internalNode.addRoad(r.get(0), r.get(1), origin, width, height, order);
+					for(Road r : getRoads()){
+						internalNode.addRoad(r, r.getLine(), origin, width, height, order);
 					}
 				
 					return internalNode;
@@ -229,7 +297,7 @@ public class LeafNode extends Node implements Serializable {
 			int height, int order) {
 		if (this.city != null && this.city == city) {
 			this.city = null;
-			if (this.city == null && roads.isEmpty()) return EmptyNode.instance;
+			if (this.city == null && numRoads == 0) return EmptyNode.instance;
 			else return this;
 		}
 		return this;
@@ -238,16 +306,29 @@ public class LeafNode extends Node implements Serializable {
 	
 	
 	@Override
-	public Node removeRoad(City start, City end, Point2D.Float origin, int width, int height, int order) {
-		ArrayList<City> cities =  new ArrayList<City>();
-		cities.add(start);
-		cities.add(end);
-		roads.remove(cities);
-		cities =  new ArrayList<City>();
-		cities.add(end);
-		cities.add(start);
-		roads.remove(cities);
-		if (this.city == null && roads.isEmpty()) return EmptyNode.instance;
+	public Node removeRoad(Road road, Line2D.Float kept, Point2D.Float origin,
+			int width, int height, int order) {
+		if (kept != null && kept.intersects(origin.x, origin.y, width, height)) {
+			return this;
+		}
+		deleteRoad(road);
+		if (this.city == null && numRoads == 0) return EmptyNode.instance;
 		else return this;
 	}
+
+	/**
+	 * Read-only view of the roads of this leaf.
+	 */
+	private class RoadList extends AbstractList<Road> implements RandomAccess {
+		public Road get(int index) {
+			if (index < 0 || index >= numRoads) {
+				throw new IndexOutOfBoundsException();
+			}
+			return roads[index];
+		}
+
+		public int size() {
+			return numRoads;
+		}
+	}
 }
\ No newline at end of file
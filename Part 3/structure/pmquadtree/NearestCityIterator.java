@@ -0,0 +1,152 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Point2D;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import cmsc420.geom.Shape2DDistanceCalculator;
+import cmsc420.structure.City;
+
+/**
+ * Iterates over the cities of a PM Quadtree in increasing distance from a
+ * point. Airports and terminals are skipped. Cities at the same distance come
+ * in reverse order of their names, the order nearestCity breaks ties in.
+ * <p>
+ * The search is best-first: nodes wait in a priority queue keyed by their
+ * distance from the point, and an internal node is only opened once nothing
+ * left in the queue can be closer. Each call to next opens just enough of the
+ * tree to find one more city, so a caller wanting the nearest few cities does
+ * not pay for the rest.
+ */
+public class NearestCityIterator implements Iterator<City> {
+
+	/** PM Quadtree being searched */
+	private final PMQuadtree pmQuadtree;
+
+	/** point distances are measured from */
+	private final Point2D point;
+
+	/** nodes and cities not yet returned, closest first */
+	private final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+
+	/**
+	 * cities already returned; a city on the border between quadrants is
+	 * kept in the leaf on each side
+	 */
+	private final HashSet<City> returned = new HashSet<City>();
+
+	/**
+	 * Constructs an iterator over the cities of a PM Quadtree.
+	 *
+	 * @param pmQuadtree
+	 *            PM Quadtree to search
+	 * @param point
+	 *            point distances are measured from
+	 */
+	public NearestCityIterator(PMQuadtree pmQuadtree, Point2D point) {
+		this.pmQuadtree = pmQuadtree;
+		this.point = point;
+		offer(pmQuadtree.getRoot());
+	}
+
+	/**
+	 * Whether there is another city. Opens internal nodes until the closest
+	 * thing left is a city that has not been returned yet.
+	 *
+	 * @return true if another city is left
+	 */
+	public boolean hasNext() {
+		while (!queue.isEmpty()) {
+			final Candidate closest = queue.peek();
+			if (closest.city == null) {
+				queue.poll();
+				final InternalNode internal = (InternalNode) closest.node;
+				for (int i = 0; i < 4; i++) {
+					offer(internal.getChild(i));
+				}
+			} else if (returned.contains(closest.city)) {
+				queue.poll();
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the closest city not yet returned.
+	 *
+	 * @return next closest city
+	 * @throws NoSuchElementException
+	 *             every city has been returned
+	 */
+	public City next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final City city = queue.poll().city;
+		returned.add(city);
+		return city;
+	}
+
+	/**
+	 * Removing cities through the iterator is not supported.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Queues an internal node, or the city of a leaf if it is a city of the
+	 * spatial map rather than an airport or terminal.
+	 */
+	private void offer(Node node) {
+		if (node.getType() == Node.INTERNAL) {
+			queue.add(new Candidate(node, null, Shape2DDistanceCalculator
+					.distance(point, ((InternalNode) node).getRegion())));
+		} else if (node.getType() == Node.LEAF) {
+			final City city = node.getCity();
+			if (city != null && pmQuadtree.containsCity(city)) {
+				queue.add(new Candidate(node, city, point.distance(city
+						.localtoPoint2D())));
+			}
+		}
+	}
+
+	/**
+	 * An internal node or a city waiting in the queue.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		/** node waiting to be opened or holding the city */
+		final Node node;
+
+		/** city to return, or null for an internal node */
+		final City city;
+
+		/** least distance from the point to anything in the node */
+		final double distance;
+
+		Candidate(Node node, City city, double distance) {
+			this.node = node;
+			this.city = city;
+			this.distance = distance;
+		}
+
+		public int compareTo(Candidate other) {
+			if (distance < other.distance) {
+				return -1;
+			} else if (distance > other.distance) {
+				return 1;
+			} else if (city == null) {
+				/* open internal nodes first, they may hold a tie */
+				return other.city == null ? 0 : -1;
+			} else if (other.city == null) {
+				return 1;
+			} else {
+				return other.city.getName().compareTo(city.getName());
+			}
+		}
+	}
+}
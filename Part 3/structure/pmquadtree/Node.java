@@ -2,8 +2,7 @@ package cmsc420.structure.pmquadtree;
 
 import java.awt.geom.*;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.TreeSet;
+import java.util.List;
 
 import cmsc420.exception.ViolatesPMRulesException;
 import cmsc420.structure.City;
@@ -65,18 +64,22 @@ public abstract class Node implements Serializable {
 	public abstract City getCity();
 	
 	/**
-	 * Gets the city contained by this node.
+	 * Gets the roads contained by this node.
 	 * 
-	 * @return city contained by this node
+	 * @return roads contained by this node
 	 */
-	public abstract TreeSet<ArrayList<City>> getRoads();
+	public abstract List<Road> getRoads();
 	
 	/**
-	 * Adds a road to the node. if the road intersects with any 
+	 * Adds a road to the node. if the segment intersects with any 
 	 * side of the rectangle, then add road to the node
 	 * 
 	 * @param road
 	 *            road to be added to the PM Quadtree
+	 * @param segment
+	 *            segment of the road checked against the nodes; a road is
+	 *            first added the way it was mapped, and added again by the
+	 *            nodes it is moved to when a node splits by its own segment
 	 * @param origin
 	 *            origin of the rectangular bounds of this node
 	 * @param width
@@ -86,8 +89,9 @@ public abstract class Node implements Serializable {
 	 * @return this node after the road has been added
 	 * @throws RoadViolatesPMRulesException 
 	 */
-	public abstract Node addRoad(City start, City end, Point2D.Float origin, int width,
-			int height, int order) throws ViolatesPMRulesException;
+	public abstract Node addRoad(Road road, Line2D.Float segment,
+			Point2D.Float origin, int width, int height, int order)
+			throws ViolatesPMRulesException;
 
 	/**
 	 * Removes a city from the node. If this is a leaf node and the city is
@@ -113,6 +117,9 @@ public abstract class Node implements Serializable {
 	 * 
 	 * @param road
 	 *            road to be removed
+	 * @param kept
+	 *            segment of the road whose leaves keep it, or null to remove
+	 *            it from every leaf
 	 * @param origin
 	 *            origin of the rectangular bounds of this node
 	 * @param width
@@ -121,8 +128,8 @@ public abstract class Node implements Serializable {
 	 *            height of the rectangular bounds of this node
 	 * @return this node after the city has been removed
 	 */
-	public abstract Node removeRoad(City start, City end, Point2D.Float origin, int width,
-			int height, int order);
+	public abstract Node removeRoad(Road road, Line2D.Float kept,
+			Point2D.Float origin, int width, int height, int order);
 
 	/**
 	 * Gets the type of the node (either empty, leaf, or internal).
@@ -0,0 +1,225 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.List;
+
+import cmsc420.structure.City;
+
+/**
+ * What the nodes of a PM Quadtree built top-down are to hold. The cities and
+ * roads of the node being built are the top frame of two stacks of indices;
+ * those of one of its quadrants are pushed above them as a new frame and
+ * popped once the quadrant is built, so no lists are made for each node.
+ * <p>
+ * A node holding no more than a leaf would split on is a leaf whatever order
+ * its contents were added in, so building the nodes from the top down lays
+ * them out just as adding the contents one at a time does.
+ */
+class NodeContents {
+
+	/** every city to be held */
+	private final City[] cities;
+
+	/** every road to be held */
+	private final Road[] roads;
+
+	/** coordinates of each city, kept apart from the cities to be read quickly */
+	private final int[] cityX, cityY;
+
+	/** bounds of each road */
+	private final float[] roadLeft, roadRight, roadBottom, roadTop;
+
+	/** indices of the cities of each frame, innermost on top */
+	private int[] cityStack;
+
+	/** indices of the roads of each frame, innermost on top */
+	private int[] roadStack;
+
+	/** bounds of the frames below the top one, four to a frame */
+	private int[] frames = new int[64];
+
+	/** number of frames below the top one */
+	private int depth;
+
+	/** bounds of the top frame in cityStack */
+	private int cityFrom, cityTo;
+
+	/** bounds of the top frame in roadStack */
+	private int roadFrom, roadTo;
+
+	/**
+	 * Constructs the contents of a root node.
+	 *
+	 * @param nodeCities
+	 *            cities to be held
+	 * @param nodeRoads
+	 *            roads to be held
+	 */
+	NodeContents(List<City> nodeCities, List<Road> nodeRoads) {
+		cities = nodeCities.toArray(new City[nodeCities.size()]);
+		roads = nodeRoads.toArray(new Road[nodeRoads.size()]);
+		cityX = new int[cities.length];
+		cityY = new int[cities.length];
+		for (int i = 0; i < cities.length; i++) {
+			cityX[i] = cities[i].getLocalX();
+			cityY[i] = cities[i].getLocalY();
+		}
+		roadLeft = new float[roads.length];
+		roadRight = new float[roads.length];
+		roadBottom = new float[roads.length];
+		roadTop = new float[roads.length];
+		for (int i = 0; i < roads.length; i++) {
+			final Line2D.Float line = roads[i].line;
+			roadLeft[i] = Math.min(line.x1, line.x2);
+			roadRight[i] = Math.max(line.x1, line.x2);
+			roadBottom[i] = Math.min(line.y1, line.y2);
+			roadTop[i] = Math.max(line.y1, line.y2);
+		}
+		cityStack = new int[Math.max(16, 2 * cities.length)];
+		roadStack = new int[Math.max(16, 2 * roads.length)];
+		for (int i = 0; i < cities.length; i++) {
+			cityStack[i] = i;
+		}
+		for (int i = 0; i < roads.length; i++) {
+			roadStack[i] = i;
+		}
+		cityTo = cities.length;
+		roadTo = roads.length;
+	}
+
+	/**
+	 * Returns if the node being built holds nothing.
+	 *
+	 * @return true if the node is to be empty
+	 */
+	boolean isEmpty() {
+		return cityFrom == cityTo && roadFrom == roadTo;
+	}
+
+	/**
+	 * Gets the city the node being built holds, if it holds one city.
+	 *
+	 * @return first city of the node, or null if it has none
+	 */
+	City getCity() {
+		return cityFrom == cityTo ? null : cities[cityStack[cityFrom]];
+	}
+
+	/**
+	 * Gets the number of roads the node being built holds.
+	 *
+	 * @return number of roads of the node
+	 */
+	int getNumRoads() {
+		return roadTo - roadFrom;
+	}
+
+	/**
+	 * Gets a road the node being built holds.
+	 *
+	 * @param k
+	 *            index of the road among those of the node
+	 * @return road of the node
+	 */
+	Road getRoad(int k) {
+		return roads[roadStack[roadFrom + k]];
+	}
+
+	/**
+	 * Returns if a leaf could hold what the node being built holds without
+	 * being split, by the rules LeafNode splits on.
+	 *
+	 * @param order
+	 *            pm order
+	 * @return true if the node is to be a leaf
+	 */
+	boolean fitsInLeaf(int order) {
+		final int numCities = cityTo - cityFrom;
+		if (numCities > 1) {
+			return false;
+		} else if (order == 3) {
+			return true;
+		} else if (numCities == 0) {
+			return roadTo - roadFrom <= 1;
+		}
+		final City city = getCity();
+		for (int k = roadFrom; k < roadTo; k++) {
+			if (!roads[roadStack[k]].hasEndpoint(city)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the contents of a quadrant of the node being built the top frame:
+	 * its cities lying in the quadrant, borders included, and its roads
+	 * crossing the quadrant.
+	 *
+	 * @param x
+	 *            x coordinate of the origin of the quadrant
+	 * @param y
+	 *            y coordinate of the origin of the quadrant
+	 * @param width
+	 *            width of the quadrant
+	 * @param height
+	 *            height of the quadrant
+	 */
+	void push(float x, float y, int width, int height) {
+		if (4 * depth == frames.length) {
+			frames = Arrays.copyOf(frames, 2 * frames.length);
+		}
+		frames[4 * depth] = cityFrom;
+		frames[4 * depth + 1] = cityTo;
+		frames[4 * depth + 2] = roadFrom;
+		frames[4 * depth + 3] = roadTo;
+		depth++;
+
+		final double right = (double) x + width;
+		final double top = (double) y + height;
+
+		int to = cityTo;
+		if (cityStack.length - to < cityTo - cityFrom) {
+			cityStack = Arrays.copyOf(cityStack,
+					2 * cityStack.length + cityTo - cityFrom);
+		}
+		for (int k = cityFrom; k < cityTo; k++) {
+			final int i = cityStack[k];
+			if (cityX[i] >= x && cityX[i] <= right && cityY[i] >= y
+					&& cityY[i] <= top) {
+				cityStack[to++] = i;
+			}
+		}
+		cityFrom = cityTo;
+		cityTo = to;
+
+		to = roadTo;
+		if (roadStack.length - to < roadTo - roadFrom) {
+			roadStack = Arrays.copyOf(roadStack,
+					2 * roadStack.length + roadTo - roadFrom);
+		}
+		for (int k = roadFrom; k < roadTo; k++) {
+			final int i = roadStack[k];
+			/* a segment wholly to one side misses, as Rectangle2D.intersectsLine finds */
+			if (roadRight[i] < x || roadLeft[i] > right || roadTop[i] < y
+					|| roadBottom[i] > top) {
+				continue;
+			}
+			if (roads[i].line.intersects(x, y, width, height)) {
+				roadStack[to++] = i;
+			}
+		}
+		roadFrom = roadTo;
+		roadTo = to;
+	}
+
+	/**
+	 * Goes back to the contents of the node whose quadrant was pushed last.
+	 */
+	void pop() {
+		depth--;
+		cityFrom = frames[4 * depth];
+		cityTo = frames[4 * depth + 1];
+		roadFrom = frames[4 * depth + 2];
+		roadTo = frames[4 * depth + 3];
+	}
+}
@@ -26,6 +26,12 @@ public class PMQuadtree implements Cloneable, Serializable {
 	/** root of the PM Quadtree */
 	private Node root;
 
+	/**
+	 * number of changes made to the PM Quadtree, so that anything drawn from it
+	 * can tell whether it is still current
+	 */
+	protected int modCount;
+
 	/** bounds of the spatial map */
 	protected Point2D.Float spatialOrigin;
 
@@ -47,7 +53,14 @@ public class PMQuadtree implements Cloneable, Serializable {
 	/** used to keep track of airports within the spatial map */
 	protected HashSet<City> terminals;
 	
-	protected HashSet<ArrayList<City>> roads;
+	/** mapped roads, found by their endpoints */
+	protected RoadRegistry roads;
+	
+	/** roads with an endpoint outside of the region the nodes cover */
+	protected HashSet<Road> boundaryRoads;
+
+	/** roads added to the nodes along their segment run from end to start */
+	protected HashSet<Road> reversedRoads;
 
 
 	/**
@@ -58,7 +71,9 @@ public class PMQuadtree implements Cloneable, Serializable {
 		cities = new HashSet<City>();
 		airports = new HashSet<City>();
 		terminals = new HashSet<City>();
-		roads = new HashSet<ArrayList<City>>();
+		roads = new RoadRegistry();
+		boundaryRoads = new HashSet<Road>();
+		reversedRoads = new HashSet<Road>();
 		spatialOrigin = new Point2D.Float(0, 0);
 	}
 	
@@ -113,10 +128,64 @@ public class PMQuadtree implements Cloneable, Serializable {
 	public Node getRoot() {
 		return root;
 	}
+
+	/**
+	 * Gets the number of changes made to the PM Quadtree. The count only ever
+	 * grows, so two equal counts mean the tree was not changed in between.
+	 * 
+	 * @return number of changes made to the PM Quadtree
+	 */
+	public int getModCount() {
+		return modCount;
+	}
 	
 	
-	public HashSet<ArrayList<City>> getRoads() {
-		return roads;
+	/**
+	 * Gets the mapped road between two cities.
+	 * 
+	 * @param one
+	 *            one endpoint
+	 * @param two
+	 *            other endpoint
+	 * @return road between the cities, or null if it is not mapped
+	 */
+	public Road getRoad(City one, City two) {
+		return roads.get(one, two);
+	}
+
+	/**
+	 * Returns if a road between two cities is mapped.
+	 * 
+	 * @param one
+	 *            one endpoint
+	 * @param two
+	 *            other endpoint
+	 * @return true if the road is mapped
+	 */
+	public boolean containsRoad(City one, City two) {
+		return roads.contains(one, two);
+	}
+
+	/**
+	 * Gets the mapped roads ending at a city.
+	 * 
+	 * @param city
+	 *            city whose roads are wanted
+	 * @return roads ending at the city; empty if it has none
+	 */
+	public Collection<Road> getIncidentRoads(City city) {
+		return roads.getRoads(city);
+	}
+
+	/**
+	 * Gets the number of mapped roads ending at a city.
+	 * 
+	 * @param city
+	 *            city whose roads are counted
+	 * @return number of roads ending at the city
+	 */
+	public int getDegree(City city) {
+		return roads.getDegree(city);
 	}
 	
 	
@@ -142,16 +211,15 @@ public class PMQuadtree implements Cloneable, Serializable {
 	 * @throws RoadViolatesPMRulesException 
 	 */
 	public void addAirport(City airport) throws ViolatesPMRulesException {
-		for (ArrayList<City> r : roads) {
-			Line2D.Float line  = new Line2D.Float(r.get(0).getLocalX(), r.get(0).getLocalY(),
-					r.get(1).getLocalX(), r.get(1).getLocalY());
-			if(line.ptSegDist(((Airport)airport).getLocalPT()) == 0) {
+		final Point2D.Float location = ((Airport) airport).getLocalPT();
+		for (Road r : roadsNear(new Line2D.Float(location, location))) {
+			if(r.getLine().ptSegDist(location) == 0) {
 					throw new ViolatesPMRulesException();
 			}
 		}
 		
 		airports.add(airport);
-		root = root.addCity(airport, spatialOrigin, spatialWidth, spatialHeight, order);
+		insertCity(airport);
 		
 	}
 	
@@ -161,9 +229,8 @@ public class PMQuadtree implements Cloneable, Serializable {
 		Line2D.Float road = new Line2D.Float(city.getLocalX(), city.getLocalY(),
 				terminal.getLocalX(), terminal.getLocalY());
 		
-		for (ArrayList<City> r : roads) {
-				Line2D.Float line  = new Line2D.Float(r.get(0).getLocalX(), r.get(0).getLocalY(),
-						r.get(1).getLocalX(), r.get(1).getLocalY());
+		for (Road r : roadsNear(road)) {
+				final Line2D.Float line = r.getLine();
 				
 				if(line.intersectsLine(road)) {	
 					if (((line.getP1().equals(road.getP1())) ||
@@ -181,20 +248,10 @@ public class PMQuadtree implements Cloneable, Serializable {
 		}
 		
 		terminals.add(terminal);
-		root = root.addCity(terminal, spatialOrigin, spatialWidth, spatialHeight, order);
+		insertCity(terminal);
 		
-		ArrayList<City> citiesToAdd = new ArrayList<City>();
-		int cmp = city.getName().compareTo(terminal.getName());
-		if(cmp < 0) {
-			citiesToAdd.add(city);
-			citiesToAdd.add(terminal);
-		}
-		else {
-			citiesToAdd.add(terminal);
-			citiesToAdd.add(city);
-		}
-		roads.add(citiesToAdd);
-		root = root.addRoad(city, terminal, spatialOrigin, spatialWidth, spatialHeight, order);	
+		final Road mapped = addToRoads(city, terminal);
+		placeRoad(mapped, city, road);	
 	}
 	
 	/**
@@ -208,8 +265,10 @@ public class PMQuadtree implements Cloneable, Serializable {
 	public boolean removeAirport(City city) {
 		final boolean success = airports.contains(city);
 		if (success) {
+			final boolean reorient = removalReorients();
 			airports.remove(city);
-			root = root.removeCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
+			deleteCity(city);
+			if (reorient) reorientRoads();
 		}
 		return success;
 	}
@@ -217,8 +276,10 @@ public class PMQuadtree implements Cloneable, Serializable {
 	public boolean removeCity(City city) {
 		final boolean success = cities.contains(city);
 		if (success) {
+			final boolean reorient = removalReorients();
 			cities.remove(city);
-			root = root.removeCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
+			deleteCity(city);
+			if (reorient) reorientRoads();
 		}
 		return success;
 	}
@@ -226,29 +287,19 @@ public class PMQuadtree implements Cloneable, Serializable {
 	public boolean removeTerminal(City city) {
 		final boolean success = terminals.contains(city);
 		if (success) {
+			final boolean reorient = removalReorients();
 			terminals.remove(city);
-			root = root.removeCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
+			deleteCity(city);
+			if (reorient) reorientRoads();
 		}
 		return success;
 	}
 	
 	public void addCity(City city) throws ViolatesPMRulesException {	
-		/* check bounds */
-		int x = (int) city.getLocalX();
-		int y = (int) city.getLocalY();
-		if (x < spatialOrigin.x || x > spatialWidth || y < spatialOrigin.y
-				|| y > spatialHeight) {
-			//Do nothing
-		}
-		else {
 		/* insert city into PMQuadTree */
-			if (!cities.contains(city)) {
-				cities.add(city);
-				root = root.addCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
-				
-			}
+		if (recordCity(city)) {
+			insertCity(city);
 		}
-		
 	}
 	
 	public void addRoad(City start, City end) throws RoadIntersectsAnotherRoadException, 
@@ -258,26 +309,169 @@ public class PMQuadtree implements Cloneable, Serializable {
 		Rectangle2D.Float spatialMap = new Rectangle2D.Float(0, 0,
 				this.spatialWidth, this.spatialHeight);
 		
-		ArrayList<City> citiesToAdd = new ArrayList<City>();
-		int cmp = start.getName().compareTo(end.getName());
-		if(cmp < 0) {
-			citiesToAdd.add(start);
-			citiesToAdd.add(end);
+		if(!road.intersects(spatialMap)) throw new RoadOutOfBoundsException();
+		
+		if(roads.contains(start, end)){
+			throw new RoadAlreadyMappedException();
 		}
-		else {
-			citiesToAdd.add(end);
-			citiesToAdd.add(start);
+
+		checkRoad(road, start, end, roadsNear(road));
+		
+		addCity(start);
+		addCity(end); 
+		final Road mapped = addToRoads(start, end);
+		placeRoad(mapped, start, road);
+		
+	}
+
+	/**
+	 * Maps a batch of roads at once. Each road fares as it would have if the
+	 * roads had been added by addRoad one at a time in the given order, and a
+	 * road that fails leaves nothing behind.
+	 * <p>
+	 * A batch loaded into an empty PM Quadtree is checked against itself by a
+	 * sweep instead of through the nodes, and the nodes are then built
+	 * top-down from the roads mapped rather than split road by road. If they
+	 * can not be built, since something breaks the PM rules below the
+	 * smallest node, the batch is undone and added one road at a time, so
+	 * that the roads at fault are found in order. A batch added to nodes that
+	 * already hold something is added one road at a time too, since they need
+	 * not be laid out as a fresh build would lay them out: an airport refused
+	 * for breaking the PM rules may be left in some of them.
+	 * 
+	 * @param starts
+	 *            start of each road
+	 * @param ends
+	 *            end of each road
+	 * @return for each road, null if it was mapped, or the exception addRoad
+	 *         would have thrown
+	 */
+	public Throwable[] addRoads(City[] starts, City[] ends) {
+		if (!isEmpty() || spatialWidth != spatialHeight) {
+			/* quadrants are sized by the height alone, so only square maps are built */
+			return addRoadsInOrder(starts, ends);
+		}
+		final int n = starts.length;
+		final Throwable[] failures = new Throwable[n];
+		final Line2D.Float[] segments = new Line2D.Float[n];
+		final Rectangle2D.Float spatialMap = new Rectangle2D.Float(0, 0,
+				spatialWidth, spatialHeight);
+		for (int i = 0; i < n; i++) {
+			final Line2D.Float road = new Line2D.Float(starts[i].getLocalX(),
+					starts[i].getLocalY(), ends[i].getLocalX(), ends[i].getLocalY());
+			if (road.intersects(spatialMap)) {
+				segments[i] = road;
+			} else {
+				failures[i] = new RoadOutOfBoundsException();
+			}
 		}
 		
-		if(!road.intersects(spatialMap)) throw new RoadOutOfBoundsException();
+		final int[][] overlapping = sweep(segments);
+		final Road[] mapped = new Road[n];
+		final ArrayList<City> newCities = new ArrayList<City>();
+		final ArrayList<Road> newRoads = new ArrayList<Road>();
+		final ArrayList<Road> nearbyRoads = new ArrayList<Road>();
+		for (int i = 0; i < n; i++) {
+			if (segments[i] == null) {
+				continue;
+			} else if (roads.contains(starts[i], ends[i])) {
+				failures[i] = new RoadAlreadyMappedException();
+				continue;
+			}
+			/* the nodes are empty, so only these roads can be in the way */
+			nearbyRoads.clear();
+			nearbyRoads.addAll(boundaryRoads);
+			for (int j : overlapping[i]) {
+				if (mapped[j] != null) nearbyRoads.add(mapped[j]);
+			}
+			try {
+				checkRoad(segments[i], starts[i], ends[i], nearbyRoads);
+			} catch (RoadIntersectsAnotherRoadException e) {
+				failures[i] = e;
+				continue;
+			} catch (ViolatesPMRulesException e) {
+				failures[i] = e;
+				continue;
+			}
+			if (recordCity(starts[i])) newCities.add(starts[i]);
+			if (recordCity(ends[i])) newCities.add(ends[i]);
+			mapped[i] = addToRoads(starts[i], ends[i]);
+			newRoads.add(mapped[i]);
+		}
+		if (newRoads.isEmpty()) {
+			return failures;
+		}
 		
-		if(roads.contains(citiesToAdd)){
-			throw new RoadAlreadyMappedException();
+		try {
+			buildNodes(newCities, newRoads);
+		} catch (ViolatesPMRulesException e) {
+			for (int i = n - 1; i >= 0; i--) {
+				if (mapped[i] != null) removeFromRoads(mapped[i]);
+			}
+			for (City city : newCities) {
+				cities.remove(city);
+			}
+			return addRoadsInOrder(starts, ends);
 		}
+		return failures;
+	}
 
-		for (ArrayList<City> r : roads) {
-			Line2D.Float line  = new Line2D.Float(r.get(0).getLocalX(), r.get(0).getLocalY(),
-					r.get(1).getLocalX(), r.get(1).getLocalY());
+	/**
+	 * Maps a batch of roads one at a time, undoing each road that breaks the
+	 * PM rules.
+	 * 
+	 * @param starts
+	 *            start of each road
+	 * @param ends
+	 *            end of each road
+	 * @return for each road, null if it was mapped, or the exception addRoad
+	 *         threw
+	 */
+	private Throwable[] addRoadsInOrder(City[] starts, City[] ends) {
+		final Throwable[] failures = new Throwable[starts.length];
+		for (int i = 0; i < starts.length; i++) {
+			final boolean hadStart = containsCity(starts[i]);
+			final boolean hadEnd = containsCity(ends[i]);
+			try {
+				addRoad(starts[i], ends[i]);
+			} catch (ViolatesPMRulesException e) {
+				removeRoad(starts[i], ends[i]);
+				if (!hadEnd) removeCity(ends[i]);
+				if (!hadStart) removeCity(starts[i]);
+				failures[i] = e;
+			} catch (RoadIntersectsAnotherRoadException e) {
+				failures[i] = e;
+			} catch (RoadAlreadyMappedException e) {
+				failures[i] = e;
+			} catch (RoadOutOfBoundsException e) {
+				failures[i] = e;
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Checks a road against the mapped roads near it and against every
+	 * airport.
+	 * 
+	 * @param road
+	 *            segment of the road
+	 * @param start
+	 *            start of the road
+	 * @param end
+	 *            end of the road
+	 * @param nearbyRoads
+	 *            mapped roads the road may touch
+	 * @throws RoadIntersectsAnotherRoadException
+	 *             the road crosses a mapped road other than at a shared end
+	 * @throws ViolatesPMRulesException
+	 *             the road passes through an airport
+	 */
+	private void checkRoad(Line2D.Float road, City start, City end,
+			Collection<Road> nearbyRoads)
+			throws RoadIntersectsAnotherRoadException, ViolatesPMRulesException {
+		for (Road r : nearbyRoads) {
+			final Line2D.Float line = r.getLine();
 			if(line.intersectsLine(road)) {	
 					if (((line.getP1().equals(road.getP1())) ||
 							(line.getP1().equals(road.getP2())) ||
@@ -294,32 +488,107 @@ public class PMQuadtree implements Cloneable, Serializable {
 		}
 		
 		for (City airport : airports) {
-			if( road.ptSegDist(((Airport)airport).getLocalPT()) == 0.0) {
+			if(road.ptSegDist(((Airport)airport).getLocalPT()) == 0.0) {
 					throw new ViolatesPMRulesException();
 			}
 		}
+	}
+
+	/**
+	 * Finds the pairs of segments whose bounding boxes overlap, since only
+	 * those can touch. A vertical line is swept from left to right, keeping
+	 * the segments it crosses; each segment reached is compared with those
+	 * alone.
+	 * 
+	 * @param segments
+	 *            segments to sweep; null ones are skipped
+	 * @return for each segment, the earlier segments whose boxes overlap its
+	 */
+	private static int[][] sweep(Line2D.Float[] segments) {
+		final int n = segments.length;
+		final float[] bottom = new float[n];
+		final float[] top = new float[n];
+		final float[] right = new float[n];
+		/* left end in the high half, index in the low half, so sorting orders by left end */
+		final long[] byLeft = new long[n];
+		int numSegments = 0;
+		for (int i = 0; i < n; i++) {
+			final Line2D.Float segment = segments[i];
+			if (segment != null) {
+				bottom[i] = Math.min(segment.y1, segment.y2);
+				top[i] = Math.max(segment.y1, segment.y2);
+				right[i] = Math.max(segment.x1, segment.x2);
+				int left = Float.floatToIntBits(Math.min(segment.x1, segment.x2));
+				left ^= (left >> 31) & 0x7fffffff;
+				byLeft[numSegments++] = ((long) left << 32) | i;
+			}
+		}
+		Arrays.sort(byLeft, 0, numSegments);
 		
-		addCity(start);
-		addCity(end); 
-		roads.add(citiesToAdd);
-		root = root.addRoad(start, end, spatialOrigin, spatialWidth, spatialHeight, order);
+		final int[] counts = new int[n];
+		int[] pairs = new int[16];
+		int numPairs = 0;
+		final int[] crossed = new int[numSegments];
+		int numCrossed = 0;
+		for (int s = 0; s < numSegments; s++) {
+			final int i = (int) byLeft[s];
+			final Line2D.Float segment = segments[i];
+			final float left = Math.min(segment.x1, segment.x2);
+			for (int k = numCrossed - 1; k >= 0; k--) {
+				final int j = crossed[k];
+				if (right[j] < left) {
+					/* the line has passed it */
+					crossed[k] = crossed[--numCrossed];
+				} else if (bottom[j] <= top[i] && top[j] >= bottom[i]) {
+					if (numPairs == pairs.length) {
+						pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+					}
+					pairs[numPairs++] = Math.max(i, j);
+					pairs[numPairs++] = Math.min(i, j);
+					counts[Math.max(i, j)]++;
+				}
+			}
+			crossed[numCrossed++] = i;
+		}
 		
+		final int[][] overlapping = new int[n][];
+		for (int i = 0; i < n; i++) {
+			overlapping[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+		for (int p = 0; p < numPairs; p += 2) {
+			overlapping[pairs[p]][counts[pairs[p]]++] = pairs[p + 1];
+		}
+		return overlapping;
 	}
 
-	public boolean removeRoad(City start, City end){
-		ArrayList<City> road = new ArrayList<City>();
-		int cmp = start.getName().compareTo(end.getName());
-		if(cmp < 0) {
-			road.add(start);
-			road.add(end);
-		}
-		else {
-			road.add(end);
-			road.add(start);
+	/**
+	 * Records a city of the spatial map, as addCity does, without adding it
+	 * to the nodes.
+	 * 
+	 * @param city
+	 *            city to be recorded
+	 * @return true if the city lies in the spatial map and was not recorded
+	 *         yet
+	 */
+	private boolean recordCity(City city) {
+		/* check bounds */
+		int x = (int) city.getLocalX();
+		int y = (int) city.getLocalY();
+		if (x < spatialOrigin.x || x > spatialWidth || y < spatialOrigin.y
+				|| y > spatialHeight) {
+			return false;
 		}
-		if (roads.contains(road)) {
-			roads.remove(road);
-			root = root.removeRoad(start, end, spatialOrigin, spatialWidth, spatialHeight, order);
+		return cities.add(city);
+	}
+
+	public boolean removeRoad(City start, City end){
+		final Road road = roads.get(start, end);
+		if (road != null) {
+			final boolean reorient = removalReorients();
+			removeFromRoads(road);
+			deleteRoad(road);
+			if (reorient) reorientRoads();
 			return true;
 		}
 		
@@ -327,12 +596,309 @@ public class PMQuadtree implements Cloneable, Serializable {
 	}
 	
 
+	/**
+	 * Records a mapped road. Roads reaching outside of the region the nodes
+	 * cover are also kept aside since the quadtree can not locate them out
+	 * there.
+	 * 
+	 * @param start
+	 *            one endpoint of the road
+	 * @param end
+	 *            other endpoint of the road
+	 * @return the road
+	 */
+	private Road addToRoads(City start, City end) {
+		final Road road = roads.intern(start, end);
+		if (!inNodes(start) || !inNodes(end)) {
+			boundaryRoads.add(road);
+		}
+		return road;
+	}
+
+	/**
+	 * Forgets a mapped road recorded by addToRoads.
+	 * 
+	 * @param road
+	 *            road to be forgotten
+	 */
+	private void removeFromRoads(Road road) {
+		roads.remove(road);
+		boundaryRoads.remove(road);
+		reversedRoads.remove(road);
+	}
+
+	/**
+	 * Adds a newly mapped road to the nodes along the segment it was mapped
+	 * with, noting the road if that segment runs from end to start.
+	 * 
+	 * @param road
+	 *            road to be added
+	 * @param from
+	 *            endpoint the road was mapped from
+	 * @param segment
+	 *            segment from that endpoint to the other
+	 * @throws ViolatesPMRulesException
+	 *             a node would have to be split below the smallest size
+	 */
+	private void placeRoad(Road road, City from, Line2D.Float segment)
+			throws ViolatesPMRulesException {
+		if (from != road.getStart()) {
+			reversedRoads.add(road);
+		}
+		insertRoad(road, segment);
+	}
+
+	/**
+	 * Returns if removing something from the nodes must move the roads laid
+	 * from end to start onto their own segments. Once the nodes are split, a
+	 * removal leaves every road laid from start to end, as rebuilding the
+	 * nodes around what is left would.
+	 * 
+	 * @return true if the reversed roads are to be moved after the removal
+	 */
+	private boolean removalReorients() {
+		return !reversedRoads.isEmpty() && getRoot().getType() == Node.INTERNAL;
+	}
+
+	/**
+	 * Moves every road laid from end to start onto its own segment. A road
+	 * lying outside every node stays out of them. Each road is first added
+	 * along its own segment and then taken out of the leaves only its mapped
+	 * segment touches, so it is never out of the nodes it was in while they
+	 * change around it. Its own segment may touch a node its mapped segment
+	 * misses, and the road may not fit there without splitting a node below
+	 * the smallest size; it then stays on the segment it was mapped with, and
+	 * in whichever nodes its own segment did reach.
+	 */
+	private void reorientRoads() {
+		final HashSet<Road> laid = new HashSet<Road>();
+		final ArrayList<Road> kept = new ArrayList<Road>();
+		for (Road road : reversedRoads) {
+			laid.clear();
+			collect(road.getLine(), laid);
+			if (!laid.contains(road)) {
+				continue;
+			}
+			try {
+				insertRoad(road, road.getLine());
+			} catch (ViolatesPMRulesException e) {
+				kept.add(road);
+				continue;
+			}
+			trimRoad(road);
+		}
+		reversedRoads.clear();
+		reversedRoads.addAll(kept);
+	}
+	
+	/**
+	 * Returns if a city lies within the region the nodes cover. Quadrants are
+	 * sized by the height alone, so once the root is split the nodes cover a
+	 * square as high as the spatial map, whatever its width.
+	 * 
+	 * @param city
+	 *            city to be checked
+	 * @return true if the city is inside the region, false otherwise
+	 */
+	private boolean inNodes(City city) {
+		return city.getLocalX() >= spatialOrigin.x
+				&& city.getLocalX() <= spatialOrigin.x + spatialHeight
+				&& city.getLocalY() >= spatialOrigin.y
+				&& city.getLocalY() <= spatialOrigin.y + spatialHeight;
+	}
+	
+	/**
+	 * Gets the mapped roads that may touch a segment. Two roads can only meet
+	 * inside a leaf both of them were added to, so only the leaves crossed by
+	 * the segment are visited instead of every mapped road.
+	 * 
+	 * @param segment
+	 *            segment being checked against the mapped roads
+	 * @return roads sharing a leaf with the segment, and roads that reach
+	 *         outside of the region the nodes cover
+	 */
+	private HashSet<Road> roadsNear(Line2D.Float segment) {
+		final HashSet<Road> nearbyRoads = new HashSet<Road>();
+		collect(segment, nearbyRoads);
+		nearbyRoads.addAll(boundaryRoads);
+		return nearbyRoads;
+	}
+	
+	/**
+	 * Collects the roads of every leaf crossed by a segment.
+	 * 
+	 * @param node
+	 *            PM Quadtree node being examined
+	 * @param segment
+	 *            segment being located
+	 * @param origin
+	 *            origin of the rectangular bounds of the node
+	 * @param width
+	 *            width of the rectangular bounds of the node
+	 * @param height
+	 *            height of the rectangular bounds of the node
+	 * @param nearbyRoads
+	 *            roads found in the crossed leaves
+	 */
+	private void collect(Node node, Line2D.Float segment, Point2D.Float origin, 
+			int width, int height, HashSet<Road> nearbyRoads) {
+		if (node.getType() == Node.LEAF) {
+			if (segment.intersects(origin.x, origin.y, width, height)) {
+				nearbyRoads.addAll(node.getRoads());
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				final Rectangle2D.Float region = internal.getChildRegion(i);
+				if (segment.intersects(region)) {
+					collect(internal.getChild(i), segment, 
+							new Point2D.Float(region.x, region.y), (int) region.width, 
+							(int) region.height, nearbyRoads);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Collects the roads of every leaf crossed by a segment. This and the
+	 * methods below are all that touch the nodes, so another backend only
+	 * has to replace them; the records of what is mapped are kept here.
+	 * 
+	 * @param segment
+	 *            segment being located
+	 * @param nearbyRoads
+	 *            roads found in the crossed leaves
+	 */
+	protected void collect(Line2D.Float segment, HashSet<Road> nearbyRoads) {
+		collect(root, segment, spatialOrigin, spatialWidth, spatialHeight,
+				nearbyRoads);
+	}
+
+	/**
+	 * Adds a city to the nodes.
+	 * 
+	 * @param city
+	 *            city to be added
+	 * @throws ViolatesPMRulesException
+	 *             a node would have to be split below the smallest size
+	 */
+	protected void insertCity(City city) throws ViolatesPMRulesException {
+		modCount++;
+		root = root.addCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
+	}
+
+	/**
+	 * Adds a road to the nodes it crosses.
+	 * 
+	 * @param road
+	 *            road to be added
+	 * @param segment
+	 *            segment of the road, running the way it was mapped
+	 * @throws ViolatesPMRulesException
+	 *             a node would have to be split below the smallest size
+	 */
+	protected void insertRoad(Road road, Line2D.Float segment)
+			throws ViolatesPMRulesException {
+		modCount++;
+		root = root.addRoad(road, segment, spatialOrigin, spatialWidth,
+				spatialHeight, order);
+	}
+
+	/**
+	 * Removes a city from the nodes, merging the nodes left underfull.
+	 * 
+	 * @param city
+	 *            city to be removed
+	 */
+	protected void deleteCity(City city) {
+		modCount++;
+		root = root.removeCity(city, spatialOrigin, spatialWidth, spatialHeight, order);
+	}
+
+	/**
+	 * Removes a road from the nodes, merging the nodes left underfull.
+	 * 
+	 * @param road
+	 *            road to be removed
+	 */
+	protected void deleteRoad(Road road) {
+		modCount++;
+		root = root.removeRoad(road, null, spatialOrigin, spatialWidth,
+				spatialHeight, order);
+	}
+
+	/**
+	 * Removes a road from the leaves its own segment misses, merging the nodes
+	 * left underfull.
+	 * 
+	 * @param road
+	 *            road to be removed
+	 */
+	protected void trimRoad(Road road) {
+		modCount++;
+		root = root.removeRoad(road, road.getLine(), spatialOrigin,
+				spatialWidth, spatialHeight, order);
+	}
+
+	/**
+	 * Removes every node.
+	 */
+	protected void clearNodes() {
+		modCount++;
+		root = EmptyNode.instance;
+	}
+
+	/**
+	 * Replaces every node by nodes built top-down from what they are to hold.
+	 * The nodes are left as they were if they can not be built.
+	 * 
+	 * @param nodeCities
+	 *            cities, airports and terminals to be held
+	 * @param nodeRoads
+	 *            roads to be held
+	 * @throws ViolatesPMRulesException
+	 *             a node would have to be split below the smallest size
+	 */
+	protected void buildNodes(List<City> nodeCities, List<Road> nodeRoads)
+			throws ViolatesPMRulesException {
+		final Node built = build(new NodeContents(nodeCities, nodeRoads),
+				spatialOrigin, spatialWidth, spatialHeight);
+		modCount++;
+		root = built;
+	}
+
+	private Node build(NodeContents contents, Point2D.Float origin, int width,
+			int height) throws ViolatesPMRulesException {
+		if (contents.isEmpty()) {
+			return EmptyNode.instance;
+		} else if (contents.fitsInLeaf(order)) {
+			final LeafNode leaf = new LeafNode();
+			leaf.city = contents.getCity();
+			for (int k = 0; k < contents.getNumRoads(); k++) {
+				leaf.insertRoad(contents.getRoad(k));
+			}
+			return leaf;
+		}
+		final InternalNode internal = new InternalNode(origin, width, height, order);
+		for (int i = 0; i < 4; i++) {
+			final Point2D.Float childOrigin = internal.origins[i];
+			contents.push(childOrigin.x, childOrigin.y, internal.halfWidth,
+					internal.halfHeight);
+			internal.children[i] = build(contents, childOrigin,
+					internal.halfWidth, internal.halfHeight);
+			contents.pop();
+		}
+		return internal;
+	}
+
 	/**
 	 * Clears the PM Quadtree so it contains no non-empty nodes.
 	 */
 	public void clear() {
-		root = EmptyNode.instance;
+		clearNodes();
 		roads.clear();
+		boundaryRoads.clear();
+		reversedRoads.clear();
 		cities.clear();
 		airports.clear();
 		terminals.clear();
@@ -355,6 +921,19 @@ public class PMQuadtree implements Cloneable, Serializable {
 		return airports.contains(terminal);
 	}
 
+	/**
+	 * Gets the cities of the spatial map in increasing distance from a point.
+	 * The tree is searched best-first as the iterator advances, so stopping
+	 * after the first few cities leaves the rest of the tree unvisited.
+	 * 
+	 * @param point
+	 *            point distances are measured from
+	 * @return iterator over the cities, closest first
+	 */
+	public Iterator<City> nearestCities(Point2D point) {
+		return new NearestCityIterator(this, point);
+	}
+
 
 	/**
 	 * Returns if any part of a circle lies within a given rectangular bounds
@@ -0,0 +1,80 @@
+package cmsc420.structure.pmquadtree;
+
+import cmsc420.structure.City;
+
+/**
+ * Times loading a PM Quadtree with non-crossing roads. Every road is a short
+ * horizontal segment between two cities of its own, laid out on a grid so
+ * that no two roads touch. Also reports the heap taken by the loaded tree,
+ * not counting the cities themselves. Pass "compact" to load a
+ * CompactPMQuadtree instead, and "bulk" to map every road with one call to
+ * addRoads.
+ *
+ * Usage: PMQuadtreeBenchmark [roads] [order] [compact] [bulk]
+ */
+public class PMQuadtreeBenchmark {
+
+	public static void main(String[] args) throws Throwable {
+		final int numRoads = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int order = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		boolean compact = false;
+		boolean bulk = false;
+		for (int i = 2; i < args.length; i++) {
+			compact |= args[i].equals("compact");
+			bulk |= args[i].equals("bulk");
+		}
+
+		/* one road per 4x4 cell of the map */
+		int side = 1;
+		while (side * side < numRoads) side <<= 1;
+		final int spatialSize = side * 4;
+
+		final City[] starts = new City[numRoads];
+		final City[] ends = new City[numRoads];
+		for (int i = 0; i < numRoads; i++) {
+			final int x = (i % side) * 4;
+			final int y = (i / side) * 4;
+			starts[i] = new City("s" + i, 0, 0, x, y, 0, "black");
+			ends[i] = new City("e" + i, 0, 0, x + 2, y, 0, "black");
+		}
+
+		final PMQuadtree pmQuadtree = compact ? new CompactPMQuadtree()
+				: new PMQuadtree();
+		pmQuadtree.setRange(spatialSize, spatialSize);
+		pmQuadtree.setOrder(order);
+
+		final long heapBefore = usedHeap();
+		final long begin = System.nanoTime();
+		if (bulk) {
+			pmQuadtree.addRoads(starts, ends);
+		} else {
+			for (int i = 0; i < numRoads; i++) {
+				pmQuadtree.addRoad(starts[i], ends[i]);
+			}
+		}
+		final long elapsed = System.nanoTime() - begin;
+		final long heapAfter = usedHeap();
+
+		System.out.println("Inserted " + numRoads + " roads into a "
+				+ (compact ? "compact " : "") + "PM" + order
+				+ " Quadtree of size " + spatialSize + (bulk ? " in bulk" : "")
+				+ " in " + (elapsed / 1000000) + " ms");
+		System.out.println("Heap used: " + ((heapAfter - heapBefore) >> 20)
+				+ " MB, " + ((heapAfter - heapBefore) / numRoads) + " bytes per road");
+		if (pmQuadtree.isEmpty()) {
+			/* keep the tree reachable until it has been measured */
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Gets the heap in use once garbage has been collected.
+	 */
+	private static long usedHeap() {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
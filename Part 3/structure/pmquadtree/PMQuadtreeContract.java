@@ -0,0 +1,271 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import cmsc420.exception.RoadIntersectsAnotherRoadException;
+import cmsc420.exception.ViolatesPMRulesException;
+import cmsc420.structure.Airport;
+import cmsc420.structure.City;
+
+/**
+ * Checks the PM Quadtrees of this package against a plain list of what is
+ * mapped. Random roads and airports are added to each tree and to the list,
+ * and the tree must refuse a road exactly when it crosses a mapped road or
+ * passes through an airport, and an airport exactly when a mapped road
+ * passes through it, however far the tree was split. Some roads and airports
+ * are taken away again, so the list must also be matched once nodes have
+ * been merged. Maps wider than high and higher than wide are checked as well
+ * as square ones, each as a PM3 and a PM1 Quadtree. Run as a program; it
+ * prints one line per tree and exits with 1 if any disagrees.
+ */
+public class PMQuadtreeContract {
+
+	private static final int ROUNDS = 40;
+	private static final int STEPS = 300;
+	private static final int ORDER = 3;
+	/** orders of the PM Quadtrees checked on every map */
+	private static final int[] ORDERS = { 3, 1 };
+	/** spatial maps checked, as width and height */
+	private static final int[][] MAPS = { { 64, 64 }, { 64, 32 }, { 32, 64 },
+			{ 128, 32 } };
+
+	/** makes empty trees of the kind being checked */
+	private interface Factory {
+		PMQuadtree create();
+	}
+
+	public static void main(String[] args) {
+		boolean passed = true;
+		passed &= check("PMQuadtree", new Factory() {
+			public PMQuadtree create() {
+				return new PMQuadtree();
+			}
+		});
+		passed &= check("CompactPMQuadtree", new Factory() {
+			public PMQuadtree create() {
+				return new CompactPMQuadtree();
+			}
+		});
+		if (!passed) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(String name, Factory factory) {
+		try {
+			crossingOutsideSquare(factory);
+			undoNextToReversedRoads(factory);
+			for (int order : ORDERS) {
+				for (int[] map : MAPS) {
+					run(factory, order, map[0], map[1]);
+				}
+			}
+			System.out.println(name + ": passed");
+			return true;
+		} catch (RuntimeException e) {
+			System.out.println(name + ": FAILED " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Maps two roads to the right of the square the nodes of a 64x32 map
+	 * cover, then one crossing them.
+	 */
+	private static void crossingOutsideSquare(Factory factory) {
+		final PMQuadtree pmQuadtree = factory.create();
+		pmQuadtree.setRange(64, 32);
+		pmQuadtree.setOrder(ORDER);
+		final City c1 = city(60, 16);
+		try {
+			pmQuadtree.addRoad(city(2, 2), city(5, 9));
+			pmQuadtree.addRoad(city(34, 2), c1);
+			pmQuadtree.addRoad(city(34, 30), c1);
+		} catch (Throwable t) {
+			throw new IllegalStateException("setup: " + t);
+		}
+		same("RoadIntersectsAnotherRoadException",
+				outcome(pmQuadtree, city(37, 0), city(32, 32)), "crossing road");
+	}
+
+	/**
+	 * Maps two PM1 roads end to start, then one that breaks the PM rules.
+	 * Undoing it must leave the two roads mapped.
+	 */
+	private static void undoNextToReversedRoads(Factory factory) {
+		final PMQuadtree pmQuadtree = factory.create();
+		pmQuadtree.setRange(64, 64);
+		pmQuadtree.setOrder(1);
+		final City c1 = city(42, 57);
+		try {
+			pmQuadtree.addRoad(c1, city(29, 59));
+			pmQuadtree.addRoad(c1, city(0, 60));
+		} catch (Throwable t) {
+			throw new IllegalStateException("setup: " + t);
+		}
+		same("ViolatesPMRulesException",
+				outcome(pmQuadtree, city(19, 58), city(2, 42)), "road breaking the PM rules");
+		same("RoadIntersectsAnotherRoadException",
+				outcome(pmQuadtree, city(30, 50), city(30, 63)), "road crossing a mapped road");
+	}
+
+	private static void run(Factory factory, int order, int width, int height) {
+		final Random random = new Random(420);
+		for (int round = 0; round < ROUNDS; round++) {
+			final PMQuadtree pmQuadtree = factory.create();
+			pmQuadtree.setRange(width, height);
+			pmQuadtree.setOrder(order);
+			final HashMap<String, City> cities = new HashMap<String, City>();
+			final List<Line2D.Float> roads = new ArrayList<Line2D.Float>();
+			final List<City[]> endpoints = new ArrayList<City[]>();
+			final List<City> airports = new ArrayList<City>();
+			for (int step = 0; step < STEPS; step++) {
+				if (random.nextInt(8) == 0 && !roads.isEmpty()) {
+					/* unmap a road and its endpoints left without roads as Command does */
+					final int i = random.nextInt(roads.size());
+					final City[] road = endpoints.remove(i);
+					roads.remove(i);
+					same(true, pmQuadtree.removeRoad(road[0], road[1]), "removeRoad "
+							+ road[0].getName() + "-" + road[1].getName());
+					for (City city : road) {
+						if (pmQuadtree.getDegree(city) == 0) {
+							pmQuadtree.removeCity(city);
+						}
+					}
+					continue;
+				}
+				if (random.nextInt(40) == 0 && !airports.isEmpty()) {
+					final City airport = airports.remove(random.nextInt(airports.size()));
+					cities.remove(airport.getLocalX() + "_" + airport.getLocalY());
+					same(true, pmQuadtree.removeAirport(airport), "removeAirport "
+							+ airport.getName());
+					continue;
+				}
+				final int x = 2 * random.nextInt(width / 2 + 1);
+				final int y = 2 * random.nextInt(height / 2 + 1);
+				if (random.nextInt(10) == 0) {
+					if (cities.containsKey(x + "_" + y)) continue;
+					final City airport = new Airport("a" + x + "_" + y, 0, 0, x, y, 0, "black");
+					final String expected = airportOutcome(roads, airport);
+					String actual = "none";
+					try {
+						pmQuadtree.addAirport(airport);
+					} catch (ViolatesPMRulesException e) {
+						actual = e.getClass().getSimpleName();
+						pmQuadtree.removeAirport(airport);
+					}
+					if (actual.equals("none")) {
+						cities.put(x + "_" + y, airport);
+						airports.add(airport);
+					} else if (expected.equals("none")) {
+						/* the nodes could not be split small enough */
+						continue;
+					}
+					same(expected, actual, "addAirport at " + x + "," + y);
+				} else {
+					final City start = cityAt(cities, x, y);
+					final City end = cityAt(cities,
+							2 * random.nextInt(width / 2 + 1),
+							2 * random.nextInt(height / 2 + 1));
+					if (start == end || start instanceof Airport || end instanceof Airport
+							|| pmQuadtree.containsRoad(start, end)) continue;
+					final Line2D.Float road = new Line2D.Float(start.getLocalX(),
+							start.getLocalY(), end.getLocalX(), end.getLocalY());
+					final String expected = roadOutcome(roads, airports, road, start, end);
+					final String actual = outcome(pmQuadtree, start, end);
+					if (actual.equals("none")) {
+						roads.add(road);
+						endpoints.add(new City[] { start, end });
+					} else if (actual.equals("ViolatesPMRulesException")
+							&& expected.equals("none")) {
+						/* the nodes could not be split small enough */
+						continue;
+					}
+					same(expected, actual, "addRoad " + road.getP1() + "-" + road.getP2()
+							+ " on " + width + "x" + height + " PM" + order);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a road, undoing it if it breaks the PM rules as Command does.
+	 *
+	 * @return simple name of what addRoad threw, or "none"
+	 */
+	private static String outcome(PMQuadtree pmQuadtree, City start, City end) {
+		final boolean hadStart = pmQuadtree.containsCity(start);
+		final boolean hadEnd = pmQuadtree.containsCity(end);
+		try {
+			pmQuadtree.addRoad(start, end);
+			return "none";
+		} catch (ViolatesPMRulesException e) {
+			pmQuadtree.removeRoad(start, end);
+			if (!hadEnd) pmQuadtree.removeCity(end);
+			if (!hadStart) pmQuadtree.removeCity(start);
+			return e.getClass().getSimpleName();
+		} catch (Throwable t) {
+			return t.getClass().getSimpleName();
+		}
+	}
+
+	/** Decides a road by looking at every mapped road and airport. */
+	private static String roadOutcome(List<Line2D.Float> roads, List<City> airports,
+			Line2D.Float road, City start, City end) {
+		for (Line2D.Float line : roads) {
+			if (line.intersectsLine(road)) {
+				if (((line.getP1().equals(road.getP1())) ||
+						(line.getP1().equals(road.getP2())) ||
+						(line.getP2().equals(road.getP1())) ||
+						(line.getP2().equals(road.getP2()))) &&
+						(line.ptSegDist(start.getLocalPT()) != 0.0
+						|| line.ptSegDist(end.getLocalPT()) != 0.0) &&
+						(road.ptSegDist(line.getP1()) != 0.0
+						|| road.ptSegDist(line.getP2()) != 0.0)) {
+					continue;
+				}
+				return RoadIntersectsAnotherRoadException.class.getSimpleName();
+			}
+		}
+		for (City airport : airports) {
+			if (road.ptSegDist(airport.getLocalPT()) == 0.0) {
+				return ViolatesPMRulesException.class.getSimpleName();
+			}
+		}
+		return "none";
+	}
+
+	/** Decides an airport by looking at every mapped road. */
+	private static String airportOutcome(List<Line2D.Float> roads, City airport) {
+		for (Line2D.Float line : roads) {
+			if (line.ptSegDist(airport.getLocalPT()) == 0.0) {
+				return ViolatesPMRulesException.class.getSimpleName();
+			}
+		}
+		return "none";
+	}
+
+	private static City cityAt(HashMap<String, City> cities, int x, int y) {
+		City city = cities.get(x + "_" + y);
+		if (city == null) {
+			city = city(x, y);
+			cities.put(x + "_" + y, city);
+		}
+		return city;
+	}
+
+	private static City city(int x, int y) {
+		return new City("c" + x + "_" + y, 0, 0, x, y, 0, "black");
+	}
+
+	private static void same(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new IllegalStateException(what + ": expected " + expected
+					+ " but was " + actual);
+		}
+	}
+}
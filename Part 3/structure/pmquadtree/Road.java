@@ -0,0 +1,161 @@
+package cmsc420.structure.pmquadtree;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.io.Serializable;
+
+import cmsc420.structure.City;
+
+/**
+ * A road mapped in a PM Quadtree. Roads are interned by the RoadRegistry of
+ * their PM Quadtree, so each pair of cities has at most one road, and roads
+ * are ordered by id without looking at names. Two roads are equal if they
+ * have the same id and were made by the same registry. A registry reuses an
+ * id only once its road is removed, so among the roads mapped at one time a
+ * road is only equal to itself.
+ * <p>
+ * The start of a road is the endpoint whose name comes first. The segment
+ * between the endpoints is built once, when the road is made, and shared by
+ * everything that checks the road against a region or another road.
+ * <p>
+ * Line2D does not always say the same of a segment and its reverse where
+ * the segment touches a corner of a region. A road is first added to the
+ * nodes along the segment it was mapped with, which may run end to start,
+ * so it can be in a node its own segment misses.
+ */
+@SuppressWarnings("serial")
+public class Road implements Comparable<Road>, Serializable {
+
+	/** registry that made the road */
+	protected final RoadRegistry registry;
+
+	/** id of the road, unique within its registry */
+	protected final int id;
+
+	/** endpoint whose name comes first */
+	protected final City start;
+
+	/** endpoint whose name comes last */
+	protected final City end;
+
+	/** segment from the start to the end */
+	protected final Line2D.Float line;
+
+	/**
+	 * Constructs a road. Only a registry makes roads.
+	 *
+	 * @param registry
+	 *            registry making the road
+	 * @param id
+	 *            id of the road
+	 * @param start
+	 *            endpoint whose name comes first
+	 * @param end
+	 *            endpoint whose name comes last
+	 */
+	Road(RoadRegistry registry, int id, City start, City end) {
+		this.registry = registry;
+		this.id = id;
+		this.start = start;
+		this.end = end;
+		this.line = new Line2D.Float(start.getLocalX(), start.getLocalY(),
+				end.getLocalX(), end.getLocalY());
+	}
+
+	/**
+	 * Gets the id of this road.
+	 *
+	 * @return id of this road
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the endpoint whose name comes first.
+	 *
+	 * @return start of this road
+	 */
+	public City getStart() {
+		return start;
+	}
+
+	/**
+	 * Gets the endpoint whose name comes last.
+	 *
+	 * @return end of this road
+	 */
+	public City getEnd() {
+		return end;
+	}
+
+	/**
+	 * Gets the segment from the start to the end. The segment is shared and
+	 * must not be changed.
+	 *
+	 * @return segment of this road
+	 */
+	public Line2D.Float getLine() {
+		return line;
+	}
+
+	/**
+	 * Returns if the segment of this road touches a region when followed
+	 * either way, so wherever the road may have been added.
+	 *
+	 * @param region
+	 *            region to be checked
+	 * @return true if the road touches the region
+	 */
+	public boolean touches(Rectangle2D region) {
+		return region.intersectsLine(line.x1, line.y1, line.x2, line.y2)
+				|| region.intersectsLine(line.x2, line.y2, line.x1, line.y1);
+	}
+
+	/**
+	 * Returns if a city is an endpoint of this road.
+	 *
+	 * @param city
+	 *            city to be checked
+	 * @return true if the road starts or ends at the city
+	 */
+	public boolean hasEndpoint(City city) {
+		return start == city || end == city;
+	}
+
+	/**
+	 * Orders roads by id.
+	 */
+	public int compareTo(Road other) {
+		return Integer.compare(id, other.id);
+	}
+
+	/**
+	 * Returns if another object is this road, so a road with the same id made
+	 * by the same registry.
+	 *
+	 * @param obj
+	 *            object to be compared
+	 * @return true if the object is this road
+	 */
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Road)) {
+			return false;
+		}
+		final Road other = (Road) obj;
+		return registry == other.registry && id == other.id;
+	}
+
+	/**
+	 * Returns a hash code for this road, its id.
+	 *
+	 * @return hash code for this road
+	 */
+	public int hashCode() {
+		return id;
+	}
+
+	public String toString() {
+		return "(" + start.getName() + ", " + end.getName() + ")";
+	}
+}
@@ -0,0 +1,199 @@
+package cmsc420.structure.pmquadtree;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+
+import cmsc420.structure.City;
+
+/**
+ * Interns the roads mapped in a PM Quadtree. Each pair of cities has at most
+ * one Road, made when the road is mapped and forgotten when it is unmapped.
+ * Roads are found by either endpoint in constant time, which also gives the
+ * roads ending at a city without looking at any others.
+ * <p>
+ * Ids are small: the id of a forgotten road is given to the next road made,
+ * so ids can index arrays and a road can be stored as just its id.
+ */
+@SuppressWarnings("serial")
+public class RoadRegistry implements Serializable {
+
+	/** roads ending at each city, by the city at their other end */
+	private final HashMap<City, HashMap<City, Road>> roadsByEndpoint;
+
+	/** roads by id; the slots of forgotten roads are null */
+	private Road[] roadsById;
+
+	/** ids of forgotten roads, to be given out again */
+	private int[] freeIds;
+
+	/** number of ids waiting in freeIds */
+	private int numFreeIds;
+
+	/** least id never given out */
+	private int nextId;
+
+	/** number of roads */
+	private int size;
+
+	/**
+	 * Constructs an empty registry.
+	 */
+	public RoadRegistry() {
+		roadsByEndpoint = new HashMap<City, HashMap<City, Road>>();
+		roadsById = new Road[16];
+		freeIds = new int[16];
+	}
+
+	/**
+	 * Gets a road by id.
+	 *
+	 * @param id
+	 *            id of the road
+	 * @return road with the id, or null if no road has it
+	 */
+	public Road get(int id) {
+		return id < nextId ? roadsById[id] : null;
+	}
+
+	/**
+	 * Gets the road between two cities.
+	 *
+	 * @param one
+	 *            one endpoint
+	 * @param two
+	 *            other endpoint
+	 * @return road between the cities, or null if there is none
+	 */
+	public Road get(City one, City two) {
+		final HashMap<City, Road> incident = roadsByEndpoint.get(one);
+		return incident == null ? null : incident.get(two);
+	}
+
+	/**
+	 * Returns if there is a road between two cities.
+	 *
+	 * @param one
+	 *            one endpoint
+	 * @param two
+	 *            other endpoint
+	 * @return true if the cities are joined by a road
+	 */
+	public boolean contains(City one, City two) {
+		return get(one, two) != null;
+	}
+
+	/**
+	 * Gets the road between two cities, making it if there is none.
+	 *
+	 * @param one
+	 *            one endpoint
+	 * @param two
+	 *            other endpoint
+	 * @return the only road between the cities
+	 */
+	public Road intern(City one, City two) {
+		Road road = get(one, two);
+		if (road == null) {
+			final int id = numFreeIds > 0 ? freeIds[--numFreeIds] : nextId++;
+			road = one.getName().compareTo(two.getName()) < 0 ? new Road(
+					this, id, one, two) : new Road(this, id, two, one);
+			if (id == roadsById.length) {
+				roadsById = Arrays.copyOf(roadsById, id * 2);
+			}
+			roadsById[id] = road;
+			link(one, two, road);
+			link(two, one, road);
+			size++;
+		}
+		return road;
+	}
+
+	/**
+	 * Forgets a road.
+	 *
+	 * @param road
+	 *            road to be forgotten
+	 * @return true if the road was in the registry
+	 */
+	public boolean remove(Road road) {
+		if (get(road.start, road.end) != road) {
+			return false;
+		}
+		unlink(road.start, road.end);
+		unlink(road.end, road.start);
+		roadsById[road.id] = null;
+		if (numFreeIds == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+		}
+		freeIds[numFreeIds++] = road.id;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Gets the roads ending at a city.
+	 *
+	 * @param city
+	 *            city whose roads are wanted
+	 * @return roads ending at the city; empty if it has none
+	 */
+	public Collection<Road> getRoads(City city) {
+		final HashMap<City, Road> incident = roadsByEndpoint.get(city);
+		if (incident == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableCollection(incident.values());
+	}
+
+	/**
+	 * Gets the number of roads ending at a city.
+	 *
+	 * @param city
+	 *            city whose roads are counted
+	 * @return number of roads ending at the city
+	 */
+	public int getDegree(City city) {
+		final HashMap<City, Road> incident = roadsByEndpoint.get(city);
+		return incident == null ? 0 : incident.size();
+	}
+
+	/**
+	 * Gets the number of roads.
+	 *
+	 * @return number of roads
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Forgets every road.
+	 */
+	public void clear() {
+		roadsByEndpoint.clear();
+		Arrays.fill(roadsById, 0, nextId, null);
+		numFreeIds = 0;
+		nextId = 0;
+		size = 0;
+	}
+
+	private void link(City from, City to, Road road) {
+		HashMap<City, Road> incident = roadsByEndpoint.get(from);
+		if (incident == null) {
+			incident = new HashMap<City, Road>();
+			roadsByEndpoint.put(from, incident);
+		}
+		incident.put(to, road);
+	}
+
+	private void unlink(City from, City to) {
+		final HashMap<City, Road> incident = roadsByEndpoint.get(from);
+		incident.remove(to);
+		if (incident.isEmpty()) {
+			roadsByEndpoint.remove(from);
+		}
+	}
+}
@@ -1,11 +1,9 @@
 package cmsc420.structure.prquadtree;
 
-import java.awt.Color;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
 import cmsc420.structure.Metropole;
-import cmsc420.utils.*;
 
 
 /**
@@ -76,15 +74,6 @@ public class InternalNode extends Node {
 					halfWidth, halfHeight);
 			i++;
 		}
-
-		/* add a cross to the drawing panel */
-		if (Canvas.instance != null) {
-            //canvas.addCross(getCenterX(), getCenterY(), halfWidth, Color.d);
-			int cx = getCenterX();
-			int cy = getCenterY();
-            Canvas.instance.addLine(cx - halfWidth, cy, cx + halfWidth, cy, Color.BLACK);
-            Canvas.instance.addLine(cx, cy - halfHeight, cx, cy + halfHeight, Color.BLACK);
-		}
 	}
 
 	public Node add(Metropole m, Point2D.Float origin, int width, int height) {
@@ -110,18 +99,9 @@ public class InternalNode extends Node {
 		}
 
 		if (getNumEmptyNodes() == 4) {
-			/* remove cross from the drawing panel */
-			if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-			}
 			return EmptyNode.instance;
 
 		} else if (getNumEmptyNodes() == 3 && getNumLeafNodes() == 1) {
-			/* remove cross from the drawing panel */
-            if (Canvas.isEnabled()) {
-                Canvas.instance.removeCross(getCenterX(), getCenterY(), halfWidth, Color.BLACK);
-            }
-            
 			for (Node node : children) {
 				if (node.getType() == Node.LEAF) {
 					return node;
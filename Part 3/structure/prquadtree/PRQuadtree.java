@@ -20,6 +20,12 @@ public class PRQuadtree {
 	/** root of the PR Quadtree */
 	protected Node root;
 
+	/**
+	 * number of changes made to the PR Quadtree, so that anything drawn from it
+	 * can tell whether it is still current
+	 */
+	protected int modCount;
+
 	/** bounds of the spatial map */
 	protected Point2D.Float spatialOrigin;
 
@@ -32,6 +38,9 @@ public class PRQuadtree {
 	/** used to keep track of cities within the spatial map */
 	protected HashSet<Metropole> metropoles;
 
+	/** mapped cities of each metropole */
+	protected HashMap<Metropole, HashSet<City>> cities;
+
 
 	/**
 	 * Constructs an empty PR Quadtree.
@@ -39,6 +48,7 @@ public class PRQuadtree {
 	public PRQuadtree() {
 		root = EmptyNode.instance;
 		metropoles = new HashSet<Metropole>();
+		cities = new HashMap<Metropole, HashSet<City>>();
 		spatialOrigin = new Point2D.Float(0, 0);
 	}
 
@@ -83,6 +93,16 @@ public class PRQuadtree {
 		return root;
 	}
 
+	/**
+	 * Gets the number of changes made to the PR Quadtree. The count only ever
+	 * grows, so two equal counts mean the tree was not changed in between.
+	 * 
+	 * @return number of changes made to the PR Quadtree
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
 	/**
 	 * Whether the PR Quadtree has zero or more elements.
 	 * 
@@ -108,6 +128,7 @@ public class PRQuadtree {
 	public void add(Metropole m)  {
 		/* insert city into PRQuadTree */
 		metropoles.add(m);
+		modCount++;
 		root = root.add(m, spatialOrigin, spatialWidth, spatialHeight);
 	}
 
@@ -123,6 +144,8 @@ public class PRQuadtree {
 		final boolean success = metropoles.contains(m);
 		if (success) {
 			metropoles.remove(m);
+			cities.remove(m);
+			modCount++;
 			root = root
 					.remove(m, spatialOrigin, spatialWidth, spatialHeight);
 		}
@@ -133,8 +156,80 @@ public class PRQuadtree {
 	 * Clears the PR Quadtree so it contains no non-empty nodes.
 	 */
 	public void clear() {
+		modCount++;
 		root = EmptyNode.instance;
 		metropoles.clear();
+		cities.clear();
+	}
+
+	/**
+	 * Records a city mapped within its metropole, adding the metropole if it
+	 * is not in the PR Quadtree yet.
+	 * 
+	 * @param city
+	 *            mapped city
+	 */
+	public void addCity(City city) {
+		final Metropole m = new Metropole(city.getRemoteX(), city.getRemoteY());
+		if (!metropoles.contains(m)) {
+			add(m);
+		}
+		HashSet<City> mapped = cities.get(m);
+		if (mapped == null) {
+			mapped = new HashSet<City>();
+			cities.put(m, mapped);
+		}
+		mapped.add(city);
+	}
+
+	/**
+	 * Forgets a city that is no longer mapped. The metropole stays.
+	 * 
+	 * @param city
+	 *            unmapped city
+	 */
+	public void removeCity(City city) {
+		final HashSet<City> mapped = cities.get(new Metropole(
+				city.getRemoteX(), city.getRemoteY()));
+		if (mapped != null) {
+			mapped.remove(city);
+		}
+	}
+
+	/**
+	 * Gets the mapped cities of every metropole within a distance of a point.
+	 * Only the parts of the PR Quadtree whose bounds come within the distance
+	 * are visited.
+	 * 
+	 * @param point
+	 *            remote point distances are measured from
+	 * @param radius
+	 *            greatest distance, inclusive
+	 * @param citiesInRange
+	 *            collection the cities are added to
+	 */
+	public void rangeCities(Point2D point, double radius,
+			Collection<City> citiesInRange) {
+		rangeCities(root, point, radius, citiesInRange);
+	}
+
+	private void rangeCities(Node node, Point2D point, double radius,
+			Collection<City> citiesInRange) {
+		if (node.getType() == Node.LEAF) {
+			final Metropole m = ((LeafNode) node).getMetropole();
+			final HashSet<City> mapped = cities.get(m);
+			if (mapped != null && point.distance(m.remotetoPoint2D()) <= radius) {
+				citiesInRange.addAll(mapped);
+			}
+		} else if (node.getType() == Node.INTERNAL) {
+			final InternalNode internal = (InternalNode) node;
+			for (int i = 0; i < 4; i++) {
+				if (Shape2DDistanceCalculator.distance(point,
+						internal.getChildRegion(i)) <= radius) {
+					rangeCities(internal.getChild(i), point, radius, citiesInRange);
+				}
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,167 @@
+package cmsc420.utils;
+
+import java.io.InputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Hands out the command elements of an input one at a time. Commands either
+ * come from a document that has already been parsed and validated, or are
+ * read from a stream with StAX as they arrive, so that only the command being
+ * processed is ever held in memory.
+ * <p>
+ * A streamed input is only checked for being well formed; it is not validated
+ * against the schema, since commands have been processed by the time the end
+ * of the input is seen.
+ */
+public class CommandReader {
+
+	/** parsed input, or null when streaming */
+	private final Element root;
+
+	/** next child of the parsed root to look at */
+	private Node next;
+
+	/** streamed input, or null when reading a parsed document */
+	private final XMLStreamReader reader;
+
+	/** document the streamed elements are created in */
+	private final Document document;
+
+	/** root element of the streamed input, read on construction */
+	private final Element streamedRoot;
+
+	/**
+	 * Reads the commands of a parsed document.
+	 *
+	 * @param doc
+	 *            parsed input
+	 */
+	public CommandReader(final Document doc) {
+		root = doc.getDocumentElement();
+		next = root.getFirstChild();
+		reader = null;
+		document = null;
+		streamedRoot = null;
+	}
+
+	/**
+	 * Streams the commands of an input. The root element is read right away.
+	 *
+	 * @param input
+	 *            input to stream
+	 * @param document
+	 *            document to create the command elements in; they are never
+	 *            attached to it
+	 * @throws XMLStreamException
+	 *             the input does not start with a well formed root element
+	 */
+	public CommandReader(final InputStream input, final Document document)
+			throws XMLStreamException {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		root = null;
+		reader = factory.createXMLStreamReader(input);
+		this.document = document;
+		while (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			if (!reader.hasNext()) {
+				throw new XMLStreamException("Input has no root element");
+			}
+			reader.next();
+		}
+		streamedRoot = createElement();
+	}
+
+	/**
+	 * Gets the root commands element. When streaming, the element only has
+	 * the attributes of the root, not its children.
+	 *
+	 * @return the root element
+	 */
+	public Element getRoot() {
+		return root != null ? root : streamedRoot;
+	}
+
+	/**
+	 * Gets the next command.
+	 *
+	 * @return next command element, or null once every command has been read
+	 * @throws XMLStreamException
+	 *             the streamed input is not well formed
+	 */
+	public Element next() throws XMLStreamException {
+		if (root != null) {
+			/* need to check if Element (ignore comments) */
+			while (next != null && next.getNodeType() != Node.ELEMENT_NODE) {
+				next = next.getNextSibling();
+			}
+			if (next == null) {
+				return null;
+			}
+			final Element command = (Element) next;
+			next = next.getNextSibling();
+			return command;
+		}
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				return readElement();
+			case XMLStreamConstants.END_ELEMENT:
+				/* end of the root element */
+				reader.close();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the element the reader is on, along with anything inside it.
+	 */
+	private Element readElement() throws XMLStreamException {
+		final Element element = createElement();
+		while (true) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				element.appendChild(readElement());
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+				if (!reader.isWhiteSpace()) {
+					element.appendChild(document.createTextNode(reader.getText()));
+				}
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return element;
+			}
+		}
+	}
+
+	/**
+	 * Creates an element with the name and attributes of the start tag the
+	 * reader is on.
+	 */
+	private Element createElement() {
+		final Element element = document.createElement(reader.getLocalName());
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			final String prefix = reader.getAttributePrefix(i);
+			if (prefix == null || prefix.equals(XMLConstants.DEFAULT_NS_PREFIX)) {
+				element.setAttribute(reader.getAttributeLocalName(i),
+						reader.getAttributeValue(i));
+			} else {
+				element.setAttributeNS(reader.getAttributeNamespace(i), prefix + ":"
+						+ reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+			}
+		}
+		return element;
+	}
+}